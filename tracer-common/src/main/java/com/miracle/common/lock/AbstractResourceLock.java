@@ -1,12 +1,25 @@
 package com.miracle.common.lock;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Description:资源锁的抽象实现
  * 大致思路是每个资源key会记录对应一个由{@link ThreadLocal<String>}所保存的自定义线程id,这个id通过{@link UUID}生成
- * 每个线程在第一次进入资源锁之时都会被初始化一个自定义线程id
+ * 每个线程在第一次进入资源锁之时都会被初始化一个自定义线程id,之后一直保持不变
+ * 线程重复锁定已经持有的资源时只在线程本地累加锁定次数,解锁到最后一次才真正释放存储中的锁
+ * 异步获取的锁以句柄自己的id锁定,等待期间不占用线程:共享定时器只负责每隔一个重试间隔触发一次,
+ * 访问存储的尝试在单独的线程池中执行;资源锁在本进程中被释放,或者子类通过{@link #wakeAsyncWaiters(String)}
+ * 通知资源锁被释放时,等待它的异步获取会立即重新尝试
+ * 可以通过{@link #setContentionProfiler}开启竞争分析,统计最热的资源key、等待时长、重试次数与持有时长
  * 该资源锁是一个非公平锁
  *
  * @author guobin On date 2018/7/1.
@@ -30,11 +43,31 @@ public abstract class AbstractResourceLock implements ResourceLock {
      */
     private final ThreadLocal<String> localThreadInfo = ThreadLocal.withInitial(() -> UUID.randomUUID().toString());
 
+    /**
+     * 当前线程持有的每个资源锁被锁定的次数
+     */
+    private final ThreadLocal<Map<String, Integer>> localHolds = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * 开启竞争分析时当前线程获取每个资源锁的时间,用于计算持有时长
+     */
+    private final ThreadLocal<Map<String, Long>> localHoldStarts = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * 等待每个资源锁的异步获取
+     */
+    private final Map<String, Set<AsyncAttempt>> asyncWaiters = new ConcurrentHashMap<>(16);
+
     /**
      * 锁获取失败之时的重试间隔
      */
     private final long retryDelay;
 
+    /**
+     * 竞争分析器,为{@code null}时不做分析
+     */
+    private volatile LockContentionProfiler contentionProfiler;
+
     public AbstractResourceLock() {
         this(DEFAULT_RETRY_DELAY);
     }
@@ -43,9 +76,26 @@ public abstract class AbstractResourceLock implements ResourceLock {
         this.retryDelay = retryDelay;
     }
 
+    /**
+     * 开启或者关闭竞争分析
+     * @param contentionProfiler 竞争分析器,为{@code null}时关闭
+     */
+    public void setContentionProfiler(LockContentionProfiler contentionProfiler) {
+        this.contentionProfiler = contentionProfiler;
+    }
+
+    public LockContentionProfiler getContentionProfiler() {
+        return contentionProfiler;
+    }
+
     @Override
     public boolean tryLock(String key) {
-        return this.doLock(this.buildResourceKey(key), this.getCurrentThreadId());
+        final boolean result = this.acquire(this.buildResourceKey(key), this.getCurrentThreadId());
+        final LockContentionProfiler profiler = this.contentionProfiler;
+        if (!result && profiler != null) {
+            profiler.recordContention(key, 0L, 0);
+        }
+        return result;
     }
 
     @Override
@@ -57,11 +107,24 @@ public abstract class AbstractResourceLock implements ResourceLock {
         final String storeKey = this.buildResourceKey(key);
         final String lockingThreadId = this.getCurrentThreadId();
         final long start = System.currentTimeMillis();
-        while (!(result = this.doLock(storeKey, lockingThreadId))) {
-            this.await();
-            if ((System.currentTimeMillis() - start) < unit.toMillis(time)) {
+        final long timeout = unit.toMillis(time);
+        if (this.acquire(storeKey, lockingThreadId)) {
+            // 没有竞争
+            return true;
+        }
+        final long waitStart = System.nanoTime();
+        int retries = 0;
+        do {
+            // 超过最长等待时间或者等待期间被中断时放弃
+            if (System.currentTimeMillis() - start >= timeout || !this.awaitRetry(storeKey)) {
+                result = false;
                 break;
             }
+            retries++;
+        } while (!(result = this.acquire(storeKey, lockingThreadId)));
+        final LockContentionProfiler profiler = this.contentionProfiler;
+        if (profiler != null) {
+            profiler.recordContention(key, System.nanoTime() - waitStart, retries);
         }
         return result;
     }
@@ -79,17 +142,97 @@ public abstract class AbstractResourceLock implements ResourceLock {
             // 解锁线程不是加锁线程
             return false;
         }
-        final boolean result = this.doUnlock(storeKey);
-        if (result) {
-            this.localThreadInfo.remove();
+        final Map<String, Integer> holds = this.localHolds.get();
+        final Integer count = holds.get(storeKey);
+        if (count != null && count > 1) {
+            // 还有外层的锁定没有解锁
+            holds.put(storeKey, count - 1);
+            return true;
         }
+        holds.remove(storeKey);
+        this.recordHold(storeKey);
+        final boolean result = this.doUnlock(storeKey, unlockingThreadId);
+        this.wakeAsyncWaiters(storeKey);
         return result;
     }
 
     @Override
     public void unlockForcedly(String key) {
-        if (this.doUnlock(this.buildResourceKey(key))) {
-            this.localThreadInfo.remove();
+        final String storeKey = this.buildResourceKey(key);
+        this.localHolds.get().remove(storeKey);
+        this.localHoldStarts.get().remove(storeKey);
+        this.doUnlock(storeKey);
+        this.wakeAsyncWaiters(storeKey);
+    }
+
+    @Override
+    public CompletableFuture<LockHandle> acquireAsync(String key, long time, TimeUnit unit) {
+        final AsyncAttempt attempt = new AsyncAttempt(key, this.buildResourceKey(key), unit.toNanos(time));
+        // 在compute中加入,以免加入之前集合恰好因为变空被移除,等待者落在已经不在映射中的集合里收不到唤醒
+        this.asyncWaiters.compute(attempt.storeKey, (k, attempts) -> {
+            final Set<AsyncAttempt> waiting = attempts == null ? ConcurrentHashMap.newKeySet() : attempts;
+            waiting.add(attempt);
+            return waiting;
+        });
+        attempt.future.whenComplete((handle, ex) -> {
+            attempt.cancelRetry();
+            this.asyncWaiters.computeIfPresent(attempt.storeKey, (k, attempts) -> {
+                attempts.remove(attempt);
+                return attempts.isEmpty() ? null : attempts;
+            });
+        });
+        // 第一次尝试在调用线程中进行,没有竞争时不需要切换线程
+        attempt.run();
+        return attempt.future;
+    }
+
+    /**
+     * 资源锁被释放时让等待它的异步获取立即重新尝试,尝试在异步获取的线程池中执行
+     * 子类收到其它节点释放锁的通知时应当调用该方法
+     * @param key 被释放的资源锁的key
+     */
+    protected void wakeAsyncWaiters(String key) {
+        final Set<AsyncAttempt> attempts = this.asyncWaiters.get(key);
+        if (attempts != null) {
+            attempts.forEach(AsyncAttempt::trigger);
+        }
+    }
+
+    /**
+     * 获取资源锁,当前线程已经持有时累加锁定次数
+     * 其它线程被强制解锁之后留下的锁定次数会在它重新获取锁时被覆盖
+     * @param storeKey 资源锁的key
+     * @param lockingThreadId 当前线程的自定义线程id
+     * @return true表示获取成功
+     */
+    private boolean acquire(String storeKey, String lockingThreadId) {
+        final Map<String, Integer> holds = this.localHolds.get();
+        if (this.doLock(storeKey, lockingThreadId)) {
+            holds.put(storeKey, 1);
+            if (this.contentionProfiler != null) {
+                this.localHoldStarts.get().put(storeKey, System.nanoTime());
+            }
+            return true;
+        }
+        if (lockingThreadId.equals(this.getLockingThreadId(storeKey))) {
+            holds.merge(storeKey, 1, Integer::sum);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 最后一次解锁时记录持有时长,获取时没有开启竞争分析的持有不会被记录
+     * @param storeKey 资源锁的key
+     */
+    private void recordHold(String storeKey) {
+        final LockContentionProfiler profiler = this.contentionProfiler;
+        if (profiler == null) {
+            return;
+        }
+        final Long holdStart = this.localHoldStarts.get().remove(storeKey);
+        if (holdStart != null) {
+            profiler.recordHold(System.nanoTime() - holdStart);
         }
     }
 
@@ -111,13 +254,17 @@ public abstract class AbstractResourceLock implements ResourceLock {
     }
 
     /**
-     * 当前线程进行休眠
+     * 争抢锁失败之后等待重试,默认休眠一个重试间隔,子类可以在锁被释放时提前唤醒等待的线程
+     * @param key 争抢的资源锁的key
+     * @return true表示等待结束,false表示等待期间被中断,此时线程的中断状态会被保留
      */
-    private void await() {
+    protected boolean awaitRetry(String key) {
         try {
             Thread.sleep(this.retryDelay);
+            return true;
         } catch (InterruptedException ex) {
-            throw new RuntimeException(ex);
+            Thread.currentThread().interrupt();
+            return false;
         }
     }
 
@@ -136,6 +283,25 @@ public abstract class AbstractResourceLock implements ResourceLock {
      */
     protected abstract boolean doUnlock(String key);
 
+    /**
+     * 由加锁线程执行解锁,默认直接执行{@link #doUnlock(String)}
+     * 无法原子地校验加锁线程的存储应当覆盖该方法,在校验加锁线程与删除之间锁可能已经过期并被其它线程获取
+     * @param key 解锁的key
+     * @param lockerId 解锁线程id
+     * @return true表示解锁成功,false失败
+     */
+    protected boolean doUnlock(String key, String lockerId) {
+        return this.doUnlock(key);
+    }
+
+    /**
+     * 得到争抢锁失败之后的重试间隔
+     * @return 重试间隔,单位毫秒
+     */
+    protected long getRetryDelay() {
+        return this.retryDelay;
+    }
+
     /**
      * 获取加锁线程的id
      * @param key 查询的key
@@ -143,4 +309,104 @@ public abstract class AbstractResourceLock implements ResourceLock {
      */
     protected abstract String getLockingThreadId(String key);
 
+    /**
+     * 一次异步获取,同一时刻最多只有一次尝试在进行,尝试期间到达的唤醒会在它之后再触发一次尝试
+     */
+    private final class AsyncAttempt implements Runnable {
+
+        private final String key;
+
+        private final String storeKey;
+
+        /**
+         * 句柄的id,异步获取的锁以它锁定
+         */
+        private final String handleId;
+
+        /**
+         * 开始获取的时间
+         */
+        private final long start;
+
+        /**
+         * 最长等待时间,单位纳秒
+         */
+        private final long timeoutNanos;
+
+        private final CompletableFuture<LockHandle> future;
+
+        /**
+         * 是否已经有一次尝试等待执行
+         */
+        private final AtomicBoolean triggered;
+
+        /**
+         * 定时器上安排的下一次尝试
+         */
+        private ScheduledFuture<?> retry;
+
+        AsyncAttempt(String key, String storeKey, long timeoutNanos) {
+            this.key = key;
+            this.storeKey = storeKey;
+            this.handleId = UUID.randomUUID().toString();
+            this.start = System.nanoTime();
+            this.timeoutNanos = timeoutNanos;
+            this.future = new CompletableFuture<>();
+            this.triggered = new AtomicBoolean();
+        }
+
+        /**
+         * 在异步获取的线程池中安排一次尝试,已经有尝试等待执行时不重复安排
+         * 定时器与释放通知都只调用该方法,不会在它们的线程中访问存储
+         */
+        void trigger() {
+            if (!this.future.isDone() && this.triggered.compareAndSet(false, true)) {
+                LockTimer.execute(this);
+            }
+        }
+
+        /**
+         * 尝试一次获取,失败时在定时器上安排下一次尝试
+         */
+        @Override
+        public synchronized void run() {
+            this.triggered.set(false);
+            if (this.future.isDone()) {
+                // 已经被调用方取消
+                return;
+            }
+            try {
+                if (AbstractResourceLock.this.doLock(this.storeKey, this.handleId)) {
+                    final LockHandle handle = new LockHandle(this.key, () -> {
+                        AbstractResourceLock.this.doUnlock(this.storeKey, this.handleId);
+                        AbstractResourceLock.this.wakeAsyncWaiters(this.storeKey);
+                    });
+                    if (!this.future.complete(handle)) {
+                        handle.close();
+                    }
+                    return;
+                }
+            } catch (RuntimeException ex) {
+                this.future.completeExceptionally(ex);
+                return;
+            }
+            final long remainingNanos = this.timeoutNanos - (System.nanoTime() - this.start);
+            if (remainingNanos <= 0) {
+                this.future.completeExceptionally(
+                        new TimeoutException("Timed out acquiring resource lock " + this.key));
+                return;
+            }
+            this.cancelRetry();
+            this.retry = LockTimer.schedule(this::trigger,
+                    Math.min(remainingNanos, TimeUnit.MILLISECONDS.toNanos(AbstractResourceLock.this.retryDelay)),
+                    TimeUnit.NANOSECONDS);
+        }
+
+        synchronized void cancelRetry() {
+            if (this.retry != null) {
+                this.retry.cancel(false);
+                this.retry = null;
+            }
+        }
+    }
 }
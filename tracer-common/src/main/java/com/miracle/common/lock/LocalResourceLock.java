@@ -1,10 +1,25 @@
 package com.miracle.common.lock;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Description:用于一个进程内的资源锁
+ * 可以为锁设置租约时长,持有锁超过租约时长的线程会被视作已经失效,它持有的锁由后台的清理任务释放,
+ * 以免一个崩溃或者卡住的线程让所有访问同一个资源的请求永远等待
+ * 租约登记在一个单层的时间轮上,清理任务每个刻度只检查刚刚过去的刻度中的租约,不需要遍历所有被锁定的资源;
+ * 正常解锁时租约直接从时间轮中移除,到期释放的锁同样会唤醒等待它的异步获取
+ * 共享定时器只以弱引用持有清理任务所属的资源锁,不再使用的资源锁被回收之后清理任务自动停止,
+ * 所以不是必须调用{@link #shutdown()}
  *
  * @author guobin On date 2018/7/1.
  * @version 1.0
@@ -12,28 +27,226 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class LocalResourceLock extends AbstractResourceLock {
 
-    private final Map<String, String> lockPool = new ConcurrentHashMap<>(16);
+    private static final Logger LOG = LoggerFactory.getLogger(LocalResourceLock.class);
+
+    /**
+     * 一个租约时长被划分的刻度数量{@value}
+     */
+    private static final int TICKS_PER_LEASE = 32;
+
+    /**
+     * 时间轮的槽数量{@value},覆盖两倍的租约时长,所以正常情况下每个租约在到期之前不会被检查
+     */
+    private static final int WHEEL_SIZE = TICKS_PER_LEASE * 2;
+
+    private final Map<String, Lease> lockPool = new ConcurrentHashMap<>(16);
+
+    /**
+     * 租约时长,不大于0表示不限时长
+     */
+    private final long leaseMillis;
+
+    /**
+     * 时间轮每个刻度的时长
+     */
+    private final long tickMillis;
+
+    /**
+     * 登记租约的时间轮,不限租约时长时为{@code null}
+     */
+    private final Set<Lease>[] wheel;
+
+    /**
+     * 清理任务已经检查过的最后一个刻度,只由清理任务访问
+     */
+    private long sweptTick;
+
+    /**
+     * 因为租约到期而被释放的锁的数量
+     */
+    private final LongAdder expiredLeases;
+
+    /**
+     * 清理任务,不限租约时长时为{@code null}
+     */
+    private final Sweeper sweeper;
 
     public LocalResourceLock() {
         super();
+        this.leaseMillis = 0L;
+        this.tickMillis = 0L;
+        this.wheel = null;
+        this.expiredLeases = new LongAdder();
+        this.sweeper = null;
     }
 
     public LocalResourceLock(long retryDelay) {
+        this(retryDelay, 0L);
+    }
+
+    /**
+     * @param retryDelay 争抢锁失败之后的重试间隔,单位毫秒
+     * @param leaseMillis 租约时长,单位毫秒,不大于0表示不限时长
+     */
+    @SuppressWarnings("unchecked")
+    public LocalResourceLock(long retryDelay, long leaseMillis) {
         super(retryDelay);
+        this.leaseMillis = leaseMillis;
+        this.expiredLeases = new LongAdder();
+        if (leaseMillis <= 0) {
+            this.tickMillis = 0L;
+            this.wheel = null;
+            this.sweeper = null;
+            return;
+        }
+        this.tickMillis = Math.max(1L, leaseMillis / TICKS_PER_LEASE);
+        this.wheel = new Set[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            this.wheel[i] = ConcurrentHashMap.newKeySet();
+        }
+        this.sweptTick = System.currentTimeMillis() / this.tickMillis - 1;
+        this.sweeper = new Sweeper(this);
+        this.sweeper.future = LockTimer.scheduleAtFixedRate(this.sweeper, this.tickMillis, this.tickMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 得到因为租约到期而被释放的锁的数量
+     * @return 到期的租约数量
+     */
+    public long getExpiredLeaseCount() {
+        return this.expiredLeases.sum();
+    }
+
+    /**
+     * 停止清理任务,之后到期的租约不会再被释放
+     * 资源锁不再被引用时清理任务会随它的回收自动停止,该方法只用于提前停止
+     */
+    public void shutdown() {
+        Optional.ofNullable(this.sweeper).ifPresent(Sweeper::cancel);
     }
 
     @Override
     protected boolean doLock(String key, String lockerId) {
-        return this.lockPool.putIfAbsent(key, lockerId) == null;
+        final Lease lease = new Lease(key, lockerId,
+                this.wheel == null ? Long.MAX_VALUE : System.currentTimeMillis() + this.leaseMillis);
+        if (this.lockPool.putIfAbsent(key, lease) != null) {
+            return false;
+        }
+        if (this.wheel != null) {
+            this.slotOf(lease).add(lease);
+        }
+        return true;
     }
 
     @Override
     protected boolean doUnlock(String key) {
-        return this.lockPool.remove(key) != null;
+        final Lease lease = this.lockPool.remove(key);
+        this.cancel(lease);
+        return lease != null;
+    }
+
+    @Override
+    protected boolean doUnlock(String key, String lockerId) {
+        final Lease lease = this.lockPool.get(key);
+        // 只删除属于解锁线程的租约,租约可能刚刚到期并被其它线程获取
+        if (lease == null || !lease.lockerId.equals(lockerId) || !this.lockPool.remove(key, lease)) {
+            return false;
+        }
+        this.cancel(lease);
+        return true;
     }
 
     @Override
     protected String getLockingThreadId(String key) {
-        return this.lockPool.get(key);
+        return Optional.ofNullable(this.lockPool.get(key)).map(lease -> lease.lockerId).orElse(null);
+    }
+
+    private void cancel(Lease lease) {
+        if (lease != null && this.wheel != null) {
+            this.slotOf(lease).remove(lease);
+        }
+    }
+
+    private Set<Lease> slotOf(Lease lease) {
+        return this.wheel[(int) ((lease.expireTime / this.tickMillis) & (WHEEL_SIZE - 1))];
+    }
+
+    /**
+     * 检查所有已经完整过去的刻度,释放其中到期的租约
+     * 清理任务被推迟超过一圈时每个槽只检查一次,因为一个槽中包含了所有落在它上面的刻度的租约
+     */
+    private void sweep() {
+        final long now = System.currentTimeMillis();
+        final long currentTick = now / this.tickMillis;
+        for (long tick = Math.max(this.sweptTick + 1, currentTick - WHEEL_SIZE); tick < currentTick; tick++) {
+            final Set<Lease> slot = this.wheel[(int) (tick & (WHEEL_SIZE - 1))];
+            for (Lease lease : slot) {
+                // 时钟回拨时槽中可能有下一圈才到期的租约
+                if (lease.expireTime <= now) {
+                    slot.remove(lease);
+                    this.expire(lease);
+                }
+            }
+        }
+        this.sweptTick = currentTick - 1;
+    }
+
+    private void expire(Lease lease) {
+        if (this.lockPool.remove(lease.key, lease)) {
+            this.expiredLeases.increment();
+            LOG.warn("Lease of resource lock {} held by {} expired after {} ms.", lease.key, lease.lockerId,
+                    this.leaseMillis);
+            this.wakeAsyncWaiters(lease.key);
+        }
+    }
+
+    /**
+     * 共享定时器上的清理任务,以弱引用持有资源锁,资源锁被回收之后取消自己
+     */
+    private static final class Sweeper implements Runnable {
+
+        private final WeakReference<LocalResourceLock> lockReference;
+
+        /**
+         * 定时执行的结果,用于取消,在安排之后才被赋值
+         */
+        private volatile ScheduledFuture<?> future;
+
+        Sweeper(LocalResourceLock lock) {
+            this.lockReference = new WeakReference<>(lock);
+        }
+
+        @Override
+        public void run() {
+            final LocalResourceLock lock = this.lockReference.get();
+            if (lock == null) {
+                this.cancel();
+                return;
+            }
+            lock.sweep();
+        }
+
+        void cancel() {
+            Optional.ofNullable(this.future).ifPresent(scheduled -> scheduled.cancel(false));
+        }
+    }
+
+    /**
+     * 一次锁定的租约,以对象本身区分同一个资源的不同次锁定
+     */
+    private static final class Lease {
+
+        private final String key;
+
+        private final String lockerId;
+
+        private final long expireTime;
+
+        Lease(String key, String lockerId, long expireTime) {
+            this.key = key;
+            this.lockerId = lockerId;
+            this.expireTime = expireTime;
+        }
     }
 }
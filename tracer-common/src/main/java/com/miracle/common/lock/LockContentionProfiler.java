@@ -0,0 +1,126 @@
+package com.miracle.common.lock;
+
+import com.miracle.common.metrics.LogLinearHistogram;
+import com.miracle.common.metrics.SpaceSavingSketch;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Description:资源锁的竞争分析器,通过{@link AbstractResourceLock#setContentionProfiler}按需开启
+ * 只有第一次尝试失败、需要等待的获取才会被记为一次竞争,记录等待时长、重试次数并计入最热资源key的统计;
+ * 最热资源key以{@link SpaceSavingSketch}统计,内存占用只与跟踪的数量有关
+ * 没有竞争的获取只在解锁时记录一次持有时长,是几次原子累加的开销
+ *
+ * @author guobin On date 2018/7/26.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class LockContentionProfiler {
+
+    /**
+     * 默认跟踪的资源key数量{@value}
+     */
+    private static final int DEFAULT_TRACKED_KEYS = 64;
+
+    /**
+     * 发生竞争的资源key,附带的数值为等待的纳秒数
+     */
+    private final SpaceSavingSketch<String> hotKeys;
+
+    /**
+     * 发生竞争的获取等待的时长,单位纳秒,包括最终超时的等待
+     */
+    private final LogLinearHistogram waitNanos;
+
+    /**
+     * 发生竞争的获取重试的次数
+     */
+    private final LogLinearHistogram retries;
+
+    /**
+     * 从获取到最后一次解锁的持有时长,单位纳秒
+     */
+    private final LogLinearHistogram holdNanos;
+
+    private LockContentionProfiler(int trackedKeys) {
+        this.hotKeys = new SpaceSavingSketch<>(trackedKeys);
+        this.waitNanos = new LogLinearHistogram();
+        this.retries = new LogLinearHistogram();
+        this.holdNanos = new LogLinearHistogram();
+    }
+
+    /**
+     * 构造跟踪默认数量的资源key的分析器
+     * @return 竞争分析器
+     */
+    public static LockContentionProfiler create() {
+        return create(DEFAULT_TRACKED_KEYS);
+    }
+
+    /**
+     * 构造竞争分析器
+     * @param trackedKeys 最多跟踪的资源key数量
+     * @return 竞争分析器
+     */
+    public static LockContentionProfiler create(int trackedKeys) {
+        return new LockContentionProfiler(trackedKeys);
+    }
+
+    /**
+     * 记录一次发生竞争的获取
+     * @param key 资源key
+     * @param waitNanos 等待的时长,单位纳秒
+     * @param retries 重试的次数
+     */
+    void recordContention(String key, long waitNanos, int retries) {
+        this.hotKeys.offer(key, waitNanos);
+        this.waitNanos.record(waitNanos);
+        this.retries.record(retries);
+    }
+
+    /**
+     * 记录一次持有
+     * @param holdNanos 持有的时长,单位纳秒
+     */
+    void recordHold(long holdNanos) {
+        this.holdNanos.record(holdNanos);
+    }
+
+    /**
+     * 得到竞争最多的资源key,按竞争次数从多到少排列
+     * 计数器的数值之和是开始跟踪之后累计等待的纳秒数
+     * @param limit 最多返回的数量
+     * @return 资源key的竞争统计
+     */
+    public List<SpaceSavingSketch.Counter<String>> getHottestKeys(int limit) {
+        return this.hotKeys.top(limit);
+    }
+
+    /**
+     * 得到发生竞争的获取总数
+     * @return 竞争次数
+     */
+    public long getContentionCount() {
+        return this.hotKeys.getTotal();
+    }
+
+    public LogLinearHistogram.Snapshot getWaitNanos() {
+        return this.waitNanos.snapshot();
+    }
+
+    public LogLinearHistogram.Snapshot getRetries() {
+        return this.retries.snapshot();
+    }
+
+    public LogLinearHistogram.Snapshot getHoldNanos() {
+        return this.holdNanos.snapshot();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("contentions=%d, wait(ns)[%s], retries[%s], hold(ns)[%s], hottest=%s",
+                this.getContentionCount(), this.getWaitNanos(), this.getRetries(), this.getHoldNanos(),
+                this.getHottestKeys(10).stream().map(Object::toString).collect(Collectors.joining("; ", "[", "]")));
+    }
+}
@@ -0,0 +1,61 @@
+package com.miracle.common.lock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Description:通过{@link ResourceLock#acquireAsync(String, long, TimeUnit)}获取的资源锁
+ * 锁属于句柄而不属于获取它的线程,所以可以在任意线程中释放,适合在异步的回调链中持有锁;
+ * 可以配合try-with-resources使用,重复关闭时只有第一次会释放锁
+ *
+ * @author guobin On date 2018/7/26.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public final class LockHandle implements AutoCloseable {
+
+    /**
+     * 锁定的资源key
+     */
+    private final String key;
+
+    /**
+     * 释放锁的操作
+     */
+    private final Runnable releaser;
+
+    private final AtomicBoolean released;
+
+    LockHandle(String key, Runnable releaser) {
+        this.key = key;
+        this.releaser = releaser;
+        this.released = new AtomicBoolean();
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * 判断锁是否已经被释放
+     * @return true表示已经释放
+     */
+    public boolean isReleased() {
+        return this.released.get();
+    }
+
+    /**
+     * 释放锁
+     */
+    @Override
+    public void close() {
+        if (this.released.compareAndSet(false, true)) {
+            this.releaser.run();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LockHandle{key='" + this.key + "', released=" + this.released.get() + '}';
+    }
+}
@@ -0,0 +1,63 @@
+package com.miracle.common.lock;
+
+import java.util.function.Consumer;
+
+/**
+ * Description:分布式资源锁所依赖的共享存储
+ * 每个被锁定的资源key对应一个带过期时间的租约,值为持有锁的线程id,所有操作都必须是原子的
+ * 租约被删除时需要通知所有订阅者,使等待中的线程立即重试而不需要轮询
+ * 生产环境使用{@link RedisLockLeaseStore},测试时可以用进程内的实现代替
+ *
+ * @author guobin On date 2018/7/26.
+ * @version 1.0
+ * @since jdk 1.8
+ * @see RedisResourceLock
+ */
+public interface LockLeaseStore {
+
+    /**
+     * 租约不存在时创建租约
+     * @param key 资源锁的key
+     * @param owner 持有锁的线程id
+     * @param leaseMillis 租约时长,单位毫秒
+     * @return true表示创建成功
+     */
+    boolean setIfAbsent(String key, String owner, long leaseMillis);
+
+    /**
+     * 得到租约的持有者
+     * @param key 资源锁的key
+     * @return 持有锁的线程id,租约不存在时返回{@code null}
+     */
+    String getOwner(String key);
+
+    /**
+     * 租约仍然属于给定的持有者时重新设置它的过期时间
+     * @param key 资源锁的key
+     * @param owner 持有锁的线程id
+     * @param leaseMillis 租约时长,单位毫秒
+     * @return true表示续约成功,false表示租约已经过期或者属于其它持有者
+     */
+    boolean renew(String key, String owner, long leaseMillis);
+
+    /**
+     * 租约仍然属于给定的持有者时删除租约并通知订阅者
+     * @param key 资源锁的key
+     * @param owner 持有锁的线程id
+     * @return true表示删除成功
+     */
+    boolean compareAndDelete(String key, String owner);
+
+    /**
+     * 不校验持有者地删除租约并通知订阅者
+     * @param key 资源锁的key
+     * @return true表示删除成功,false表示租约不存在
+     */
+    boolean delete(String key);
+
+    /**
+     * 订阅租约被删除的通知
+     * @param listener 接收被删除的资源锁的key
+     */
+    void subscribe(Consumer<String> listener);
+}
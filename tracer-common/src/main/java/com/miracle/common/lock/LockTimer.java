@@ -0,0 +1,74 @@
+package com.miracle.common.lock;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description:资源锁共享的定时器,负责异步获取的超时与重试以及租约的清理
+ * 定时器只有一个守护线程,定时任务应当很快结束,不能在其中等待;
+ * 需要访问存储的异步获取尝试通过{@link #execute(Runnable)}交给单独的线程池执行
+ *
+ * @author guobin On date 2018/7/26.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+final class LockTimer {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "resource-lock-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ThreadPoolExecutor ATTEMPTS = newAttemptPool();
+
+    private LockTimer() {
+    }
+
+    /**
+     * 延迟执行一个任务
+     * @param task 任务
+     * @param delay 延迟
+     * @param unit 延迟的时间单位
+     * @return 可以用于取消的结果
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return TIMER.schedule(task, delay, unit);
+    }
+
+    /**
+     * 在异步获取的线程池中执行一个任务,任务可以访问存储,但不应当长时间等待
+     * @param task 任务
+     */
+    static void execute(Runnable task) {
+        ATTEMPTS.execute(task);
+    }
+
+    /**
+     * 以固定的频率执行一个任务
+     * @param task 任务
+     * @param initialDelay 第一次执行的延迟
+     * @param period 执行的间隔
+     * @param unit 时间单位
+     * @return 可以用于取消的结果
+     */
+    static ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        return TIMER.scheduleAtFixedRate(task, initialDelay, period, unit);
+    }
+
+    private static ThreadPoolExecutor newAttemptPool() {
+        final int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "resource-lock-attempt");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
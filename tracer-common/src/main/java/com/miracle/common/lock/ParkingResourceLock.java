@@ -0,0 +1,527 @@
+package com.miracle.common.lock;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Description:以等待队列实现的进程内读写资源锁
+ * 每个被锁定的资源key对应一个等待队列,获取锁失败的线程进入队列之后通过{@link LockSupport#park}挂起,
+ * 持有锁的线程解锁时直接把锁交给队首的线程并将其唤醒,不需要等待线程自己休眠之后再重试,交接只需要微秒级的时间;
+ * 队首是连续多个等待读锁的线程时一起交给它们
+ * 锁是公平的,有线程在等待时新来的线程不会插队,已经持有读锁的线程重复获取读锁除外;等待可以设置超时,也可以被中断
+ * 异步获取的写锁在同一个等待队列中排队,轮到它时由释放锁的线程完成结果,等待期间不占用线程,超时由共享的定时器处理
+ * 资源key的状态只在有线程持有或者等待时存在,所以内存占用只与同时使用中的资源数量相关
+ *
+ * @author guobin On date 2018/7/25.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class ParkingResourceLock implements ReadWriteResourceLock {
+
+    /**
+     * 资源key没有被锁定
+     */
+    private static final int NOT_LOCKED = 0;
+
+    /**
+     * 当前线程没有持有资源key的锁
+     */
+    private static final int NOT_HOLDER = -1;
+
+    /**
+     * 正在使用中的资源key的状态
+     */
+    private final Map<String, KeyState> states = new ConcurrentHashMap<>(16);
+
+    @Override
+    public boolean tryLock(String key) {
+        return this.tryAcquire(key, false);
+    }
+
+    @Override
+    public boolean tryLock(String key, long time, TimeUnit unit) {
+        return this.tryAcquire(key, time, unit, false);
+    }
+
+    @Override
+    public void lock(String key) {
+        this.acquireUninterruptibly(key, false);
+    }
+
+    @Override
+    public void lockInterruptibly(String key) throws InterruptedException {
+        this.acquire(key, Long.MAX_VALUE, true, false);
+    }
+
+    @Override
+    public boolean unlock(String key) {
+        return this.release(key, false);
+    }
+
+    @Override
+    public void unlockForcedly(String key) {
+        final KeyState state = this.states.get(key);
+        if (state != null) {
+            this.release(key, state.release(Thread.currentThread(), false, true));
+        }
+    }
+
+    @Override
+    public boolean tryReadLock(String key) {
+        return this.tryAcquire(key, true);
+    }
+
+    @Override
+    public boolean tryReadLock(String key, long time, TimeUnit unit) {
+        return this.tryAcquire(key, time, unit, true);
+    }
+
+    @Override
+    public void readLock(String key) {
+        this.acquireUninterruptibly(key, true);
+    }
+
+    @Override
+    public boolean unlockRead(String key) {
+        return this.release(key, true);
+    }
+
+    @Override
+    public CompletableFuture<LockHandle> acquireAsync(String key, long time, TimeUnit unit) {
+        final CompletableFuture<LockHandle> future = new CompletableFuture<>();
+        final KeyState state = this.retain(key);
+        // 以一个独立的对象代表句柄持有锁,与任何线程都无关
+        final Object token = new Object();
+        final LockHandle handle = new LockHandle(key, () -> this.release(key, state.release(token, false, false)));
+        final Waiter waiter = new Waiter(token, null, false, future, handle);
+        if (state.acquireOrEnqueue(waiter)) {
+            future.complete(handle);
+            return future;
+        }
+        final long timeoutNanos = unit.toNanos(time);
+        if (timeoutNanos <= 0) {
+            this.cancelAsync(key, state, waiter, true);
+            return future;
+        }
+        final ScheduledFuture<?> timeout = timeoutNanos == Long.MAX_VALUE ? null : LockTimer.schedule(
+                () -> this.cancelAsync(key, state, waiter, true), timeoutNanos, TimeUnit.NANOSECONDS);
+        future.whenComplete((acquired, ex) -> {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            if (future.isCancelled()) {
+                this.cancelAsync(key, state, waiter, false);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 放弃异步的等待,锁已经交给该等待者时不做任何事
+     * @param key 资源key
+     * @param state 资源key的状态
+     * @param waiter 异步的等待者
+     * @param timedOut 是否因为超时而放弃
+     */
+    private void cancelAsync(String key, KeyState state, Waiter waiter, boolean timedOut) {
+        if (state.cancel(waiter)) {
+            this.release(key, 1);
+            if (timedOut) {
+                waiter.future.completeExceptionally(new TimeoutException("Timed out acquiring resource lock " + key));
+            }
+        }
+    }
+
+    private boolean tryAcquire(String key, boolean shared) {
+        final KeyState state = this.retain(key);
+        boolean acquired = false;
+        try {
+            acquired = state.tryAcquire(Thread.currentThread(), shared);
+            return acquired;
+        } finally {
+            if (!acquired) {
+                this.release(key, 1);
+            }
+        }
+    }
+
+    private boolean tryAcquire(String key, long time, TimeUnit unit, boolean shared) {
+        if (time <= 0) {
+            return this.tryAcquire(key, shared);
+        }
+        try {
+            return this.acquire(key, this.deadlineAfter(unit.toNanos(time)), true, shared);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void acquireUninterruptibly(String key, boolean shared) {
+        try {
+            this.acquire(key, Long.MAX_VALUE, false, shared);
+        } catch (InterruptedException ex) {
+            // 不响应中断的等待不会抛出该异常
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * 获取资源锁,获取不到时进入等待队列挂起,直到被交接、超时或者被中断
+     * @param key 资源key
+     * @param deadline 以{@link System#nanoTime()}表示的最晚时间,{@link Long#MAX_VALUE}表示不限时间
+     * @param interruptible 是否响应中断
+     * @param shared true表示读锁,false表示写锁
+     * @return true表示获取成功,false表示超时
+     * @throws InterruptedException 响应中断并且等待期间被中断时抛出
+     */
+    private boolean acquire(String key, long deadline, boolean interruptible, boolean shared)
+            throws InterruptedException {
+        final KeyState state = this.retain(key);
+        boolean acquired = false;
+        try {
+            acquired = state.acquire(Thread.currentThread(), deadline, interruptible, shared);
+            return acquired;
+        } finally {
+            if (!acquired) {
+                this.release(key, 1);
+            }
+        }
+    }
+
+    /**
+     * 释放当前线程持有的一次锁定
+     * @param key 资源key
+     * @param shared true表示读锁,false表示写锁
+     * @return 资源没有被锁定或者释放成功时返回true,当前线程没有持有锁时返回false
+     */
+    private boolean release(String key, boolean shared) {
+        final KeyState state = this.states.get(key);
+        if (state == null) {
+            // 说明资源并没有被锁定
+            return true;
+        }
+        final int released = state.release(Thread.currentThread(), shared, false);
+        this.release(key, released);
+        return released != NOT_HOLDER;
+    }
+
+    /**
+     * 登记一次对给定资源key的使用,即一次持有或者一次等待,不存在状态时创建
+     * @param key 资源key
+     * @return 资源key的状态
+     */
+    private KeyState retain(String key) {
+        return this.states.compute(key, (k, state) -> {
+            final KeyState actualState = state == null ? new KeyState() : state;
+            actualState.users++;
+            return actualState;
+        });
+    }
+
+    /**
+     * 撤销给定次数的使用登记,没有线程持有或者等待时移除资源key的状态
+     * @param key 资源key
+     * @param times 撤销的次数,不大于0时不做任何事
+     */
+    private void release(String key, int times) {
+        if (times > 0) {
+            this.states.computeIfPresent(key, (k, state) -> (state.users -= times) == 0 ? null : state);
+        }
+    }
+
+    private long deadlineAfter(long nanos) {
+        final long deadline = System.nanoTime() + nanos;
+        // 溢出时视作不限时间
+        return deadline < 0 && nanos > 0 ? Long.MAX_VALUE : deadline;
+    }
+
+    /**
+     * 一个资源key的状态,除{@link #users}之外的字段都由自身的监视器保护
+     * 持有者是线程或者代表异步句柄的对象;交给异步等待者的锁在离开监视器之后才完成它的结果,以免在监视器中执行回调
+     */
+    private static final class KeyState {
+
+        /**
+         * 所有锁定次数与等待者数量之和,只在{@link ConcurrentHashMap#compute}中修改
+         */
+        private int users;
+
+        /**
+         * 持有写锁的线程或者异步句柄
+         */
+        private Object owner;
+
+        /**
+         * 写锁被重复锁定的次数
+         */
+        private int writeHolds;
+
+        /**
+         * 持有读锁的线程及其重复锁定的次数
+         */
+        private final Map<Object, Integer> readers = new HashMap<>(4);
+
+        /**
+         * 等待锁的线程与异步等待者
+         */
+        private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+        synchronized boolean tryAcquire(Thread current, boolean shared) {
+            if (this.isAvailable(current, shared)) {
+                this.grant(current, shared);
+                return true;
+            }
+            return false;
+        }
+
+        boolean acquire(Thread current, long deadline, boolean interruptible, boolean shared)
+                throws InterruptedException {
+            final Waiter waiter;
+            synchronized (this) {
+                if (this.isAvailable(current, shared)) {
+                    this.grant(current, shared);
+                    return true;
+                }
+                waiter = new Waiter(current, current, shared, null, null);
+                this.waiters.addLast(waiter);
+            }
+            boolean interrupted = false;
+            while (!waiter.granted) {
+                final boolean timedOut = deadline != Long.MAX_VALUE && deadline - System.nanoTime() <= 0;
+                if (timedOut || (interruptible && Thread.interrupted())) {
+                    // 放弃之前再检查一次,锁可能刚好被交接过来
+                    if (this.cancel(waiter)) {
+                        if (timedOut) {
+                            return false;
+                        }
+                        throw new InterruptedException();
+                    }
+                    if (!timedOut) {
+                        interrupted = true;
+                    }
+                    break;
+                }
+                if (deadline == Long.MAX_VALUE) {
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this, deadline - System.nanoTime());
+                }
+                // 不响应中断时记住中断状态,获取锁之后恢复
+                interrupted |= !interruptible && Thread.interrupted();
+            }
+            if (interrupted) {
+                current.interrupt();
+            }
+            return true;
+        }
+
+        /**
+         * 异步的等待者可以立即获取写锁时直接获取,否则进入等待队列
+         * @param waiter 异步的等待者
+         * @return true表示已经获取
+         */
+        synchronized boolean acquireOrEnqueue(Waiter waiter) {
+            if (this.isAvailable(waiter.owner, false)) {
+                this.grant(waiter.owner, false);
+                waiter.granted = true;
+                return true;
+            }
+            this.waiters.addLast(waiter);
+            return false;
+        }
+
+        /**
+         * 把尚未获取锁的等待者移出等待队列
+         * @param waiter 等待者
+         * @return true表示移出成功,false表示锁已经交给了该等待者
+         */
+        boolean cancel(Waiter waiter) {
+            final List<Waiter> grantedAsync;
+            synchronized (this) {
+                if (waiter.granted) {
+                    return false;
+                }
+                this.waiters.remove(waiter);
+                // 放弃的等待者可能挡住了后面等待读锁的线程
+                grantedAsync = this.dispatch();
+            }
+            completeAsync(grantedAsync);
+            return true;
+        }
+
+        /**
+         * 释放锁,锁完全释放之后交给队首的等待者
+         * @param current 当前线程或者异步句柄
+         * @param shared true表示读锁,false表示写锁
+         * @param forcedly 是否不校验持有者并释放所有持有者的所有锁定
+         * @return 释放的锁定次数,资源没有被锁定时返回{@link #NOT_LOCKED},当前持有者没有持有锁时返回{@link #NOT_HOLDER}
+         */
+        int release(Object current, boolean shared, boolean forcedly) {
+            final int released;
+            final List<Waiter> grantedAsync;
+            synchronized (this) {
+                released = this.doRelease(current, shared, forcedly);
+                grantedAsync = released > 0 ? this.dispatch() : null;
+            }
+            completeAsync(grantedAsync);
+            return released;
+        }
+
+        private int doRelease(Object current, boolean shared, boolean forcedly) {
+            if (forcedly) {
+                final int released = this.writeHolds
+                        + this.readers.values().stream().mapToInt(Integer::intValue).sum();
+                this.owner = null;
+                this.writeHolds = 0;
+                this.readers.clear();
+                return released;
+            }
+            if (shared) {
+                final Integer holds = this.readers.get(current);
+                if (holds == null) {
+                    return this.isLocked() ? NOT_HOLDER : NOT_LOCKED;
+                }
+                if (holds == 1) {
+                    this.readers.remove(current);
+                } else {
+                    this.readers.put(current, holds - 1);
+                }
+                return 1;
+            }
+            if (this.owner != current) {
+                return this.isLocked() ? NOT_HOLDER : NOT_LOCKED;
+            }
+            if (--this.writeHolds == 0) {
+                this.owner = null;
+            }
+            return 1;
+        }
+
+        private boolean isLocked() {
+            return this.owner != null || !this.readers.isEmpty();
+        }
+
+        /**
+         * 判断持有者是否可以立即获取锁,持有读锁的线程获取写锁时抛出异常,以免永远等待自己
+         * @param current 当前线程或者异步句柄
+         * @param shared true表示读锁,false表示写锁
+         * @return true表示可以获取
+         */
+        private boolean isAvailable(Object current, boolean shared) {
+            if (this.owner == current) {
+                return true;
+            }
+            if (!shared && this.readers.containsKey(current)) {
+                throw new IllegalStateException("cannot upgrade a read lock to a write lock");
+            }
+            if (this.owner != null) {
+                return false;
+            }
+            if (shared) {
+                return this.waiters.isEmpty() || this.readers.containsKey(current);
+            }
+            return this.readers.isEmpty() && this.waiters.isEmpty();
+        }
+
+        private void grant(Object holder, boolean shared) {
+            if (shared) {
+                this.readers.merge(holder, 1, Integer::sum);
+            } else {
+                this.owner = holder;
+                this.writeHolds++;
+            }
+        }
+
+        /**
+         * 把锁交给队首的等待者,写锁交给一个等待者,读锁交给队首连续的所有线程
+         * 等待的线程直接唤醒,异步的等待者返回给调用方在离开监视器之后完成
+         * @return 获得锁的异步等待者,没有时返回{@code null}
+         */
+        private List<Waiter> dispatch() {
+            List<Waiter> grantedAsync = null;
+            Waiter next;
+            while ((next = this.waiters.peekFirst()) != null && this.owner == null
+                    && (next.shared || this.readers.isEmpty())) {
+                this.waiters.pollFirst();
+                this.grant(next.owner, next.shared);
+                next.granted = true;
+                if (next.future == null) {
+                    LockSupport.unpark(next.thread);
+                } else {
+                    grantedAsync = grantedAsync == null ? new ArrayList<>(1) : grantedAsync;
+                    grantedAsync.add(next);
+                }
+            }
+            return grantedAsync;
+        }
+
+        /**
+         * 以句柄完成获得锁的异步等待者的结果,结果已经被取消时立即释放锁
+         * @param grantedAsync 获得锁的异步等待者
+         */
+        private static void completeAsync(List<Waiter> grantedAsync) {
+            if (grantedAsync == null) {
+                return;
+            }
+            for (Waiter waiter : grantedAsync) {
+                if (!waiter.future.complete(waiter.handle)) {
+                    waiter.handle.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 等待队列中的一个线程或者异步的等待者
+     */
+    private static final class Waiter {
+
+        /**
+         * 获得锁之后的持有者,线程本身或者代表异步句柄的对象
+         */
+        private final Object owner;
+
+        /**
+         * 等待的线程,异步的等待者为{@code null}
+         */
+        private final Thread thread;
+
+        /**
+         * true表示等待读锁
+         */
+        private final boolean shared;
+
+        /**
+         * 异步获取的结果,等待的线程为{@code null}
+         */
+        private final CompletableFuture<LockHandle> future;
+
+        /**
+         * 异步获取的句柄,等待的线程为{@code null}
+         */
+        private final LockHandle handle;
+
+        /**
+         * 锁是否已经被交接给该等待者
+         */
+        private volatile boolean granted;
+
+        Waiter(Object owner, Thread thread, boolean shared, CompletableFuture<LockHandle> future, LockHandle handle) {
+            this.owner = owner;
+            this.thread = thread;
+            this.shared = shared;
+            this.future = future;
+            this.handle = handle;
+        }
+    }
+}
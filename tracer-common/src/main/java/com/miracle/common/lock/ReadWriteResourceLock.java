@@ -0,0 +1,63 @@
+package com.miracle.common.lock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description:读写资源锁接口
+ * 同一个资源key的读锁可以被多个线程同时持有,写锁与其它任何锁互斥;{@link ResourceLock}中的方法都以写锁的方式锁定
+ * 持有写锁的线程可以再获取同一个资源的读锁,但持有读锁的线程不能再获取写锁
+ *
+ * @author guobin On date 2018/7/25.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public interface ReadWriteResourceLock extends ResourceLock {
+
+    /**
+     * 尝试获取给定key的读锁
+     * @param key 要锁定的资源key
+     * @return true代表获取成功,false代表获取失败
+     */
+    boolean tryReadLock(String key);
+
+    /**
+     * 尝试在给定时间内获取给定key的读锁
+     * 等待期间被中断时立即返回false,并保留线程的中断状态
+     * @param key 要锁定的资源key
+     * @param time 最大等待时间
+     * @param unit 延时的时间单位
+     * @return true代表获取锁成功,false失败
+     */
+    boolean tryReadLock(String key, long time, TimeUnit unit);
+
+    /**
+     * 获取给定key的读锁,如果无法获取那么线程会一直等待,直到获取锁为止
+     * 等待期间的中断不会打断等待,获取锁之后线程的中断状态会被恢复
+     * @param key 要锁定的资源key
+     */
+    void readLock(String key);
+
+    /**
+     * 释放给定key的读锁,重复锁定过的资源需要解锁同样的次数
+     * @param key 要释放锁的资源key
+     * @return 解锁是否成功,当前线程没有持有读锁时返回false
+     */
+    boolean unlockRead(String key);
+
+    /**
+     * 获取给定key的写锁,与{@link #lock(String)}相同
+     * @param key 要锁定的资源key
+     */
+    default void writeLock(String key) {
+        this.lock(key);
+    }
+
+    /**
+     * 释放给定key的写锁,与{@link #unlock(String)}相同
+     * @param key 要释放锁的资源key
+     * @return 解锁是否成功
+     */
+    default boolean unlockWrite(String key) {
+        return this.unlock(key);
+    }
+}
@@ -0,0 +1,133 @@
+package com.miracle.common.lock;
+
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Description:基于Redis的资源锁租约存储
+ * 创建租约使用{@code SET NX PX},续约与解锁由Lua脚本在服务端原子地比较持有者之后再执行,
+ * 不会误删已经过期并被其它节点重新获取的租约;删除租约的同时向频道发布被删除的key,由订阅的节点唤醒等待的线程
+ *
+ * @author guobin On date 2018/7/26.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class RedisLockLeaseStore implements LockLeaseStore {
+
+    /**
+     * 默认的通知频道{@value}
+     */
+    private static final String DEFAULT_CHANNEL = "tracer:lock:released";
+
+    /**
+     * 只续约属于自己的租约
+     */
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('PEXPIRE', KEYS[1], ARGV[2]) end "
+                    + "return 0", Long.class);
+
+    /**
+     * 只删除属于自己的租约,删除之后发布通知
+     */
+    private static final RedisScript<Long> COMPARE_AND_DELETE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then redis.call('DEL', KEYS[1]) "
+                    + "redis.call('PUBLISH', ARGV[2], KEYS[1]) return 1 end "
+                    + "return 0", Long.class);
+
+    /**
+     * 删除租约,删除之后发布通知
+     */
+    private static final RedisScript<Long> DELETE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('DEL', KEYS[1]) == 1 then redis.call('PUBLISH', ARGV[1], KEYS[1]) return 1 end "
+                    + "return 0", Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final String channel;
+
+    private RedisLockLeaseStore(StringRedisTemplate redisTemplate, RedisMessageListenerContainer listenerContainer,
+                                String channel) {
+        if (redisTemplate == null || listenerContainer == null) {
+            throw new NullPointerException("Redis template and listener container cannot be null.");
+        }
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.channel = channel;
+    }
+
+    /**
+     * 在给定的Redis连接之上构造租约存储,使用默认的通知频道
+     * @param redisTemplate Redis模板
+     * @param listenerContainer 订阅通知所用的监听容器
+     * @return 租约存储
+     */
+    public static RedisLockLeaseStore of(StringRedisTemplate redisTemplate,
+                                         RedisMessageListenerContainer listenerContainer) {
+        return of(redisTemplate, listenerContainer, DEFAULT_CHANNEL);
+    }
+
+    /**
+     * 在给定的Redis连接之上构造租约存储
+     * @param redisTemplate Redis模板
+     * @param listenerContainer 订阅通知所用的监听容器
+     * @param channel 通知频道
+     * @return 租约存储
+     */
+    public static RedisLockLeaseStore of(StringRedisTemplate redisTemplate,
+                                         RedisMessageListenerContainer listenerContainer, String channel) {
+        return new RedisLockLeaseStore(redisTemplate, listenerContainer, channel);
+    }
+
+    @Override
+    public boolean setIfAbsent(String key, String owner, long leaseMillis) {
+        final byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        final byte[] rawOwner = owner.getBytes(StandardCharsets.UTF_8);
+        return Optional.ofNullable(this.redisTemplate.execute((RedisCallback<Boolean>) connection -> connection.set(
+                rawKey, rawOwner, Expiration.milliseconds(leaseMillis), RedisStringCommands.SetOption.SET_IF_ABSENT)))
+                .orElse(false);
+    }
+
+    @Override
+    public String getOwner(String key) {
+        return this.redisTemplate.opsForValue().get(key);
+    }
+
+    @Override
+    public boolean renew(String key, String owner, long leaseMillis) {
+        final Long renewed = this.redisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(key),
+                owner, String.valueOf(leaseMillis));
+        return renewed != null && renewed == 1L;
+    }
+
+    @Override
+    public boolean compareAndDelete(String key, String owner) {
+        final Long deleted = this.redisTemplate.execute(COMPARE_AND_DELETE_SCRIPT, Collections.singletonList(key),
+                owner, this.channel);
+        return deleted != null && deleted == 1L;
+    }
+
+    @Override
+    public boolean delete(String key) {
+        final Long deleted = this.redisTemplate.execute(DELETE_SCRIPT, Collections.singletonList(key), this.channel);
+        return deleted != null && deleted == 1L;
+    }
+
+    @Override
+    public void subscribe(Consumer<String> listener) {
+        this.listenerContainer.addMessageListener((message, pattern) ->
+                listener.accept(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(this.channel));
+    }
+}
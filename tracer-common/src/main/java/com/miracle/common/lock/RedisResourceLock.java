@@ -0,0 +1,174 @@
+package com.miracle.common.lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Description:跨节点的分布式资源锁
+ * 锁是共享存储中一个带过期时间的租约,持有锁的节点崩溃之后租约会自动过期,其它节点不会被永远阻塞;
+ * 节点存活期间由看门狗线程每隔租约时长的三分之一为本节点持有的租约续约,所以持有锁的时间不受租约时长限制
+ * 争抢锁失败的线程挂起等待,租约被删除时通过存储的订阅通知立即唤醒,通知丢失或者租约过期时仍然会在一个重试间隔之后重试;
+ * 异步获取同样由该通知触发重新尝试,而不是按重试间隔轮询
+ * 使用完毕之后需要调用{@link #shutdown()}停止看门狗
+ *
+ * @author guobin On date 2018/7/26.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class RedisResourceLock extends AbstractResourceLock {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RedisResourceLock.class);
+
+    /**
+     * 默认的租约时长{@value}毫秒
+     */
+    private static final long DEFAULT_LEASE_MILLIS = 30000L;
+
+    /**
+     * 默认的重试间隔{@value}毫秒,通常由通知提前唤醒,所以可以比轮询的间隔长得多
+     */
+    private static final long DEFAULT_RETRY_DELAY = 1000L;
+
+    /**
+     * 租约存储
+     */
+    private final LockLeaseStore store;
+
+    /**
+     * 租约时长
+     */
+    private final long leaseMillis;
+
+    /**
+     * 本节点持有的租约,key为资源锁的key,value为持有锁的线程id
+     */
+    private final Map<String, String> heldLeases = new ConcurrentHashMap<>(16);
+
+    /**
+     * 等待每个资源锁的线程
+     */
+    private final Map<String, Set<Thread>> waitingThreads = new ConcurrentHashMap<>(16);
+
+    /**
+     * 续约的看门狗
+     */
+    private final ScheduledExecutorService watchdog;
+
+    public RedisResourceLock(LockLeaseStore store) {
+        this(store, DEFAULT_LEASE_MILLIS, DEFAULT_RETRY_DELAY);
+    }
+
+    /**
+     * @param store 租约存储
+     * @param leaseMillis 租约时长,单位毫秒,节点崩溃之后最多经过这么长时间锁才会被释放
+     * @param retryDelay 没有收到通知时的重试间隔,单位毫秒
+     */
+    public RedisResourceLock(LockLeaseStore store, long leaseMillis, long retryDelay) {
+        super(retryDelay);
+        if (store == null) {
+            throw new NullPointerException("Lock lease store cannot be null.");
+        }
+        if (leaseMillis < 3) {
+            throw new IllegalArgumentException("leaseMillis must be at least 3: " + leaseMillis);
+        }
+        this.store = store;
+        this.leaseMillis = leaseMillis;
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "resource-lock-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long renewPeriod = leaseMillis / 3;
+        this.watchdog.scheduleAtFixedRate(this::renewLeases, renewPeriod, renewPeriod, TimeUnit.MILLISECONDS);
+        this.store.subscribe(this::wakeUp);
+    }
+
+    /**
+     * 停止看门狗,本节点仍然持有的租约会在到期之后被释放
+     */
+    public void shutdown() {
+        this.watchdog.shutdownNow();
+    }
+
+    @Override
+    protected boolean doLock(String key, String lockerId) {
+        if (this.store.setIfAbsent(key, lockerId, this.leaseMillis)) {
+            this.heldLeases.put(key, lockerId);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected boolean doUnlock(String key) {
+        this.heldLeases.remove(key);
+        return this.store.delete(key);
+    }
+
+    @Override
+    protected boolean doUnlock(String key, String lockerId) {
+        this.heldLeases.remove(key, lockerId);
+        return this.store.compareAndDelete(key, lockerId);
+    }
+
+    @Override
+    protected String getLockingThreadId(String key) {
+        return this.store.getOwner(key);
+    }
+
+    @Override
+    protected boolean awaitRetry(String key) {
+        final Thread current = Thread.currentThread();
+        this.waitingThreads.compute(key, (k, threads) -> {
+            final Set<Thread> waiting = threads == null ? ConcurrentHashMap.newKeySet() : threads;
+            waiting.add(current);
+            return waiting;
+        });
+        try {
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(this.getRetryDelay()));
+        } finally {
+            this.waitingThreads.computeIfPresent(key, (k, threads) -> {
+                threads.remove(current);
+                return threads.isEmpty() ? null : threads;
+            });
+        }
+        return !current.isInterrupted();
+    }
+
+    /**
+     * 租约被删除时唤醒所有等待它的线程与异步获取
+     * @param key 被删除的资源锁的key
+     */
+    private void wakeUp(String key) {
+        final Set<Thread> threads = this.waitingThreads.get(key);
+        if (threads != null) {
+            threads.forEach(LockSupport::unpark);
+        }
+        this.wakeAsyncWaiters(key);
+    }
+
+    /**
+     * 为本节点持有的所有租约续约,续约失败说明租约已经过期并可能被其它节点获取,不再继续续约
+     */
+    private void renewLeases() {
+        this.heldLeases.forEach((key, lockerId) -> {
+            try {
+                if (!this.store.renew(key, lockerId, this.leaseMillis)) {
+                    this.heldLeases.remove(key, lockerId);
+                    LOG.warn("Lease of resource lock {} has been lost.", key);
+                }
+            } catch (RuntimeException ex) {
+                // 暂时无法访问存储时保留租约,下一次继续尝试
+                LOG.error("Failed to renew lease of resource lock " + key, ex);
+            }
+        });
+    }
+}
@@ -1,9 +1,17 @@
 package com.miracle.common.lock;
 
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * Description:资源锁接口
+ * 资源锁是可重入的,已经持有锁的线程可以再次锁定同一个资源key,每次锁定都需要对应一次解锁,最后一次解锁才真正释放
  *
  * @author guobin On date 2018/7/1.
  * @version 1.0
@@ -20,6 +28,7 @@ public interface ResourceLock {
 
     /**
      * 尝试在给定时间内获取给定key的资源锁
+     * 等待期间被中断时立即返回false,并保留线程的中断状态
      * @param key 要锁定的资源key
      * @param time 最大等待时间
      * @param unit 延时的时间单位
@@ -28,7 +37,7 @@ public interface ResourceLock {
     boolean tryLock(String key, long time, TimeUnit unit);
 
     /**
-     * 释放给定key的资源锁
+     * 释放给定key的资源锁,重复锁定过的资源需要解锁同样的次数
      * @param key 要释放锁的资源key
      * @return 解锁是否成功
      */
@@ -42,10 +51,87 @@ public interface ResourceLock {
     void unlockForcedly(String key);
 
     /**
-     * 锁定给定key的资源,如果无法获取锁那么线程会不停自旋,直到获取锁或者自旋时间毫秒超过{@link Long#MAX_VALUE}为止
+     * 锁定给定key的资源,如果无法获取锁那么线程会一直等待,直到获取锁为止
+     * 等待期间的中断不会打断等待,获取锁之后线程的中断状态会被恢复
      * @param key 要锁定的资源
      */
     default void lock(String key) {
-        this.tryLock(key, Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        boolean interrupted = false;
+        while (!this.tryLock(key, Long.MAX_VALUE, TimeUnit.MILLISECONDS)) {
+            interrupted |= Thread.interrupted();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 锁定给定key的资源,如果无法获取锁那么线程会一直等待,直到获取锁或者被中断为止
+     * @param key 要锁定的资源
+     * @throws InterruptedException 等待期间被中断时抛出,此时没有获取锁
+     */
+    default void lockInterruptibly(String key) throws InterruptedException {
+        while (!this.tryLock(key, Long.MAX_VALUE, TimeUnit.MILLISECONDS)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * 尝试在给定时间内同时获取多个资源key的锁,要么全部获取,要么一个都不持有
+     * 所有调用方都按资源key的哈希值(相同时按key本身)这一固定顺序依次获取,所以同时锁定多个资源的线程之间不会死锁;
+     * 某个key被占用时线程在该key上挂起等待,而不是释放之后反复重试;超时或者被中断时按相反顺序释放已经获取的锁并返回false
+     * 获取成功之后需要以同样的key调用{@link #unlockAll(Collection)}释放
+     * @param keys 要锁定的资源key,重复的key只锁定一次
+     * @param time 获取所有锁的最大等待时间
+     * @param unit 延时的时间单位
+     * @return true代表全部获取成功,false代表一个都没有持有
+     */
+    default boolean lockAll(Collection<String> keys, long time, TimeUnit unit) {
+        final List<String> orderedKeys = keys.stream()
+                .distinct()
+                .sorted(Comparator.comparingInt(String::hashCode).thenComparing(Comparator.naturalOrder()))
+                .collect(Collectors.toList());
+        final long deadline = System.nanoTime() + unit.toNanos(time);
+        final Deque<String> acquiredKeys = new ArrayDeque<>(orderedKeys.size());
+        for (String key : orderedKeys) {
+            if (!this.tryLock(key, Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                acquiredKeys.forEach(this::unlock);
+                return false;
+            }
+            acquiredKeys.push(key);
+        }
+        return true;
+    }
+
+    /**
+     * 释放通过{@link #lockAll(Collection, long, TimeUnit)}获取的多个资源key的锁
+     * @param keys 获取时的资源key
+     * @return 是否全部解锁成功
+     */
+    default boolean unlockAll(Collection<String> keys) {
+        boolean result = true;
+        for (String key : keys.stream().distinct().collect(Collectors.toList())) {
+            result &= this.unlock(key);
+        }
+        return result;
+    }
+
+    /**
+     * 异步地获取给定key的资源锁,等待期间不占用任何线程
+     * 获取的锁属于返回的句柄而不属于调用线程,不可重入,需要关闭句柄来释放,不能通过{@link #unlock(String)}释放
+     * 超时时以{@link java.util.concurrent.TimeoutException}异常结束;获取成功时如果结果已经被取消,锁会被立即释放
+     * 默认不支持,以{@link UnsupportedOperationException}异常结束
+     * @param key 要锁定的资源key
+     * @param time 最大等待时间
+     * @param unit 延时的时间单位
+     * @return 获取成功时以锁的句柄完成的结果
+     */
+    default CompletableFuture<LockHandle> acquireAsync(String key, long time, TimeUnit unit) {
+        final CompletableFuture<LockHandle> future = new CompletableFuture<>();
+        future.completeExceptionally(new UnsupportedOperationException(
+                this.getClass().getSimpleName() + " does not support async acquisition."));
+        return future;
     }
 }
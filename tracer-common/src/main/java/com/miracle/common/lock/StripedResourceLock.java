@@ -0,0 +1,389 @@
+package com.miracle.common.lock;
+
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+
+/**
+ * Description:分段实现的进程内资源锁
+ * 资源key按哈希值映射到固定数量的分段上,每个分段是一把真正的锁,锁定资源即锁定它所在的分段
+ * 分段数量在创建时确定并向上取整为2的幂,所以内存占用是常量,与锁定过多少不同的资源key无关;
+ * 加锁与解锁只使用{@link String#hashCode()}定位分段,没有竞争时不会分配任何内存
+ * 代价是映射到同一个分段的不同资源key会互斥,分段数量应当远大于同时锁定的资源数量
+ * 同一个线程可以重复锁定同一个分段,所以持有一个资源时再锁定同分段的另一个资源不会死锁,每次锁定都需要对应一次解锁
+ * 异步获取的等待者排在分段自己的等待队列中,分段被释放时由释放的线程把锁交给队首的等待者,等待期间不占用线程;
+ * 句柄持有的分段不属于任何线程,不可重入
+ * 该资源锁是一个非公平锁
+ *
+ * @author guobin On date 2018/7/25.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class StripedResourceLock implements ResourceLock {
+
+    /**
+     * 默认的分段数量{@value}
+     */
+    private static final int DEFAULT_STRIPES = 1024;
+
+    /**
+     * 分段数量的上限{@value}
+     */
+    private static final int MAX_STRIPES = 1 << 30;
+
+    /**
+     * 所有分段
+     */
+    private final Stripe[] stripes;
+
+    /**
+     * 分段下标的掩码
+     */
+    private final int mask;
+
+    public StripedResourceLock() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes 分段数量,会向上取整为2的幂
+     */
+    public StripedResourceLock(int stripes) {
+        if (stripes <= 0 || stripes > MAX_STRIPES) {
+            throw new IllegalArgumentException("stripes must be in (0, " + MAX_STRIPES + "]: " + stripes);
+        }
+        final int size = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.mask = size - 1;
+    }
+
+    @Override
+    public boolean tryLock(String key) {
+        return this.stripeOf(key).tryAcquire(1);
+    }
+
+    @Override
+    public boolean tryLock(String key, long time, TimeUnit unit) {
+        if (time <= 0) {
+            return this.tryLock(key);
+        }
+        try {
+            return this.stripeOf(key).tryAcquireNanos(1, unit.toNanos(time));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void lock(String key) {
+        this.stripeOf(key).acquire(1);
+    }
+
+    @Override
+    public void lockInterruptibly(String key) throws InterruptedException {
+        this.stripeOf(key).acquireInterruptibly(1);
+    }
+
+    @Override
+    public boolean unlock(String key) {
+        final Stripe stripe = this.stripeOf(key);
+        if (!stripe.isLocked()) {
+            // 说明资源并没有被锁定
+            return true;
+        }
+        if (!stripe.isHeldByCurrentThread()) {
+            // 解锁线程不是加锁线程
+            return false;
+        }
+        stripe.unlock(1);
+        return true;
+    }
+
+    @Override
+    public void unlockForcedly(String key) {
+        this.stripeOf(key).unlockForcedly();
+    }
+
+    @Override
+    public CompletableFuture<LockHandle> acquireAsync(String key, long time, TimeUnit unit) {
+        final Stripe stripe = this.stripeOf(key);
+        final AsyncWaiter waiter = new AsyncWaiter(key, stripe);
+        if (stripe.tryAcquireAsync(waiter)) {
+            waiter.future.complete(waiter.handle);
+            return waiter.future;
+        }
+        final long timeoutNanos = unit.toNanos(time);
+        if (timeoutNanos <= 0) {
+            waiter.future.completeExceptionally(new TimeoutException("Timed out acquiring resource lock " + key));
+            return waiter.future;
+        }
+        stripe.asyncWaiters.add(waiter);
+        // 超时的结果在异步获取的线程池中完成,调用方的后续操作不能占用定时器线程
+        final ScheduledFuture<?> timeout = timeoutNanos == Long.MAX_VALUE ? null : LockTimer.schedule(
+                () -> LockTimer.execute(() -> waiter.future.completeExceptionally(
+                        new TimeoutException("Timed out acquiring resource lock " + key))),
+                timeoutNanos, TimeUnit.NANOSECONDS);
+        waiter.future.whenComplete((handle, ex) -> {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            stripe.asyncWaiters.remove(waiter);
+        });
+        // 入队之前分段可能已经被释放,再检查一次以免错过唤醒
+        stripe.grantAsyncWaiters();
+        return waiter.future;
+    }
+
+    /**
+     * 按分段的下标顺序而不是key的哈希值顺序获取,映射到同一个分段的多个key只锁定一次该分段
+     * 按哈希值排序时两个线程可能以相反的顺序锁定同一对分段,从而互相等待
+     */
+    @Override
+    public boolean lockAll(Collection<String> keys, long time, TimeUnit unit) {
+        final int[] indexes = this.stripeIndexesOf(keys);
+        final long deadline = System.nanoTime() + unit.toNanos(time);
+        for (int i = 0; i < indexes.length; i++) {
+            boolean acquired;
+            try {
+                acquired = this.stripes[indexes[i]].tryAcquireNanos(1, Math.max(0L, deadline - System.nanoTime()));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                acquired = false;
+            }
+            if (!acquired) {
+                for (int j = i - 1; j >= 0; j--) {
+                    this.stripes[indexes[j]].unlock(1);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean unlockAll(Collection<String> keys) {
+        boolean result = true;
+        for (int index : this.stripeIndexesOf(keys)) {
+            final Stripe stripe = this.stripes[index];
+            if (stripe.isHeldByCurrentThread()) {
+                stripe.unlock(1);
+            } else {
+                result &= !stripe.isLocked();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 得到实际的分段数量
+     * @return 分段数量
+     */
+    public int getStripeCount() {
+        return this.stripes.length;
+    }
+
+    /**
+     * 得到资源key所在的分段
+     * @param key 资源key
+     * @return 分段
+     */
+    private Stripe stripeOf(String key) {
+        return this.stripes[this.indexOf(key)];
+    }
+
+    private int indexOf(String key) {
+        final int hash = key.hashCode();
+        // 把高位混入低位,以免只有高位不同的key落在同一个分段
+        return (hash ^ (hash >>> 16)) & this.mask;
+    }
+
+    /**
+     * 得到多个资源key所在分段的下标,去重并从小到大排列
+     * @param keys 资源key
+     * @return 分段的下标
+     */
+    private int[] stripeIndexesOf(Collection<String> keys) {
+        return keys.stream().mapToInt(this::indexOf).distinct().sorted().toArray();
+    }
+
+    /**
+     * 一个分段的锁,状态为持有线程重复锁定的次数
+     * 与{@link java.util.concurrent.locks.ReentrantLock}的区别是允许任意线程强制释放,并且可以由异步获取的句柄持有,
+     * 此时持有线程为{@code null},持有者记录在{@link #asyncOwner}中
+     * 句柄释放时先以CAS把持有者改为{@code null}取得释放的资格,再清空状态;异步获取、句柄释放与强制释放都在分段的监视器中进行,
+     * 所以取得资格之后、清空状态之前分段不会被强制释放再交给其它句柄,过期的句柄不会释放别人的锁
+     */
+    private static final class Stripe extends AbstractQueuedSynchronizer {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final AtomicReferenceFieldUpdater<Stripe, AsyncWaiter> ASYNC_OWNER =
+                AtomicReferenceFieldUpdater.newUpdater(Stripe.class, AsyncWaiter.class, "asyncOwner");
+
+        /**
+         * 表示强制释放的参数,不校验持有线程并清空重复锁定的次数
+         */
+        static final int FORCED_RELEASE = -1;
+
+        /**
+         * 表示句柄释放的参数,持有者已经在释放之前以CAS取得释放的资格
+         */
+        static final int ASYNC_RELEASE = -2;
+
+        /**
+         * 异步获取的等待者
+         */
+        final transient Queue<AsyncWaiter> asyncWaiters = new ConcurrentLinkedQueue<>();
+
+        /**
+         * 持有分段的异步等待者,由线程持有或者没有被锁定时为{@code null}
+         */
+        private transient volatile AsyncWaiter asyncOwner;
+
+        @Override
+        protected boolean tryAcquire(int acquires) {
+            final Thread current = Thread.currentThread();
+            final int holds = this.getState();
+            if (holds == 0) {
+                if (this.compareAndSetState(0, acquires)) {
+                    this.setExclusiveOwnerThread(current);
+                    return true;
+                }
+                return false;
+            }
+            if (this.getExclusiveOwnerThread() == current) {
+                this.setState(holds + acquires);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected boolean tryRelease(int releases) {
+            if (releases == FORCED_RELEASE || releases == ASYNC_RELEASE) {
+                this.asyncOwner = null;
+                this.setExclusiveOwnerThread(null);
+                this.setState(0);
+                return true;
+            }
+            if (this.getExclusiveOwnerThread() != Thread.currentThread()) {
+                // 已经被其它线程强制释放
+                return false;
+            }
+            final int holds = this.getState() - releases;
+            if (holds == 0) {
+                this.setExclusiveOwnerThread(null);
+            }
+            this.setState(holds);
+            return holds == 0;
+        }
+
+        @Override
+        protected boolean isHeldExclusively() {
+            return this.getExclusiveOwnerThread() == Thread.currentThread();
+        }
+
+        boolean isLocked() {
+            return this.getState() != 0;
+        }
+
+        boolean isHeldByCurrentThread() {
+            return this.isHeldExclusively();
+        }
+
+        /**
+         * 持有线程释放分段,完全释放时把锁交给异步的等待者
+         * @param releases 释放的次数
+         */
+        void unlock(int releases) {
+            if (this.release(releases)) {
+                this.grantAsyncWaiters();
+            }
+        }
+
+        /**
+         * 不校验持有者地释放分段,并把锁交给异步的等待者
+         */
+        void unlockForcedly() {
+            synchronized (this) {
+                this.release(FORCED_RELEASE);
+            }
+            this.grantAsyncWaiters();
+        }
+
+        /**
+         * 以异步等待者的身份获取分段
+         * @param waiter 异步等待者
+         * @return true表示获取成功
+         */
+        synchronized boolean tryAcquireAsync(AsyncWaiter waiter) {
+            if (this.compareAndSetState(0, 1)) {
+                this.asyncOwner = waiter;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 释放异步等待者持有的分段,分段已经被强制释放或者交给了其它持有者时不做任何事
+         * @param waiter 异步等待者
+         */
+        void releaseAsync(AsyncWaiter waiter) {
+            synchronized (this) {
+                if (!ASYNC_OWNER.compareAndSet(this, waiter, null)) {
+                    return;
+                }
+                this.release(ASYNC_RELEASE);
+            }
+            this.grantAsyncWaiters();
+        }
+
+        /**
+         * 分段空闲时依次把锁交给队首的异步等待者,已经结束的等待者直接出队
+         * 获得锁的等待者的结果已经被取消时立即释放,再交给下一个等待者
+         */
+        void grantAsyncWaiters() {
+            AsyncWaiter waiter;
+            while ((waiter = this.asyncWaiters.peek()) != null) {
+                if (waiter.future.isDone()) {
+                    this.asyncWaiters.remove(waiter);
+                    continue;
+                }
+                if (!this.tryAcquireAsync(waiter)) {
+                    return;
+                }
+                this.asyncWaiters.remove(waiter);
+                if (!waiter.future.complete(waiter.handle)) {
+                    // 释放时会再次进入该方法,把锁交给下一个等待者
+                    waiter.handle.close();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个异步获取的等待者,同时代表获得锁之后的持有者
+     */
+    private static final class AsyncWaiter {
+
+        final CompletableFuture<LockHandle> future;
+
+        final LockHandle handle;
+
+        AsyncWaiter(String key, Stripe stripe) {
+            this.future = new CompletableFuture<>();
+            this.handle = new LockHandle(key, () -> stripe.releaseAsync(this));
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.miracle.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Description:对数线性分桶的直方图,用于在热点路径上记录延迟一类的非负数值
+ * 小于{@value #SUB_BUCKET_COUNT}的数值各占一个桶,更大的数值按所在的2的幂次分段,每段再线性地均分成{@value #SUB_BUCKET_COUNT}个桶,
+ * 所以任意数值的相对误差不超过1/{@value #SUB_BUCKET_COUNT},桶的数量固定,与记录的数值范围无关
+ * 记录只需要计算桶的下标并原子地累加计数,不需要加锁也不会分配内存,可以被任意多个线程同时调用
+ *
+ * @author guobin On date 2018/7/23.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class LogLinearHistogram {
+
+    /**
+     * 每个2的幂次分段中桶数量的位数
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * 每个2的幂次分段中桶的数量{@value}
+     */
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * 桶的总数,覆盖所有非负的long
+     */
+    static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) << SUB_BUCKET_BITS;
+
+    /**
+     * 每个桶的计数
+     */
+    private final AtomicLongArray counts;
+
+    /**
+     * 所有数值之和
+     */
+    private final LongAdder sum;
+
+    /**
+     * 记录过的最大数值
+     */
+    private final AtomicLong max;
+
+    public LogLinearHistogram() {
+        this.counts = new AtomicLongArray(BUCKET_COUNT);
+        this.sum = new LongAdder();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * 记录一个数值,负数按0记录
+     * @param value 数值
+     */
+    public void record(long value) {
+        final long actualValue = Math.max(0L, value);
+        this.counts.incrementAndGet(indexOf(actualValue));
+        this.sum.add(actualValue);
+        long current = this.max.get();
+        while (actualValue > current && !this.max.compareAndSet(current, actualValue)) {
+            current = this.max.get();
+        }
+    }
+
+    /**
+     * 得到从创建开始的累计快照,快照期间仍在记录的数值可能只有一部分被计入
+     * @return 快照
+     */
+    public Snapshot snapshot() {
+        final long[] snapshotCounts = new long[BUCKET_COUNT];
+        long count = 0L;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshotCounts[i] = this.counts.get(i);
+            count += snapshotCounts[i];
+        }
+        return new Snapshot(snapshotCounts, count, this.sum.sum(), this.max.get());
+    }
+
+    /**
+     * 计算数值所在桶的下标
+     * @param value 非负的数值
+     * @return 桶的下标
+     */
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+    }
+
+    /**
+     * 得到桶所覆盖的最大数值
+     * @param index 桶的下标
+     * @return 桶中的最大数值
+     */
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        final long lowest = ((long) (index & (SUB_BUCKET_COUNT - 1)) | SUB_BUCKET_COUNT) << shift;
+        return lowest + ((1L << shift) - 1);
+    }
+
+    /**
+     * 直方图的快照,不可变
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+
+        private final long count;
+
+        private final long sum;
+
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * 得到本快照相对于更早的一个快照的增量,即两次快照之间记录的数值的分布
+         * 增量中的最大值以最高的非空桶估计,不会超过本快照的最大值
+         * @param previous 同一个直方图更早的快照
+         * @return 增量快照
+         */
+        public Snapshot minus(Snapshot previous) {
+            final long[] deltaCounts = new long[BUCKET_COUNT];
+            long deltaCount = 0L;
+            int highest = -1;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                deltaCounts[i] = Math.max(0L, this.counts[i] - previous.counts[i]);
+                deltaCount += deltaCounts[i];
+                if (deltaCounts[i] > 0) {
+                    highest = i;
+                }
+            }
+            final long deltaMax = highest < 0 ? 0L : Math.min(this.max, highestValueAt(highest));
+            return new Snapshot(deltaCounts, deltaCount, Math.max(0L, this.sum - previous.sum), deltaMax);
+        }
+
+        /**
+         * 得到给定分位的数值,以所在桶的最大数值表示
+         * @param quantile 分位,取值范围[0, 1]
+         * @return 数值,没有记录任何数值时返回0
+         */
+        public long valueAt(double quantile) {
+            if (this.count == 0) {
+                return 0L;
+            }
+            final long rank = Math.max(1L, (long) Math.ceil(quantile * this.count));
+            long seen = 0L;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    return Math.min(this.max, highestValueAt(i));
+                }
+            }
+            return this.max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * 得到平均值
+         * @return 平均值,没有记录任何数值时返回0
+         */
+        public double getMean() {
+            return this.count == 0 ? 0D : (double) this.sum / this.count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d, mean=%.1f, p50=%d, p99=%d, p999=%d, max=%d", this.count, this.getMean(),
+                    this.valueAt(0.5), this.valueAt(0.99), this.valueAt(0.999), this.max);
+        }
+    }
+}
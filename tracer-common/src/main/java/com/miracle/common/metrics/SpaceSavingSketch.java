@@ -0,0 +1,205 @@
+package com.miracle.common.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Description:以Space-Saving算法统计出现最频繁的元素,内存占用只与容量有关,与出现过的不同元素数量无关
+ * 每个被跟踪的元素对应一个计数器,计数器已满时新元素替换计数最小的元素,并在其计数的基础上继续累加,
+ * 所以计数是实际出现次数的上界,误差不超过被替换时的最小计数;出现次数超过总数除以容量的元素一定会被跟踪
+ * 每个计数器同时累加元素附带的数值,替换之前的数值不会被继承,所以它是替换之后的实际数值
+ * 计数器同时按计数组成一个最小堆,每个计数器在{@link Counter#heapIndex}中记录自己在堆中的位置,
+ * 新的计数器从堆尾向上调整,已有的计数只会加一,所以累加与替换都只需要向下调整,
+ * 代价都是O(log k),计数器已满时不需要遍历所有计数器寻找最小值
+ * 所有方法都是同步的,适合记录锁竞争这一类本身就不频繁的事件
+ *
+ * @author guobin On date 2018/7/26.
+ * @version 1.0
+ * @since jdk 1.8
+ * @param <K> 元素的类型
+ */
+public class SpaceSavingSketch<K> {
+
+    /**
+     * 最多跟踪的元素数量
+     */
+    private final int capacity;
+
+    private final Map<K, Counter<K>> counters;
+
+    /**
+     * 按计数排列的最小堆,下标即计数器的{@link Counter#heapIndex},堆顶是计数最小、下一个被替换的计数器
+     */
+    private final Counter<K>[] heap;
+
+    /**
+     * 记录过的事件总数
+     */
+    private long total;
+
+    @SuppressWarnings("unchecked")
+    public SpaceSavingSketch(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+        this.heap = (Counter<K>[]) new Counter[capacity];
+    }
+
+    /**
+     * 记录元素出现了一次
+     * @param key 元素
+     * @param value 这一次附带的数值
+     */
+    public synchronized void offer(K key, long value) {
+        this.total++;
+        Counter<K> counter = this.counters.get(key);
+        final int size = this.counters.size();
+        if (counter == null && size < this.capacity) {
+            counter = new Counter<>(key, 0L);
+            counter.count++;
+            counter.sum += value;
+            this.counters.put(key, counter);
+            // 新计数器的计数为1,从堆尾向上调整
+            this.siftUp(size, counter);
+            return;
+        }
+        if (counter == null) {
+            // 替换堆顶计数最小的元素,继承它的计数
+            final Counter<K> min = this.heap[0];
+            this.counters.remove(min.key);
+            counter = new Counter<>(key, min.count);
+            this.counters.put(key, counter);
+            this.place(0, counter);
+        }
+        counter.count++;
+        counter.sum += value;
+        this.siftDown(counter.heapIndex, counter);
+    }
+
+    /**
+     * 得到计数最大的若干个元素,按计数从大到小排列
+     * @param limit 最多返回的数量
+     * @return 计数器的副本
+     */
+    public synchronized List<Counter<K>> top(int limit) {
+        return this.counters.values().stream()
+                .sorted(Comparator.comparingLong(Counter<K>::getCount).reversed())
+                .limit(limit)
+                .map(Counter::copy)
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    private void siftUp(int position, Counter<K> counter) {
+        while (position > 0) {
+            final int parent = (position - 1) >>> 1;
+            if (this.heap[parent].count <= counter.count) {
+                break;
+            }
+            this.place(position, this.heap[parent]);
+            position = parent;
+        }
+        this.place(position, counter);
+    }
+
+    private void siftDown(int position, Counter<K> counter) {
+        final int size = this.counters.size();
+        final int half = size >>> 1;
+        while (position < half) {
+            int child = (position << 1) + 1;
+            final int right = child + 1;
+            if (right < size && this.heap[right].count < this.heap[child].count) {
+                child = right;
+            }
+            if (counter.count <= this.heap[child].count) {
+                break;
+            }
+            this.place(position, this.heap[child]);
+            position = child;
+        }
+        this.place(position, counter);
+    }
+
+    private void place(int position, Counter<K> counter) {
+        this.heap[position] = counter;
+        counter.heapIndex = position;
+    }
+
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 一个被跟踪元素的计数器
+     * @param <K> 元素的类型
+     */
+    public static final class Counter<K> {
+
+        private final K key;
+
+        /**
+         * 开始跟踪时继承的计数,即计数可能的最大误差
+         */
+        private final long error;
+
+        private long count;
+
+        private long sum;
+
+        /**
+         * 在最小堆中的位置,副本中没有意义
+         */
+        private int heapIndex;
+
+        private Counter(K key, long error) {
+            this.key = key;
+            this.error = error;
+            this.count = error;
+        }
+
+        private Counter<K> copy() {
+            final Counter<K> copy = new Counter<>(this.key, this.error);
+            copy.count = this.count;
+            copy.sum = this.sum;
+            return copy;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        /**
+         * 得到出现次数的上界
+         * @return 计数
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+
+        /**
+         * 得到开始跟踪之后附带数值之和
+         * @return 数值之和
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        @Override
+        public String toString() {
+            return this.key + ": count=" + this.count + " (error " + this.error + "), sum=" + this.sum;
+        }
+    }
+}
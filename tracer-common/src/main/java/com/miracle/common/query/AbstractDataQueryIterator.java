@@ -96,7 +96,17 @@ public abstract class AbstractDataQueryIterator<E, REQ extends BaseCommonRequest
     protected void queryData() {
         this.request.setPage(this.page++);
         RES result = this.queryMapper.apply(this.request);
+        this.acceptResult(result);
+    }
 
+    /**
+     * 处理一页的查询结果,{@link this#page}应当已经是下一页的页数
+     * 将代理的list用新的数据进行替换,并设置{@link this#finish}的值
+     *
+     * @param result 查询结果
+     * @throws RuntimeException 查询失败则会抛出异常
+     */
+    protected void acceptResult(RES result) {
         if (result.isSuccess()) {
             this.delegate = Optional.ofNullable(this.valuesGetter.apply(result))
                     .orElseGet(Collections::emptyList)
@@ -0,0 +1,159 @@
+package com.miracle.common.query;
+
+import com.miracle.data.common.BaseCommonRequest;
+import com.miracle.data.common.BaseExceptionResult;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Description:在后台预取后续页的数据查询迭代器
+ * 消费当前页的同时在给定的执行器上查询之后的若干页,同时进行中的查询不超过给定的页数,消费完一页时下一页通常已经就绪
+ * 每一页使用请求的一个副本查询,所以同时进行的查询互不影响;结果按页的顺序消费,某一页查询失败时,
+ * 异常在消费到该页时才会抛出,之前的页都会被正常返回
+ * 第一页返回之前不知道数据总数,所以第一页之后才会开始预取;不再需要剩余的数据时应当调用{@link #close()}取消进行中的查询
+ *
+ * @author guobin On date 2018/7/27.
+ * @version 1.0
+ * @since jdk 1.8
+ * @param <E> 数据的类型
+ * @param <REQ> 查询数据的请求类类型
+ * @param <RES> 查询出得到的返回结果
+ */
+public class PrefetchingDataQueryIterator<E, REQ extends BaseCommonRequest, RES extends BaseExceptionResult>
+        extends AbstractDataQueryIterator<E, REQ, RES> implements AutoCloseable {
+
+    /**
+     * 复制请求的函数,每一页的查询使用一个独立的副本
+     */
+    private final UnaryOperator<REQ> requestCopier;
+
+    /**
+     * 执行查询的执行器
+     */
+    private final Executor executor;
+
+    /**
+     * 同时进行中的查询最多的页数
+     */
+    private final int pagesInFlight;
+
+    /**
+     * 进行中的查询,按页的顺序排列
+     */
+    private final Deque<CompletableFuture<RES>> inFlight;
+
+    /**
+     * 下一个要提交查询的页数
+     */
+    private int nextPage;
+
+    /**
+     * 数据总数,第一页返回之前为-1
+     */
+    private int totalCount;
+
+    /**
+     * @param request 查询的请求,与同步的实现一样从第0页开始查询
+     * @param queryMapper 查询的函数,会在执行器的线程中被调用
+     * @param valuesGetter 从结果中获取数据的函数
+     * @param requestCopier 复制请求的函数
+     * @param executor 执行查询的执行器
+     * @param pagesInFlight 同时进行中的查询最多的页数,包括正在等待的当前页
+     */
+    public PrefetchingDataQueryIterator(REQ request,
+                                        Function<REQ, RES> queryMapper,
+                                        Function<RES, List<E>> valuesGetter,
+                                        UnaryOperator<REQ> requestCopier,
+                                        Executor executor,
+                                        int pagesInFlight) {
+        super(request, queryMapper, valuesGetter);
+        if (pagesInFlight <= 0) {
+            throw new IllegalArgumentException("pagesInFlight must be positive: " + pagesInFlight);
+        }
+        this.requestCopier = requestCopier;
+        this.executor = executor;
+        this.pagesInFlight = pagesInFlight;
+        this.inFlight = new ArrayDeque<>(pagesInFlight);
+        this.nextPage = 0;
+        this.totalCount = -1;
+    }
+
+    /**
+     * 取出最早提交的一页的结果,并补充预取
+     * 页数从{@link this#page}开始递增,与同步的实现一致
+     *
+     * @throws RuntimeException 查询失败则会抛出异常
+     */
+    @Override
+    protected void queryData() {
+        this.prefetch();
+        final CompletableFuture<RES> head = this.inFlight.poll();
+        final RES result;
+        try {
+            result = head.join();
+        } catch (CompletionException ex) {
+            this.page++;
+            throw ex.getCause() instanceof RuntimeException
+                    ? (RuntimeException) ex.getCause() : new RuntimeException(ex.getCause());
+        }
+        this.page++;
+        this.acceptResult(result);
+        if (result.isSuccess()) {
+            this.totalCount = result.getTotalCount();
+        }
+        if (this.finish) {
+            // 数据总数可能在查询期间变少,多余的预取不再需要
+            this.cancelInFlight();
+        } else {
+            this.prefetch();
+        }
+    }
+
+    /**
+     * 取消所有进行中的查询,之后迭代器不再返回数据
+     */
+    @Override
+    public void close() {
+        this.finish = true;
+        this.delegate = Collections.emptyIterator();
+        this.cancelInFlight();
+    }
+
+    private void cancelInFlight() {
+        CompletableFuture<RES> future;
+        while ((future = this.inFlight.poll()) != null) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * 提交之后的页的查询,直到进行中的页数达到上限或者已经提交到最后一页
+     */
+    private void prefetch() {
+        while (!this.finish && this.inFlight.size() < this.pagesInFlight && this.hasMorePages()) {
+            final REQ pageRequest = this.requestCopier.apply(this.request);
+            pageRequest.setPage(this.nextPage++);
+            this.inFlight.add(CompletableFuture.supplyAsync(() -> this.queryMapper.apply(pageRequest),
+                    this.executor));
+        }
+    }
+
+    /**
+     * 判断是否还有页没有提交,数据总数未知时只提交第一页
+     * @return true表示还有页没有提交
+     */
+    private boolean hasMorePages() {
+        if (this.totalCount < 0) {
+            return this.inFlight.isEmpty() && this.nextPage == this.page;
+        }
+        return (long) this.nextPage * this.pageSize < this.totalCount;
+    }
+}
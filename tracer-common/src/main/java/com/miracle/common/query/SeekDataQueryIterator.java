@@ -0,0 +1,69 @@
+package com.miracle.common.query;
+
+import com.miracle.data.common.BaseCommonRequest;
+import com.miracle.data.common.BaseExceptionResult;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Description:以游标分页的数据查询迭代器
+ * 每一页查询之后用这一页最后一条数据移动请求的游标,下一页从它之后开始查询,不依赖页码,每一页的查询开销相同
+ * 查询结果不需要包含数据总数,返回的数据不足一页时查询结束
+ * 页数仍然会递增,只用于异常信息
+ *
+ * @author guobin On date 2018/7/27.
+ * @version 1.0
+ * @since jdk 1.8
+ * @param <E> 数据的类型
+ * @param <REQ> 查询数据的请求类类型
+ * @param <RES> 查询出得到的返回结果
+ */
+public class SeekDataQueryIterator<E, REQ extends BaseCommonRequest, RES extends BaseExceptionResult>
+        extends AbstractDataQueryIterator<E, REQ, RES> {
+
+    /**
+     * 用一页的最后一条数据移动请求游标的函数
+     */
+    private final BiConsumer<REQ, E> cursorUpdater;
+
+    /**
+     * @param request 查询的请求,其中的游标决定从哪里开始查询
+     * @param queryMapper 游标分页查询的函数
+     * @param valuesGetter 从结果中获取数据的函数
+     * @param cursorUpdater 用一页的最后一条数据移动请求游标的函数
+     */
+    public SeekDataQueryIterator(REQ request,
+                                 Function<REQ, RES> queryMapper,
+                                 Function<RES, List<E>> valuesGetter,
+                                 BiConsumer<REQ, E> cursorUpdater) {
+        super(request, queryMapper, valuesGetter);
+        this.cursorUpdater = cursorUpdater;
+    }
+
+    @Override
+    protected void queryData() {
+        this.page++;
+        this.acceptResult(this.queryMapper.apply(this.request));
+    }
+
+    /**
+     * 替换代理的list,不足一页时结束查询,否则把游标移动到这一页的最后一条数据
+     *
+     * @param result 查询结果
+     * @throws RuntimeException 查询失败则会抛出异常
+     */
+    @Override
+    protected void acceptResult(RES result) {
+        super.acceptResult(result);
+        final List<E> values = Optional.ofNullable(this.valuesGetter.apply(result))
+                .orElseGet(Collections::emptyList);
+        this.finish = values.size() < this.pageSize;
+        if (!values.isEmpty()) {
+            this.cursorUpdater.accept(this.request, values.get(values.size() - 1));
+        }
+    }
+}
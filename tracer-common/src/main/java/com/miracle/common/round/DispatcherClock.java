@@ -0,0 +1,24 @@
+package com.miracle.common.round;
+
+/**
+ * Description:时间片轮转调度者读取当前时间所用的时钟
+ * 调度者中所有的时间计算都经由它进行,测试时可以注入{@link VirtualClock}来模拟时间的流逝
+ *
+ * @author guobin On date 2018/7/18.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+@FunctionalInterface
+public interface DispatcherClock {
+
+    /**
+     * 系统时钟
+     */
+    DispatcherClock SYSTEM = System::currentTimeMillis;
+
+    /**
+     * 得到当前时间
+     * @return 当前时间戳,单位毫秒
+     */
+    long currentTimeMillis();
+}
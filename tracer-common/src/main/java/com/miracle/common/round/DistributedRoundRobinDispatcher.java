@@ -0,0 +1,542 @@
+package com.miracle.common.round;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * Description:多节点共享任务的分布式时间片轮转调度者
+ * 任务不再保存在节点的内存之中,而是保存在{@link DistributedTaskStore}里,每个队列按元素编码的哈希值分散到固定数量的任务分片,
+ * 节点通过租约独占其中一部分分片,每个时间片从自己持有的分片中原子地取出到期任务并提交给执行池
+ * 节点按存活节点的数量均分分片,多出的分片会被主动释放,失效节点的租约过期之后由其它节点接管,所以任务不会随节点一起消失
+ * 取出任务本身是原子的,即使两个节点短暂地同时认为自己持有同一个分片也不会重复执行同一个任务,
+ * 但已经取出尚未执行完毕的任务会随节点一起丢失,即任务最多被执行一次
+ * 推进时间片需要多次访问共享存储,所以在调度者自己的线程中进行,共享的调度线程只负责按时触发,
+ * 共享存储变慢或者不可用时不会拖慢进程内的其它调度者
+ *
+ * @author guobin On date 2018/7/22.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class DistributedRoundRobinDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DistributedRoundRobinDispatcher.class);
+
+    /**
+     * 默认的任务分片数量{@value}
+     */
+    static final int DEFAULT_SHARDS = 16;
+
+    /**
+     * 默认的租约时长{@value},单位毫秒
+     */
+    static final long DEFAULT_LEASE_MILLIS = 10_000L;
+
+    /**
+     * 每次从一个任务分片中最多取出的任务数量{@value}
+     */
+    private static final int POP_BATCH_SIZE = 256;
+
+    /**
+     * 工作队列集合
+     */
+    private final Map<String, DistributedQueue<?>> queueMap;
+
+    /**
+     * 所有key的公共前缀,共享同一个前缀的节点共同调度同一组队列
+     */
+    private final String namespace;
+
+    /**
+     * 每个时间片的大小
+     */
+    private final long timeSlice;
+
+    /**
+     * 每个队列的任务分片数量,共享同一个前缀的节点必须一致
+     */
+    private final int shardCount;
+
+    /**
+     * 租约时长,节点的心跳超过该时长未更新也会被视为失效
+     */
+    private final long leaseMillis;
+
+    /**
+     * 节点标识
+     */
+    private final String nodeId;
+
+    /**
+     * 共享的任务存储
+     */
+    private final DistributedTaskStore store;
+
+    /**
+     * 读取当前时间所用的时钟
+     */
+    private final DispatcherClock clock;
+
+    /**
+     * 默认的任务执行池
+     */
+    private final TaskExecutionPool defaultExecutionPool;
+
+    /**
+     * 每个任务分片的租约在本节点看来的过期时间,为0说明本节点不持有该分片,由{@link #tickMonitor}保护
+     */
+    private final long[] leaseExpireTimes;
+
+    /**
+     * 推进时间片所用的监视器
+     */
+    private final Object tickMonitor;
+
+    /**
+     * 周期性触发时间片推进的任务,为{@code null}说明时间片由外界手动推进
+     */
+    private final ScheduledFuture<?> periodicTick;
+
+    /**
+     * 推进时间片的线程,最多只有一次等待中的推进,推进落后时多余的触发被丢弃;时间片由外界手动推进时为{@code null}
+     */
+    private final ThreadPoolExecutor tickExecutor;
+
+    /**
+     * 调度者是否已经关闭
+     */
+    private volatile boolean shutdown;
+
+    DistributedRoundRobinDispatcher(String namespace, long timeSlice, DistributedTaskStore store,
+                                    ScheduledExecutorService scheduler) {
+        this(namespace, timeSlice, DEFAULT_SHARDS, DEFAULT_LEASE_MILLIS, store, scheduler, DispatcherClock.SYSTEM);
+    }
+
+    /**
+     * @param namespace key的公共前缀
+     * @param timeSlice 时间片大小
+     * @param shardCount 每个队列的任务分片数量
+     * @param leaseMillis 租约时长
+     * @param store 共享的任务存储
+     * @param scheduler 触发时间片推进的调度线程,为{@code null}时由外界通过{@link #tick()}推进时间片
+     * @param clock 读取当前时间所用的时钟
+     */
+    DistributedRoundRobinDispatcher(String namespace, long timeSlice, int shardCount, long leaseMillis,
+                                    DistributedTaskStore store, ScheduledExecutorService scheduler,
+                                    DispatcherClock clock) {
+        if (namespace == null || store == null || clock == null) {
+            throw new NullPointerException("Namespace, store and clock cannot be null.");
+        }
+        if (timeSlice <= 0 || shardCount <= 0) {
+            throw new IllegalArgumentException("Time slice and shard count must greater that 0.");
+        }
+        if (leaseMillis <= timeSlice) {
+            throw new IllegalArgumentException("Lease must be longer than the time slice.");
+        }
+        this.namespace = namespace;
+        this.timeSlice = timeSlice;
+        this.shardCount = shardCount;
+        this.leaseMillis = leaseMillis;
+        this.store = store;
+        this.clock = clock;
+        this.nodeId = UUID.randomUUID().toString();
+        this.queueMap = new ConcurrentHashMap<>(16);
+        this.leaseExpireTimes = new long[shardCount];
+        this.tickMonitor = new Object();
+        this.defaultExecutionPool = TaskExecutionPool.newFixedPool("DistributedRoundRobinDispatcher-worker",
+                Math.max(2, Runtime.getRuntime().availableProcessors()), TaskExecutionPool.DEFAULT_MAX_IN_FLIGHT,
+                TaskExecutionPool.SaturationPolicy.REJECT, 0L);
+        if (scheduler == null) {
+            this.tickExecutor = null;
+            this.periodicTick = null;
+            return;
+        }
+        this.tickExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(1), r -> {
+            final Thread thread = new Thread(r);
+            thread.setName("DistributedRoundRobinDispatcher-" + namespace);
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+        this.periodicTick = scheduler.scheduleAtFixedRate(() -> this.tickExecutor.execute(this::runTick),
+                0, timeSlice, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 以给定的配置创建一个工作队列
+     * 队列必须配置{@link QueueOptions#codec(TaskCodec)},元素以编码之后的形式保存在共享存储中,
+     * 同一个队列在所有节点上都需要以相同的名字、编解码器与执行函数创建
+     * 配置中只有编解码器与执行池会生效
+     * @param type 队列中元素的类型
+     * @param queueName 工作队列名
+     * @param taskExecutor 任务到期时调用的函数,返回值大于0时任务在该时长之后再次到期
+     * @param options 队列配置
+     * @param <T> 元素的类型
+     * @return true表示创建成功,false表示队列已经存在
+     * @throws IllegalArgumentException 配置中没有编解码器时抛出
+     */
+    @SuppressWarnings("unchecked")
+    public <T> boolean createQueue(Class<T> type, String queueName, ToLongFunction<T> taskExecutor,
+                                   QueueOptions options) {
+        if (type == null || taskExecutor == null || options == null) {
+            throw new NullPointerException("Type, task executor and options cannot be null.");
+        }
+        if (options.getCodec() == null) {
+            throw new IllegalArgumentException("Distributed queue " + queueName + " requires a codec.");
+        }
+        final String actualQueueName = this.buildActualQueueName(type, queueName);
+        final TaskExecutionPool executionPool = Optional.ofNullable(options.getExecutionPool())
+                .orElse(this.defaultExecutionPool);
+        return this.queueMap.putIfAbsent(actualQueueName, new DistributedQueue<>(actualQueueName, taskExecutor,
+                (TaskCodec<T>) options.getCodec(), executionPool)) == null;
+    }
+
+    /**
+     * 将一个元素添加进指定的工作队列之中,元素已经存在时只更新它的到期时间
+     * 任务由持有它所在分片的节点执行,不一定是添加它的节点
+     * @param obj 元素
+     * @param taskDuration 元素的存活时长
+     * @param queueName 工作队列名
+     * @param <T> 元素的类型
+     * @throws IllegalArgumentException 工作队列不存在时抛出
+     * @throws IllegalStateException 调度者已经关闭时抛出
+     */
+    public <T> void add(T obj, long taskDuration, String queueName) {
+        if (obj == null) {
+            throw new NullPointerException("The object in the wheel cannot be null.");
+        }
+        if (this.shutdown) {
+            throw new IllegalStateException("Distributed round robin dispatcher has been shut down.");
+        }
+        final DistributedQueue<T> queue = this.getQueue(obj, queueName);
+        final String member = queue.encode(obj);
+        this.store.add(queue.shardKey(this.shardOf(member)), member,
+                this.clock.currentTimeMillis() + Math.max(0L, taskDuration));
+    }
+
+    /**
+     * 删除一个元素所对应的任务
+     * @param obj 元素
+     * @param queueName 工作队列名
+     * @param <T> 元素的类型
+     * @return true表示删除成功,false表示任务不存在或者已经被取出执行
+     * @throws IllegalArgumentException 工作队列不存在时抛出
+     */
+    public <T> boolean remove(T obj, String queueName) {
+        final DistributedQueue<T> queue = this.getQueue(obj, queueName);
+        final String member = queue.encode(obj);
+        return this.store.remove(queue.shardKey(this.shardOf(member)), member);
+    }
+
+    /**
+     * 推进一次时间片:登记心跳、调整持有的分片,然后取出持有分片中的到期任务
+     * @throws IllegalStateException 调度者不是由外界手动推进时抛出
+     */
+    public void tick() {
+        if (this.periodicTick != null) {
+            throw new IllegalStateException("Only dispatcher without scheduler can be ticked by hand.");
+        }
+        this.runTick();
+    }
+
+    /**
+     * 关闭调度者,释放持有的所有租约并退出节点集合
+     * 尚未到期的任务仍然保存在共享存储中,由其它节点继续调度,已经提交给执行池的任务会继续执行完毕
+     */
+    public void shutdown() {
+        synchronized (this.tickMonitor) {
+            if (this.shutdown) {
+                return;
+            }
+            this.shutdown = true;
+            if (this.periodicTick != null) {
+                this.periodicTick.cancel(false);
+                this.tickExecutor.shutdown();
+            }
+            try {
+                for (int shard = 0; shard < this.shardCount; shard++) {
+                    if (this.leaseExpireTimes[shard] != 0L) {
+                        this.releaseShard(shard);
+                    }
+                }
+                this.store.leave(this.nodesKey(), this.nodeId);
+            } catch (RuntimeException ex) {
+                // 未能释放的租约会自然过期
+                LOG.warn("Distributed dispatcher {} failed to release its leases.", this.namespace, ex);
+            }
+        }
+        this.defaultExecutionPool.shutdown();
+    }
+
+    /**
+     * 判断调度者是否已经关闭
+     * @return true表示已经关闭
+     */
+    public boolean isShutdown() {
+        return this.shutdown;
+    }
+
+    /**
+     * 得到本节点当前持有的任务分片数量
+     * @return 持有的分片数量
+     */
+    public int getOwnedShardCount() {
+        synchronized (this.tickMonitor) {
+            int owned = 0;
+            for (long expireTime : this.leaseExpireTimes) {
+                if (expireTime != 0L) {
+                    owned++;
+                }
+            }
+            return owned;
+        }
+    }
+
+    /**
+     * 得到本节点的标识
+     * @return 节点标识
+     */
+    public String getNodeId() {
+        return this.nodeId;
+    }
+
+    /**
+     * 推进一次时间片,在调度者自己的线程中执行
+     * 共享存储的异常只记录日志,不能让它打断周期性任务,下一个时间片会重新尝试
+     */
+    private void runTick() {
+        synchronized (this.tickMonitor) {
+            if (this.shutdown) {
+                return;
+            }
+            final long now = this.clock.currentTimeMillis();
+            try {
+                this.rebalance(now);
+                for (int shard = 0; shard < this.shardCount; shard++) {
+                    if (this.leaseExpireTimes[shard] == 0L) {
+                        continue;
+                    }
+                    for (DistributedQueue<?> queue : this.queueMap.values()) {
+                        this.dispatchShard(queue, shard, now);
+                    }
+                }
+            } catch (RuntimeException ex) {
+                LOG.warn("Distributed dispatcher {} failed to tick.", this.namespace, ex);
+            }
+        }
+    }
+
+    /**
+     * 登记心跳,按存活节点的数量计算本节点应当持有的分片数量,续约即将过期的租约,释放多出的分片,再尝试获取不足的分片
+     * @param now 当前时间
+     */
+    private void rebalance(long now) {
+        final int alive = Math.max(1, this.store.heartbeat(this.nodesKey(), this.nodeId, now, now - this.leaseMillis));
+        final int share = (this.shardCount + alive - 1) / alive;
+        int owned = 0;
+        for (int shard = 0; shard < this.shardCount; shard++) {
+            if (this.leaseExpireTimes[shard] == 0L) {
+                continue;
+            }
+            if (owned >= share) {
+                this.releaseShard(shard);
+                continue;
+            }
+            // 租约过半时续约,续约失败说明租约已经过期并被其它节点获取
+            if (now >= this.leaseExpireTimes[shard] - this.leaseMillis / 2 && !this.acquireShard(shard, now)) {
+                continue;
+            }
+            owned++;
+        }
+        // 从与节点标识相关的位置开始获取,避免所有节点争抢同样的分片
+        final int start = Math.floorMod(this.nodeId.hashCode(), this.shardCount);
+        for (int i = 0; i < this.shardCount && owned < share; i++) {
+            final int shard = (start + i) % this.shardCount;
+            if (this.leaseExpireTimes[shard] == 0L && this.acquireShard(shard, now)) {
+                owned++;
+            }
+        }
+    }
+
+    /**
+     * 获取或者续约一个分片的租约
+     * @param shard 分片
+     * @param now 当前时间
+     * @return true表示本节点持有该分片
+     */
+    private boolean acquireShard(int shard, long now) {
+        final boolean acquired = this.store.acquireLease(this.leaseKey(shard), this.nodeId, this.leaseMillis);
+        this.leaseExpireTimes[shard] = acquired ? now + this.leaseMillis : 0L;
+        return acquired;
+    }
+
+    /**
+     * 释放一个分片的租约
+     * @param shard 分片
+     */
+    private void releaseShard(int shard) {
+        this.leaseExpireTimes[shard] = 0L;
+        this.store.releaseLease(this.leaseKey(shard), this.nodeId);
+    }
+
+    /**
+     * 取出一个分片中的到期任务并提交给执行池,每批取出的数量不超过执行池剩余的容量,执行池饱和时剩余的任务留到下一个时间片
+     * @param queue 工作队列
+     * @param shard 分片
+     * @param now 当前时间
+     * @param <T> 元素的类型
+     */
+    private <T> void dispatchShard(DistributedQueue<T> queue, int shard, long now) {
+        final String shardKey = queue.shardKey(shard);
+        final TaskExecutionPool executionPool = queue.executionPool;
+        while (true) {
+            final int limit = Math.min(POP_BATCH_SIZE,
+                    executionPool.getMaxInFlight() - executionPool.getInFlightCount());
+            if (limit <= 0) {
+                return;
+            }
+            final List<String> members = this.store.popDue(shardKey, now, limit);
+            for (String member : members) {
+                this.submit(queue, shardKey, member, now);
+            }
+            if (members.size() < limit) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 将一个取出的任务提交给执行池,未能准入或者被拒绝的任务以当前时间放回分片,下一个时间片再尝试
+     * 在调度者自己的线程中执行,{@link TaskExecutionPool.SaturationPolicy#BLOCK}策略的执行池只会放慢本调度者
+     * @param queue 工作队列
+     * @param shardKey 分片的key
+     * @param member 编码之后的元素
+     * @param now 当前时间
+     * @param <T> 元素的类型
+     */
+    private <T> void submit(DistributedQueue<T> queue, String shardKey, String member, long now) {
+        if (!queue.executionPool.tryAdmit()) {
+            this.store.add(shardKey, member, now);
+            return;
+        }
+        try {
+            queue.executionPool.execute(() -> this.executeTask(queue, shardKey, member));
+        } catch (RejectedExecutionException ex) {
+            this.store.add(shardKey, member, now);
+        }
+    }
+
+    /**
+     * 执行一个任务,执行函数返回大于0的时长时任务以新的到期时间放回原来的分片
+     * 抛出异常的任务不会被放回
+     * @param queue 工作队列
+     * @param shardKey 分片的key
+     * @param member 编码之后的元素
+     * @param <T> 元素的类型
+     */
+    private <T> void executeTask(DistributedQueue<T> queue, String shardKey, String member) {
+        final long nextDuration;
+        try {
+            nextDuration = queue.taskExecutor.applyAsLong(queue.decode(member));
+        } catch (RuntimeException ex) {
+            LOG.warn("Task in distributed queue {} failed.", queue.queueName, ex);
+            return;
+        }
+        if (nextDuration > 0) {
+            this.store.add(shardKey, member, this.clock.currentTimeMillis() + nextDuration);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> DistributedQueue<T> getQueue(T obj, String queueName) {
+        final String actualQueueName = this.buildActualQueueName(obj.getClass(), queueName);
+        final DistributedQueue<T> queue = (DistributedQueue<T>) this.queueMap.get(actualQueueName);
+        if (queue == null) {
+            throw new IllegalArgumentException("Task queue " + actualQueueName + " does not exist.");
+        }
+        return queue;
+    }
+
+    /**
+     * 计算编码之后的元素所在的分片,{@link String#hashCode()}在所有节点上都是一致的
+     * @param member 编码之后的元素
+     * @return 分片
+     */
+    private int shardOf(String member) {
+        return Math.floorMod(member.hashCode(), this.shardCount);
+    }
+
+    private String buildActualQueueName(Class<?> type, String outsideQueueName) {
+        return type.getSimpleName() + "-" + outsideQueueName;
+    }
+
+    private String leaseKey(int shard) {
+        return this.namespace + ":lease:" + shard;
+    }
+
+    private String nodesKey() {
+        return this.namespace + ":nodes";
+    }
+
+    /**
+     * 分布式工作队列,只保存执行任务所需的配置,任务本身保存在共享存储中
+     * @param <T> 元素的类型
+     */
+    private class DistributedQueue<T> {
+
+        private final String queueName;
+
+        private final ToLongFunction<T> taskExecutor;
+
+        private final TaskCodec<T> codec;
+
+        private final TaskExecutionPool executionPool;
+
+        /**
+         * 各分片的key,避免每个时间片重复拼接
+         */
+        private final String[] shardKeys;
+
+        DistributedQueue(String queueName, ToLongFunction<T> taskExecutor, TaskCodec<T> codec,
+                         TaskExecutionPool executionPool) {
+            this.queueName = queueName;
+            this.taskExecutor = taskExecutor;
+            this.codec = codec;
+            this.executionPool = executionPool;
+            this.shardKeys = new String[shardCount];
+            for (int shard = 0; shard < shardCount; shard++) {
+                this.shardKeys[shard] = namespace + ":queue:" + queueName + ":" + shard;
+            }
+        }
+
+        String shardKey(int shard) {
+            return this.shardKeys[shard];
+        }
+
+        /**
+         * 将元素编码成可以作为有序集合成员的字符串
+         * @param obj 元素
+         * @return 编码之后的字符串
+         */
+        String encode(T obj) {
+            return Base64.getEncoder().encodeToString(this.codec.encode(obj));
+        }
+
+        T decode(String member) {
+            return this.codec.decode(Base64.getDecoder().decode(member));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.miracle.common.round;
+
+import java.util.List;
+
+/**
+ * Description:分布式时间片轮转调度者所依赖的共享存储
+ * 每个任务分片是一个以到期时间为分数的有序集合,成员是编码之后的元素,同一个成员重复添加时只会更新它的到期时间
+ * 节点通过带过期时间的租约独占任务分片,通过心跳登记自己仍然存活,所有操作都必须是原子的
+ * 生产环境使用{@link RedisDistributedTaskStore},测试时可以用进程内的实现代替
+ *
+ * @author guobin On date 2018/7/22.
+ * @version 1.0
+ * @since jdk 1.8
+ * @see DistributedRoundRobinDispatcher
+ */
+public interface DistributedTaskStore {
+
+    /**
+     * 添加任务,成员已经存在时更新它的到期时间
+     * @param shardKey 任务分片的key
+     * @param member 编码之后的元素
+     * @param dueTime 到期时间
+     */
+    void add(String shardKey, String member, long dueTime);
+
+    /**
+     * 删除任务
+     * @param shardKey 任务分片的key
+     * @param member 编码之后的元素
+     * @return true表示删除成功,false表示任务不存在
+     */
+    boolean remove(String shardKey, String member);
+
+    /**
+     * 原子地取出并删除一批到期时间不晚于给定时间的任务,按到期时间从早到晚排列
+     * @param shardKey 任务分片的key
+     * @param now 当前时间
+     * @param limit 最多取出的任务数量
+     * @return 取出的成员,没有到期任务时返回空列表
+     */
+    List<String> popDue(String shardKey, long now, int limit);
+
+    /**
+     * 获取或者续约租约,租约不存在或者已经属于给定的节点时成功,属于其它节点时失败
+     * @param leaseKey 租约的key
+     * @param owner 节点标识
+     * @param leaseMillis 租约时长,单位毫秒
+     * @return true表示给定的节点持有租约
+     */
+    boolean acquireLease(String leaseKey, String owner, long leaseMillis);
+
+    /**
+     * 释放租约,只有租约仍然属于给定的节点时才会被删除
+     * @param leaseKey 租约的key
+     * @param owner 节点标识
+     */
+    void releaseLease(String leaseKey, String owner);
+
+    /**
+     * 登记节点的心跳,同时清除心跳早于给定时间的节点
+     * @param nodesKey 节点集合的key
+     * @param nodeId 节点标识
+     * @param now 当前时间
+     * @param expireBefore 心跳早于该时间的节点被视为已经失效
+     * @return 仍然存活的节点数量,包括给定的节点自身
+     */
+    int heartbeat(String nodesKey, String nodeId, long now, long expireBefore);
+
+    /**
+     * 将节点从节点集合中移除
+     * @param nodesKey 节点集合的key
+     * @param nodeId 节点标识
+     */
+    void leave(String nodesKey, String nodeId);
+}
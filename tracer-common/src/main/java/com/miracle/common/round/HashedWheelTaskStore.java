@@ -0,0 +1,263 @@
+package com.miracle.common.round;
+
+/**
+ * Description:基于分层哈希时间轮的任务存储
+ * 以一个时间片作为最底层时间轮的一格,每一层有{@value #WHEEL_SIZE}个槽位,上一层的一格等于下一层转一圈
+ * 任务按照到期的格数放入能容纳它的最低一层,当下层转完一圈时上层对应槽位中的任务会被降级到下层
+ * 放入、摘除与到期的代价都是O(1)的,每个任务最多被降级{@code 层数}次
+ * 格数从构造时给定的起始时间开始计算,与{@link RoundRobinDispatcher}中每个时间片的截止时间对齐,
+ * 所以第n格到期的任务恰好就是到期时间落在(起始时间 + (n - 1) * 时间片, 起始时间 + n * 时间片]之间的任务
+ *
+ * @author guobin On date 2018/7/12.
+ * @version 1.0
+ * @since jdk 1.8
+ * @param <E> 任务持有的数据类型
+ */
+class HashedWheelTaskStore<E> implements TaskStore<E> {
+
+    /**
+     * 每一层槽位数所占的位数
+     */
+    private static final int WHEEL_BITS = 6;
+
+    /**
+     * 每一层的槽位数{@value}
+     */
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+    /**
+     * 槽位下标的掩码
+     */
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    /**
+     * 最大层数,足以覆盖long所能表示的全部格数
+     */
+    private static final int MAX_LEVELS = (Long.SIZE + WHEEL_BITS - 1) / WHEEL_BITS;
+
+    /**
+     * 已经到期但还没有被取走的任务所在的层数标记
+     */
+    private static final int EXPIRED_LEVEL = -1;
+
+    /**
+     * 每一格的时长,即时间片大小
+     */
+    private final long tickDuration;
+
+    /**
+     * 计算格数的起始时间
+     */
+    private final long origin;
+
+    /**
+     * 每一层的槽位,按需创建
+     */
+    @SuppressWarnings("unchecked")
+    private final TaskList<E>[][] levels = new TaskList[MAX_LEVELS][];
+
+    /**
+     * 每一层中的任务数量
+     */
+    private final int[] levelCounts = new int[MAX_LEVELS];
+
+    /**
+     * 已经到期但还没有被取走的任务
+     */
+    private final TaskList<E> expired;
+
+    /**
+     * 当前已经走到的格数
+     */
+    private long currentTick;
+
+    /**
+     * 时间轮中的任务数量(不包括已经到期的任务)
+     */
+    private int wheelCount;
+
+    HashedWheelTaskStore(long tickDuration, long origin) {
+        this.tickDuration = tickDuration;
+        this.origin = origin;
+        this.expired = new TaskList<>();
+        this.currentTick = 0L;
+        this.wheelCount = 0;
+    }
+
+    @Override
+    public void offer(Task<E> task) {
+        // 已经过期的任务放在下一格到期,与优先级队列在下一个时间片将其取出的行为一致
+        this.place(task, Math.max(this.tickOf(task.completeTime), this.currentTick + 1));
+    }
+
+    @Override
+    public Task<E> pollExpired(long deadline) {
+        final long targetTick = Math.floorDiv(deadline - this.origin, this.tickDuration);
+        if (targetTick > this.currentTick) {
+            this.advanceTo(targetTick);
+        }
+        return this.expired.poll();
+    }
+
+    @Override
+    public boolean remove(Task<E> task) {
+        final TaskList<E> list = task.list;
+        if (list == null || !list.remove(task)) {
+            return false;
+        }
+        if (task.storeIndex != EXPIRED_LEVEL) {
+            this.levelCounts[task.storeIndex]--;
+            this.wheelCount--;
+        }
+        return true;
+    }
+
+    @Override
+    public long nextExpireTime() {
+        if (!this.expired.isEmpty()) {
+            return Long.MIN_VALUE;
+        }
+        final int lowestLevel = this.lowestNonEmptyLevel();
+        if (lowestLevel < 0) {
+            return Long.MAX_VALUE;
+        }
+        // 在最低的非空层中找到当前槽位之后第一个非空的槽位
+        // 对于最底层,这就是最早到期的那一格;对于更高的层,这是该槽位中的任务被降级的格数,早于其中任何任务的到期时间
+        final int shift = lowestLevel * WHEEL_BITS;
+        final long currentBlock = this.currentTick >>> shift;
+        for (int distance = 1; distance < WHEEL_SIZE; distance++) {
+            final long block = currentBlock + distance;
+            if (!this.levels[lowestLevel][(int) (block & WHEEL_MASK)].isEmpty()) {
+                return this.origin + (block << shift) * this.tickDuration;
+            }
+        }
+        return this.origin + ((currentBlock + 1) << shift) * this.tickDuration;
+    }
+
+    @Override
+    public int size() {
+        return this.wheelCount + this.expired.size();
+    }
+
+    /**
+     * 将时间轮推进到指定的格数,沿途到期的任务都会被放入{@link #expired}中
+     * 当较低的若干层都为空时会直接跳到下一次需要降级的位置,所以长时间空闲之后的追赶不会逐格进行
+     * @param targetTick 目标格数
+     */
+    private void advanceTo(long targetTick) {
+        while (this.currentTick < targetTick) {
+            if (this.wheelCount == 0) {
+                this.currentTick = targetTick;
+                return;
+            }
+            final int lowestLevel = this.lowestNonEmptyLevel();
+            final long nextTick;
+            if (lowestLevel == 0) {
+                nextTick = this.currentTick + 1;
+            } else {
+                // 更低的层都是空的,在到达该层的下一个降级位置之前不会有任务到期
+                final int shift = lowestLevel * WHEEL_BITS;
+                final long boundary = ((this.currentTick >>> shift) + 1) << shift;
+                if (boundary > targetTick) {
+                    this.currentTick = targetTick;
+                    return;
+                }
+                nextTick = boundary;
+            }
+            this.currentTick = nextTick;
+            this.cascade();
+            this.expireCurrentSlot();
+        }
+    }
+
+    /**
+     * 在当前格数处于某一层的整圈位置时,从高到低将对应层当前槽位中的任务降级到更低的层
+     */
+    private void cascade() {
+        for (int level = MAX_LEVELS - 1; level > 0; level--) {
+            final int shift = level * WHEEL_BITS;
+            if (this.levels[level] == null || (this.currentTick & ((1L << shift) - 1)) != 0) {
+                continue;
+            }
+            final TaskList<E> slot = this.levels[level][(int) ((this.currentTick >>> shift) & WHEEL_MASK)];
+            Task<E> task;
+            while ((task = slot.poll()) != null) {
+                this.levelCounts[level]--;
+                this.wheelCount--;
+                this.place(task, this.tickOf(task.completeTime));
+            }
+        }
+    }
+
+    /**
+     * 将最底层当前槽位中的任务全部转移到{@link #expired}中
+     */
+    private void expireCurrentSlot() {
+        if (this.levels[0] == null) {
+            return;
+        }
+        final TaskList<E> slot = this.levels[0][(int) (this.currentTick & WHEEL_MASK)];
+        final int count = slot.size();
+        if (count > 0) {
+            for (Task<E> task = slot.peek(); task != null; task = task.next) {
+                task.storeIndex = EXPIRED_LEVEL;
+            }
+            slot.transferTo(this.expired);
+            this.levelCounts[0] -= count;
+            this.wheelCount -= count;
+        }
+    }
+
+    /**
+     * 将任务放入能容纳它的最低一层
+     * 选择满足{@code (tick >> 层位移) - (currentTick >> 层位移) < WHEEL_SIZE}的最低一层,
+     * 这样除最底层外,任务所在的槽位总是在当前槽位之后,不会与当前槽位重叠
+     * @param task 任务
+     * @param tick 任务到期的格数,不小于当前格数
+     */
+    private void place(Task<E> task, long tick) {
+        int level = 0;
+        while (level < MAX_LEVELS - 1
+                && (tick >>> (level * WHEEL_BITS)) - (this.currentTick >>> (level * WHEEL_BITS)) >= WHEEL_SIZE) {
+            level++;
+        }
+        if (this.levels[level] == null) {
+            this.levels[level] = this.newWheel();
+        }
+        this.levels[level][(int) ((tick >>> (level * WHEEL_BITS)) & WHEEL_MASK)].add(task);
+        task.storeIndex = level;
+        this.levelCounts[level]++;
+        this.wheelCount++;
+    }
+
+    /**
+     * 找到有任务的最低一层
+     * @return 层数,时间轮为空时返回-1
+     */
+    private int lowestNonEmptyLevel() {
+        for (int level = 0; level < MAX_LEVELS; level++) {
+            if (this.levelCounts[level] > 0) {
+                return level;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 计算给定时间所对应的格数,向上取整
+     * @param time 时间戳
+     * @return 格数
+     */
+    private long tickOf(long time) {
+        return Math.max(0L, -Math.floorDiv(this.origin - time, this.tickDuration));
+    }
+
+    @SuppressWarnings("unchecked")
+    private TaskList<E>[] newWheel() {
+        final TaskList<E>[] wheel = new TaskList[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new TaskList<>();
+        }
+        return wheel;
+    }
+}
@@ -0,0 +1,230 @@
+package com.miracle.common.round;
+
+/**
+ * Description:以基本类型数组实现的任务堆
+ * 到期时间保存在{@code long[]}二叉小顶堆中,堆中每个位置对应一个槽位,任务本身保存在与槽位平行的数组里,
+ * 上浮与下沉只移动基本类型,不需要读取任务对象,也不需要比较器
+ * 槽位在任务取出或摘除之后回收到空闲栈中复用,数组只在容量不足时扩容,稳定状态下放入、取出与摘除都不会分配内存
+ * 放入与取出的代价都是O(log n),借助{@link Task#storeIndex}记录的槽位,摘除的代价同样是O(log n)
+ *
+ * @author guobin On date 2018/7/21.
+ * @version 1.0
+ * @since jdk 1.8
+ * @param <E> 任务持有的数据类型
+ */
+class PrimitiveTaskHeap<E> implements TaskStore<E> {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * 堆中每个位置的到期时间
+     */
+    private long[] deadlines;
+
+    /**
+     * 堆中每个位置所对应的槽位
+     */
+    private int[] heapSlots;
+
+    /**
+     * 每个槽位在堆中的位置
+     */
+    private int[] slotPositions;
+
+    /**
+     * 每个槽位中的任务,空闲的槽位为{@code null}
+     */
+    private Task<E>[] slots;
+
+    /**
+     * 空闲槽位的栈
+     */
+    private int[] freeSlots;
+
+    /**
+     * 空闲槽位的数量
+     */
+    private int freeCount;
+
+    /**
+     * 已经使用过的槽位数量,更大的槽位从未使用过
+     */
+    private int usedSlots;
+
+    /**
+     * 堆中的任务数量
+     */
+    private int size;
+
+    PrimitiveTaskHeap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    @SuppressWarnings("unchecked")
+    PrimitiveTaskHeap(int initialCapacity) {
+        final int capacity = Math.max(1, initialCapacity);
+        this.deadlines = new long[capacity];
+        this.heapSlots = new int[capacity];
+        this.slotPositions = new int[capacity];
+        this.slots = (Task<E>[]) new Task[capacity];
+        this.freeSlots = new int[capacity];
+    }
+
+    @Override
+    public void offer(Task<E> task) {
+        final int slot = this.allocateSlot();
+        this.slots[slot] = task;
+        task.storeIndex = slot;
+        final int position = this.size++;
+        this.deadlines[position] = task.completeTime;
+        this.heapSlots[position] = slot;
+        this.slotPositions[slot] = position;
+        this.siftUp(position);
+    }
+
+    @Override
+    public Task<E> pollExpired(long deadline) {
+        if (this.size == 0 || this.deadlines[0] > deadline) {
+            return null;
+        }
+        final int slot = this.heapSlots[0];
+        final Task<E> task = this.slots[slot];
+        this.removeAt(0);
+        this.releaseSlot(slot);
+        return task;
+    }
+
+    @Override
+    public boolean remove(Task<E> task) {
+        final int slot = task.storeIndex;
+        if (slot < 0 || slot >= this.usedSlots || this.slots[slot] != task) {
+            return false;
+        }
+        this.removeAt(this.slotPositions[slot]);
+        this.releaseSlot(slot);
+        return true;
+    }
+
+    @Override
+    public long nextExpireTime() {
+        return this.size == 0 ? Long.MAX_VALUE : this.deadlines[0];
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * 分配一个槽位,优先复用空闲的槽位
+     * @return 槽位
+     */
+    private int allocateSlot() {
+        if (this.freeCount > 0) {
+            return this.freeSlots[--this.freeCount];
+        }
+        if (this.usedSlots == this.slots.length) {
+            this.grow();
+        }
+        return this.usedSlots++;
+    }
+
+    /**
+     * 回收一个槽位
+     * @param slot 槽位
+     */
+    private void releaseSlot(int slot) {
+        this.slots[slot] = null;
+        this.freeSlots[this.freeCount++] = slot;
+    }
+
+    /**
+     * 移除堆中给定位置的元素,以堆尾的元素填补空缺
+     * @param position 堆中的位置
+     */
+    private void removeAt(int position) {
+        final int last = --this.size;
+        if (position == last) {
+            return;
+        }
+        this.deadlines[position] = this.deadlines[last];
+        this.heapSlots[position] = this.heapSlots[last];
+        this.slotPositions[this.heapSlots[position]] = position;
+        if (position > 0 && this.deadlines[position] < this.deadlines[(position - 1) >>> 1]) {
+            this.siftUp(position);
+        } else {
+            this.siftDown(position);
+        }
+    }
+
+    private void siftUp(int position) {
+        final long deadline = this.deadlines[position];
+        final int slot = this.heapSlots[position];
+        while (position > 0) {
+            final int parent = (position - 1) >>> 1;
+            if (this.deadlines[parent] <= deadline) {
+                break;
+            }
+            this.moveTo(parent, position);
+            position = parent;
+        }
+        this.place(position, deadline, slot);
+    }
+
+    private void siftDown(int position) {
+        final long deadline = this.deadlines[position];
+        final int slot = this.heapSlots[position];
+        final int half = this.size >>> 1;
+        while (position < half) {
+            int child = (position << 1) + 1;
+            final int right = child + 1;
+            if (right < this.size && this.deadlines[right] < this.deadlines[child]) {
+                child = right;
+            }
+            if (deadline <= this.deadlines[child]) {
+                break;
+            }
+            this.moveTo(child, position);
+            position = child;
+        }
+        this.place(position, deadline, slot);
+    }
+
+    /**
+     * 将堆中一个位置的元素移动到另一个位置
+     * @param from 原位置
+     * @param to 新位置
+     */
+    private void moveTo(int from, int to) {
+        this.place(to, this.deadlines[from], this.heapSlots[from]);
+    }
+
+    private void place(int position, long deadline, int slot) {
+        this.deadlines[position] = deadline;
+        this.heapSlots[position] = slot;
+        this.slotPositions[slot] = position;
+    }
+
+    /**
+     * 将所有数组的容量扩大一倍
+     */
+    @SuppressWarnings("unchecked")
+    private void grow() {
+        final int capacity = this.slots.length << 1;
+        final long[] newDeadlines = new long[capacity];
+        final int[] newHeapSlots = new int[capacity];
+        final int[] newSlotPositions = new int[capacity];
+        final Task<E>[] newSlots = (Task<E>[]) new Task[capacity];
+        final int[] newFreeSlots = new int[capacity];
+        System.arraycopy(this.deadlines, 0, newDeadlines, 0, this.size);
+        System.arraycopy(this.heapSlots, 0, newHeapSlots, 0, this.size);
+        System.arraycopy(this.slotPositions, 0, newSlotPositions, 0, this.usedSlots);
+        System.arraycopy(this.slots, 0, newSlots, 0, this.usedSlots);
+        System.arraycopy(this.freeSlots, 0, newFreeSlots, 0, this.freeCount);
+        this.deadlines = newDeadlines;
+        this.heapSlots = newHeapSlots;
+        this.slotPositions = newSlotPositions;
+        this.slots = newSlots;
+        this.freeSlots = newFreeSlots;
+    }
+}
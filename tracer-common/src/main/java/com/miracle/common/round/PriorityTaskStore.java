@@ -0,0 +1,126 @@
+package com.miracle.common.round;
+
+import java.util.Arrays;
+
+/**
+ * Description:基于二叉堆的任务存储,按照到期时间排序
+ * 每个任务在{@link Task#storeIndex}中记录自己在堆中的位置,所以放入、取出与摘除的代价都是O(log n)
+ *
+ * @author guobin On date 2018/7/12.
+ * @version 1.0
+ * @since jdk 1.8
+ * @param <E> 任务持有的数据类型
+ */
+class PriorityTaskStore<E> implements TaskStore<E> {
+
+    /**
+     * 默认的初始容量{@value}
+     */
+    private static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * 堆中的任务,下标即任务的{@link Task#storeIndex}
+     */
+    private Task<E>[] heap;
+
+    /**
+     * 堆中任务的数量
+     */
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    PriorityTaskStore() {
+        this.heap = (Task<E>[]) new Task[DEFAULT_CAPACITY];
+    }
+
+    @Override
+    public void offer(Task<E> task) {
+        if (this.size == this.heap.length) {
+            this.heap = Arrays.copyOf(this.heap, this.size << 1);
+        }
+        this.siftUp(this.size++, task);
+    }
+
+    @Override
+    public Task<E> pollExpired(long deadline) {
+        final Task<E> first = this.heap[0];
+        // 堆顶不满足要求之时后续已经都不满足要求了
+        if (this.size == 0 || first.completeTime > deadline) {
+            return null;
+        }
+        this.removeAt(0);
+        return first;
+    }
+
+    @Override
+    public boolean remove(Task<E> task) {
+        final int position = task.storeIndex;
+        if (position < 0 || position >= this.size || this.heap[position] != task) {
+            return false;
+        }
+        this.removeAt(position);
+        return true;
+    }
+
+    @Override
+    public long nextExpireTime() {
+        return this.size == 0 ? Long.MAX_VALUE : this.heap[0].completeTime;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * 移除堆中给定位置的任务,以堆尾的任务填补空缺
+     * @param position 堆中的位置
+     */
+    private void removeAt(int position) {
+        final int last = --this.size;
+        final Task<E> moved = this.heap[last];
+        this.heap[last] = null;
+        if (position == last) {
+            return;
+        }
+        if (position > 0 && moved.completeTime < this.heap[(position - 1) >>> 1].completeTime) {
+            this.siftUp(position, moved);
+        } else {
+            this.siftDown(position, moved);
+        }
+    }
+
+    private void siftUp(int position, Task<E> task) {
+        while (position > 0) {
+            final int parent = (position - 1) >>> 1;
+            if (this.heap[parent].completeTime <= task.completeTime) {
+                break;
+            }
+            this.place(position, this.heap[parent]);
+            position = parent;
+        }
+        this.place(position, task);
+    }
+
+    private void siftDown(int position, Task<E> task) {
+        final int half = this.size >>> 1;
+        while (position < half) {
+            int child = (position << 1) + 1;
+            final int right = child + 1;
+            if (right < this.size && this.heap[right].completeTime < this.heap[child].completeTime) {
+                child = right;
+            }
+            if (task.completeTime <= this.heap[child].completeTime) {
+                break;
+            }
+            this.place(position, this.heap[child]);
+            position = child;
+        }
+        this.place(position, task);
+    }
+
+    private void place(int position, Task<E> task) {
+        this.heap[position] = task;
+        task.storeIndex = position;
+    }
+}
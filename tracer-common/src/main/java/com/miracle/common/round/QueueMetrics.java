@@ -0,0 +1,232 @@
+package com.miracle.common.round;
+
+import com.miracle.common.metrics.LogLinearHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Description:时间片轮转调度者中一个任务队列的运行指标
+ * 执行路径上只做原子累加,不需要持有队列的锁,读取时通过{@link #snapshot()}得到某一时刻的快照
+ *
+ * @author guobin On date 2018/7/23.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class QueueMetrics {
+
+    /**
+     * 队列名
+     */
+    private final String queueName;
+
+    /**
+     * 读取当前时间所用的时钟
+     */
+    private final DispatcherClock clock;
+
+    /**
+     * 队列创建的时间
+     */
+    private final long createTime;
+
+    /**
+     * 任务开始执行的时间晚于到期时间的时长,单位毫秒
+     */
+    private final LogLinearHistogram lag;
+
+    /**
+     * 执行函数的耗时,单位纳秒,批量队列每一批记录一次
+     */
+    private final LogLinearHistogram executionNanos;
+
+    /**
+     * 执行过的任务数量
+     */
+    private final LongAdder executed;
+
+    /**
+     * 执行之后重新放回队列的次数,包括执行函数要求重新放回与重试策略安排的重试
+     */
+    private final LongAdder rescheduled;
+
+    /**
+     * 执行期间被取消或者被重新添加的任务所替代的任务数量,这些任务的执行结果会被丢弃
+     */
+    private final LongAdder tombstones;
+
+    /**
+     * 存储中等待到期的任务数量,在持有队列的锁修改存储之后更新
+     */
+    private volatile int depth;
+
+    /**
+     * 暂存缓冲中尚未放入存储的任务数量
+     */
+    private final LongAdder staged;
+
+    QueueMetrics(String queueName, DispatcherClock clock) {
+        this.queueName = queueName;
+        this.clock = clock;
+        this.createTime = clock.currentTimeMillis();
+        this.lag = new LogLinearHistogram();
+        this.executionNanos = new LogLinearHistogram();
+        this.executed = new LongAdder();
+        this.rescheduled = new LongAdder();
+        this.tombstones = new LongAdder();
+        this.staged = new LongAdder();
+    }
+
+    /**
+     * 记录一个任务开始执行
+     * @param completeTime 任务的到期时间
+     * @param now 当前时间
+     */
+    void recordStart(long completeTime, long now) {
+        this.executed.increment();
+        this.lag.record(now - completeTime);
+    }
+
+    void recordExecution(long nanos) {
+        this.executionNanos.record(nanos);
+    }
+
+    void recordReschedule() {
+        this.rescheduled.increment();
+    }
+
+    void recordTombstone() {
+        this.tombstones.increment();
+    }
+
+    void updateDepth(int depth) {
+        this.depth = depth;
+    }
+
+    void recordStaged() {
+        this.staged.increment();
+    }
+
+    void recordDrained() {
+        this.staged.decrement();
+    }
+
+    /**
+     * 得到从队列创建开始的累计快照,队列深度包括暂存缓冲中的任务
+     * @return 快照
+     */
+    public Snapshot snapshot() {
+        final int actualDepth = this.depth + (int) Math.max(0L, this.staged.sum());
+        return new Snapshot(this.queueName, this.createTime, this.clock.currentTimeMillis(), actualDepth,
+                this.executed.sum(), this.rescheduled.sum(), this.tombstones.sum(),
+                this.lag.snapshot(), this.executionNanos.snapshot());
+    }
+
+    /**
+     * 队列指标的快照,不可变
+     */
+    public static final class Snapshot {
+
+        private final String queueName;
+
+        private final long startTime;
+
+        private final long endTime;
+
+        private final int depth;
+
+        private final long executed;
+
+        private final long rescheduled;
+
+        private final long tombstones;
+
+        private final LogLinearHistogram.Snapshot lag;
+
+        private final LogLinearHistogram.Snapshot executionNanos;
+
+        private Snapshot(String queueName, long startTime, long endTime, int depth, long executed, long rescheduled,
+                         long tombstones, LogLinearHistogram.Snapshot lag,
+                         LogLinearHistogram.Snapshot executionNanos) {
+            this.queueName = queueName;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.depth = depth;
+            this.executed = executed;
+            this.rescheduled = rescheduled;
+            this.tombstones = tombstones;
+            this.lag = lag;
+            this.executionNanos = executionNanos;
+        }
+
+        /**
+         * 得到本快照相对于同一个队列更早的快照的增量,队列深度取本快照的值
+         * @param previous 更早的快照
+         * @return 两次快照之间的指标
+         */
+        public Snapshot minus(Snapshot previous) {
+            return new Snapshot(this.queueName, previous.endTime, this.endTime, this.depth,
+                    this.executed - previous.executed, this.rescheduled - previous.rescheduled,
+                    this.tombstones - previous.tombstones, this.lag.minus(previous.lag),
+                    this.executionNanos.minus(previous.executionNanos));
+        }
+
+        /**
+         * 得到快照所覆盖的时间段内每秒重新放回队列的次数
+         * @return 每秒重新放回的次数
+         */
+        public double getRescheduleRate() {
+            return this.rescheduled * 1000D / Math.max(1L, this.endTime - this.startTime);
+        }
+
+        public String getQueueName() {
+            return queueName;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getEndTime() {
+            return endTime;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public long getExecuted() {
+            return executed;
+        }
+
+        public long getRescheduled() {
+            return rescheduled;
+        }
+
+        public long getTombstones() {
+            return tombstones;
+        }
+
+        /**
+         * 得到任务开始执行的时间晚于到期时间的时长分布,单位毫秒
+         * @return 延迟分布
+         */
+        public LogLinearHistogram.Snapshot getLag() {
+            return lag;
+        }
+
+        /**
+         * 得到执行函数的耗时分布,单位纳秒
+         * @return 耗时分布
+         */
+        public LogLinearHistogram.Snapshot getExecutionNanos() {
+            return executionNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: depth=%d, executed=%d, rescheduled=%d (%.1f/s), tombstones=%d, lag(ms)[%s], "
+                            + "execution(ns)[%s]", this.queueName, this.depth, this.executed, this.rescheduled,
+                    this.getRescheduleRate(), this.tombstones, this.lag, this.executionNanos);
+        }
+    }
+}
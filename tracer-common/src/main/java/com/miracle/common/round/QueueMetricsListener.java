@@ -0,0 +1,22 @@
+package com.miracle.common.round;
+
+import java.util.List;
+
+/**
+ * Description:周期性接收时间片轮转调度者运行指标的监听器
+ *
+ * @author guobin On date 2018/7/23.
+ * @version 1.0
+ * @since jdk 1.8
+ * @see RoundRobinDispatcher#addMetricsListener
+ */
+@FunctionalInterface
+public interface QueueMetricsListener {
+
+    /**
+     * 接收所有队列在上一个周期中的运行指标,队列深度为周期结束时的值
+     * 队列在周期中创建时收到的是它从创建开始的指标
+     * @param snapshots 每个队列的指标快照
+     */
+    void onMetrics(List<QueueMetrics.Snapshot> snapshots);
+}
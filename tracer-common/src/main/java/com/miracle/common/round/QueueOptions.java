@@ -0,0 +1,189 @@
+package com.miracle.common.round;
+
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Description:时间片轮转调度者中任务队列的配置
+ * 通过{@link RoundRobinDispatcher#createQueue}在创建队列之时指定,未指定的项使用调度者的默认值
+ *
+ * @author guobin On date 2018/7/13.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class QueueOptions {
+
+    /**
+     * 执行该队列到期任务的执行池,为{@code null}时使用调度者默认的执行池
+     */
+    private TaskExecutionPool executionPool;
+
+    /**
+     * 批量队列每一批最多包含的元素数量,一个时间片中到期的元素超过该数量时会被分成多批提交给执行池
+     */
+    private int maxBatchSize;
+
+    /**
+     * 持久化队列中元素的编解码器,为{@code null}时队列不会被持久化
+     */
+    private TaskCodec<?> codec;
+
+    /**
+     * 任务执行失败之后的重试策略,为{@code null}时以执行函数的返回值作为重新放回的时长
+     */
+    private RetryPolicy retryPolicy;
+
+    /**
+     * 重试策略放弃重试之后处理任务的函数
+     */
+    private ObjIntConsumer<?> deadLetterHandler;
+
+    /**
+     * 队列的权重,每个时间片中各队列轮流提交到期任务,每一轮可以提交的任务数量与权重成正比
+     */
+    private int weight;
+
+    /**
+     * 每秒最多提交的任务数量,不大于0时不限制
+     */
+    private double rateLimit;
+
+    /**
+     * 速率限制所允许的最大突发数量
+     */
+    private int rateLimitBurst;
+
+    /**
+     * 外界不能直接构造
+     */
+    private QueueOptions() {
+        this.maxBatchSize = Integer.MAX_VALUE;
+        this.weight = 1;
+    }
+
+    /**
+     * 构造一个新的队列配置
+     * @return 队列配置
+     */
+    public static QueueOptions newOptions() {
+        return new QueueOptions();
+    }
+
+    /**
+     * 设置执行该队列到期任务的执行池
+     * @param executionPool 执行池
+     * @return 配置自身
+     */
+    public QueueOptions executionPool(TaskExecutionPool executionPool) {
+        this.executionPool = executionPool;
+        return this;
+    }
+
+    /**
+     * 设置批量队列每一批最多包含的元素数量,只对{@link RoundRobinDispatcher#addBatchQueue}创建的队列生效
+     * @param maxBatchSize 每一批最多包含的元素数量
+     * @return 配置自身
+     */
+    public QueueOptions maxBatchSize(int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Max batch size must greater than 0.");
+        }
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * 设置队列中元素的编解码器,设置之后队列中的任务会被写入调度者的预写日志,调度者重启之后可以恢复
+     * 只有通过{@link RoundRobinDispatcherFactory#registerDurableRoundRobin}得到的调度者支持持久化队列
+     * 分布式调度者的队列必须设置编解码器,元素以编码之后的形式保存在共享存储中
+     * 元素的equals与hashCode需要在解码之后保持一致
+     * @param codec 编解码器
+     * @param <T> 元素的类型
+     * @return 配置自身
+     */
+    public <T> QueueOptions codec(TaskCodec<T> codec) {
+        this.codec = codec;
+        return this;
+    }
+
+    /**
+     * 设置任务执行失败之后的重试策略
+     * @param retryPolicy 重试策略
+     * @return 配置自身
+     */
+    public QueueOptions retryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * 设置重试策略放弃重试之后处理任务的函数,函数的参数为任务中的元素与已经失败的次数
+     * 函数在执行任务的线程中调用,此时任务已经从队列中删除,只在设置了重试策略时生效
+     * @param deadLetterHandler 死信处理函数
+     * @param <T> 元素的类型
+     * @return 配置自身
+     */
+    public <T> QueueOptions deadLetterHandler(ObjIntConsumer<T> deadLetterHandler) {
+        this.deadLetterHandler = deadLetterHandler;
+        return this;
+    }
+
+    /**
+     * 设置队列的权重,执行池饱和时权重越高的队列能够获得越多的执行机会,默认为1
+     * @param weight 权重
+     * @return 配置自身
+     */
+    public QueueOptions weight(int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight must greater than 0.");
+        }
+        this.weight = weight;
+        return this;
+    }
+
+    /**
+     * 以令牌桶限制队列提交到期任务的速率,超过速率的到期任务不会被丢弃,而是留到之后的时间片
+     * @param tasksPerSecond 每秒最多提交的任务数量
+     * @param burst 允许的最大突发数量
+     * @return 配置自身
+     */
+    public QueueOptions rateLimit(double tasksPerSecond, int burst) {
+        if (tasksPerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Rate limit and burst must greater than 0.");
+        }
+        this.rateLimit = tasksPerSecond;
+        this.rateLimitBurst = burst;
+        return this;
+    }
+
+    TaskExecutionPool getExecutionPool() {
+        return executionPool;
+    }
+
+    int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    TaskCodec<?> getCodec() {
+        return codec;
+    }
+
+    RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    ObjIntConsumer<?> getDeadLetterHandler() {
+        return deadLetterHandler;
+    }
+
+    int getWeight() {
+        return weight;
+    }
+
+    double getRateLimit() {
+        return rateLimit;
+    }
+
+    int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+}
@@ -0,0 +1,117 @@
+package com.miracle.common.round;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Description:基于Redis的分布式任务存储
+ * 任务分片是Redis的有序集合,取出到期任务、获取租约与登记心跳都由Lua脚本在服务端原子地完成,
+ * 每个任务分片每个时间片只需要一次往返,即使多个节点同时访问同一个分片也不会重复取出同一个任务
+ *
+ * @author guobin On date 2018/7/22.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class RedisDistributedTaskStore implements DistributedTaskStore {
+
+    /**
+     * 取出并删除一批到期任务
+     */
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> POP_DUE_SCRIPT = new DefaultRedisScript<>(
+            "local members = redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2]) "
+                    + "if #members > 0 then redis.call('ZREM', KEYS[1], unpack(members)) end "
+                    + "return members", List.class);
+
+    /**
+     * 获取或者续约租约
+     */
+    private static final RedisScript<Long> ACQUIRE_LEASE_SCRIPT = new DefaultRedisScript<>(
+            "local owner = redis.call('GET', KEYS[1]) "
+                    + "if owner == ARGV[1] then redis.call('PEXPIRE', KEYS[1], ARGV[2]) return 1 end "
+                    + "if not owner then redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2]) return 1 end "
+                    + "return 0", Long.class);
+
+    /**
+     * 只释放属于自己的租约
+     */
+    private static final RedisScript<Long> RELEASE_LEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end "
+                    + "return 0", Long.class);
+
+    /**
+     * 登记心跳,清除失效的节点并返回存活的节点数量
+     */
+    private static final RedisScript<Long> HEARTBEAT_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('ZADD', KEYS[1], ARGV[2], ARGV[1]) "
+                    + "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', '(' .. ARGV[3]) "
+                    + "return redis.call('ZCARD', KEYS[1])", Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    private RedisDistributedTaskStore(StringRedisTemplate redisTemplate) {
+        if (redisTemplate == null) {
+            throw new NullPointerException("Redis template cannot be null.");
+        }
+        this.redisTemplate = redisTemplate;
+    }
+
+    /**
+     * 在给定的Redis连接之上构造分布式任务存储
+     * @param redisTemplate Redis模板
+     * @return 分布式任务存储
+     */
+    public static RedisDistributedTaskStore of(StringRedisTemplate redisTemplate) {
+        return new RedisDistributedTaskStore(redisTemplate);
+    }
+
+    @Override
+    public void add(String shardKey, String member, long dueTime) {
+        // 毫秒时间戳小于2^53,以double保存的分数没有精度损失
+        this.redisTemplate.opsForZSet().add(shardKey, member, dueTime);
+    }
+
+    @Override
+    public boolean remove(String shardKey, String member) {
+        return Optional.ofNullable(this.redisTemplate.opsForZSet().remove(shardKey, member))
+                .map(removed -> removed > 0)
+                .orElse(false);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> popDue(String shardKey, long now, int limit) {
+        final List<String> members = this.redisTemplate.execute(POP_DUE_SCRIPT,
+                Collections.singletonList(shardKey), String.valueOf(now), String.valueOf(limit));
+        return members == null ? Collections.emptyList() : members;
+    }
+
+    @Override
+    public boolean acquireLease(String leaseKey, String owner, long leaseMillis) {
+        final Long acquired = this.redisTemplate.execute(ACQUIRE_LEASE_SCRIPT,
+                Collections.singletonList(leaseKey), owner, String.valueOf(leaseMillis));
+        return acquired != null && acquired == 1L;
+    }
+
+    @Override
+    public void releaseLease(String leaseKey, String owner) {
+        this.redisTemplate.execute(RELEASE_LEASE_SCRIPT, Collections.singletonList(leaseKey), owner);
+    }
+
+    @Override
+    public int heartbeat(String nodesKey, String nodeId, long now, long expireBefore) {
+        final Long alive = this.redisTemplate.execute(HEARTBEAT_SCRIPT, Collections.singletonList(nodesKey),
+                nodeId, String.valueOf(now), String.valueOf(expireBefore));
+        return alive == null ? 1 : alive.intValue();
+    }
+
+    @Override
+    public void leave(String nodesKey, String nodeId) {
+        this.redisTemplate.opsForZSet().remove(nodesKey, nodeId);
+    }
+}
@@ -0,0 +1,94 @@
+package com.miracle.common.round;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Description:时间片轮转调度者中任务执行失败之后的重试策略
+ * 通过{@link QueueOptions#retryPolicy(RetryPolicy)}为队列指定,指定之后执行函数返回正数或者抛出异常都视作执行失败,
+ * 重新放回的时长由重试策略决定,不再使用执行函数的返回值
+ * 重试的次数与上一次的间隔记录在任务之中,重试时不会产生额外的对象
+ *
+ * @author guobin On date 2018/7/19.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+@FunctionalInterface
+public interface RetryPolicy {
+
+    /**
+     * 表示放弃重试的返回值
+     */
+    long GIVE_UP = -1L;
+
+    /**
+     * 计算下一次重试的间隔
+     * @param attempts 任务已经失败的次数,第一次失败时为1
+     * @param lastDelay 上一次重试的间隔,第一次失败时为0
+     * @return 下一次重试的间隔,单位毫秒,小于0表示放弃重试,任务会被交给死信处理函数
+     */
+    long nextDelay(int attempts, long lastDelay);
+
+    /**
+     * 限制任务最多执行的次数,达到次数之后仍然失败则放弃重试
+     * @param maxAttempts 最多执行的次数,包括第一次执行
+     * @return 新的重试策略
+     */
+    default RetryPolicy maxAttempts(int maxAttempts) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("Max attempts must greater than 0.");
+        }
+        return (attempts, lastDelay) -> attempts >= maxAttempts ? GIVE_UP : this.nextDelay(attempts, lastDelay);
+    }
+
+    /**
+     * 以固定的间隔重试
+     * @param delay 重试的间隔,单位毫秒
+     * @return 重试策略
+     */
+    static RetryPolicy fixed(long delay) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("Retry delay cannot be negative.");
+        }
+        return (attempts, lastDelay) -> delay;
+    }
+
+    /**
+     * 以指数增长的间隔重试,第n次失败之后的间隔为baseDelay * 2^(n-1),不超过maxDelay
+     * @param baseDelay 第一次重试的间隔,单位毫秒
+     * @param maxDelay 最大的间隔,单位毫秒
+     * @return 重试策略
+     */
+    static RetryPolicy exponential(long baseDelay, long maxDelay) {
+        checkDelays(baseDelay, maxDelay);
+        return (attempts, lastDelay) -> {
+            final int shift = Math.min(attempts - 1, Long.numberOfLeadingZeros(baseDelay) - 1);
+            return Math.min(maxDelay, baseDelay << shift);
+        };
+    }
+
+    /**
+     * 以去相关抖动的间隔重试,每次的间隔在[baseDelay, 上一次间隔 * 3]之间随机选取,不超过maxDelay
+     * 同时失败的大量任务不会在同一时刻重试,避免依赖恢复之时被集中的重试再次压垮
+     * @param baseDelay 最小的间隔,单位毫秒
+     * @param maxDelay 最大的间隔,单位毫秒
+     * @return 重试策略
+     */
+    static RetryPolicy decorrelatedJitter(long baseDelay, long maxDelay) {
+        checkDelays(baseDelay, maxDelay);
+        return (attempts, lastDelay) -> {
+            final long upper = Math.min(maxDelay, Math.max(baseDelay, lastDelay) * 3);
+            return upper <= baseDelay ? baseDelay : ThreadLocalRandom.current().nextLong(baseDelay, upper + 1);
+        };
+    }
+
+    /**
+     * 校验间隔的范围
+     * @param baseDelay 最小的间隔
+     * @param maxDelay 最大的间隔
+     */
+    static void checkDelays(long baseDelay, long maxDelay) {
+        if (baseDelay <= 0 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("Base delay must greater than 0 and not greater than max delay.");
+        }
+    }
+}
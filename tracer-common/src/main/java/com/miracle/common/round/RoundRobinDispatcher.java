@@ -1,14 +1,23 @@
 package com.miracle.common.round;
 
-import com.miracle.common.lock.LocalResourceLock;
+import com.miracle.common.lock.ParkingResourceLock;
 import com.miracle.common.lock.ResourceLock;
-import com.miracle.common.utils.CollectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ObjIntConsumer;
 import java.util.function.ToLongFunction;
 
 /**
@@ -20,16 +29,33 @@ import java.util.function.ToLongFunction;
  */
 public class RoundRobinDispatcher {
 
+    private static final Logger LOG = LoggerFactory.getLogger(RoundRobinDispatcher.class);
+
     /**
      * 默认时间片大小{@value}
      */
     static final long DEFAULT_TIME_SLICE = 100L;
 
     /**
-     * 工作队列集合
+     * 执行函数抛出异常时记录的执行结果
+     */
+    private static final long THROWN = Long.MIN_VALUE;
+
+    /**
+     * 权重为1的队列在每一轮中可以提交的任务数量{@value}
+     */
+    private static final int QUANTUM = 32;
+
+    /**
+     * 工作队列集合,以实际队列名作为key
      */
     private final Map<String, TaskQueueDelegate<?>> taskQueueMap;
 
+    /**
+     * 按元素类型与外界指定的队列名索引的工作队列,添加任务时不需要拼接实际队列名
+     */
+    private final Map<Class<?>, Map<String, TaskQueueDelegate<?>>> queuesByType;
+
     /**
      * 任务队列的资源锁
      */
@@ -41,134 +67,1126 @@ public class RoundRobinDispatcher {
     private final long timeSlice;
 
     /**
-     * 每个队列与元素集合的对应关系
+     * 上一次的任务截止时间
      */
-    private final Map<String, Set<?>> queueObjectsMap;
+    private final AtomicLong lastDeadline;
 
     /**
-     * 上一次的任务截止时间
+     * 任务队列的实现类型
      */
-    private final AtomicLong lastDeadline;
+    private final TaskQueueType taskQueueType;
+
+    /**
+     * 第一个时间片的起始时间,所有时间片的截止时间都与之对齐
+     */
+    private final long origin;
+
+    /**
+     * 默认的任务执行池,创建队列时未指定执行池的队列都使用它来执行到期任务
+     */
+    private final TaskExecutionPool defaultExecutionPool;
+
+    /**
+     * 推进时间片的方式
+     */
+    private final TickMode tickMode;
+
+    /**
+     * 调度线程,由{@link RoundRobinDispatcherFactory}创建的所有调度者共用同一个调度线程
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * {@link TickMode#FIXED_RATE}模式下的周期性任务
+     */
+    private final ScheduledFuture<?> periodicTick;
+
+    /**
+     * 已经提交给执行池但尚未执行完毕的任务数量
+     */
+    private final AtomicInteger runningCount;
+
+    /**
+     * 关闭时所采用的策略,为{@code null}说明调度者尚未关闭
+     */
+    private volatile ShutdownPolicy shutdownPolicy;
+
+    /**
+     * 关闭时的截止时间,{@link ShutdownPolicy#DRAIN}策略下只执行到期时间不晚于它的任务
+     */
+    private volatile long drainDeadline;
+
+    /**
+     * 调度者是否已经终止
+     */
+    private final CountDownLatch terminationLatch;
+
+    /**
+     * {@link TickMode#ADAPTIVE}模式下,下一次醒来的时间,没有安排醒来时为{@link Long#MAX_VALUE}
+     * 只在调度线程与关闭时修改,与{@link #scheduledTick}一起由{@link #tickMonitor}保护,添加任务的线程只读取它
+     */
+    private volatile long scheduledWakeTime;
+
+    /**
+     * {@link TickMode#ADAPTIVE}模式下已经安排的下一次醒来
+     */
+    private ScheduledFuture<?> scheduledTick;
+
+    /**
+     * {@link TickMode#ADAPTIVE}模式下,添加任务的线程请求的最早醒来时间,尚未被调度线程处理,没有请求时为{@link Long#MAX_VALUE}
+     * 添加任务的线程只通过CAS把它改小,由调度线程取走之后重新安排醒来
+     */
+    private final AtomicLong requestedWakeTime;
+
+    /**
+     * 关闭与安排醒来时间所用的监视器
+     */
+    private final Object tickMonitor;
+
+    /**
+     * 持久化队列所用的预写日志,为{@code null}说明调度者不支持持久化队列
+     */
+    private final TaskJournal journal;
+
+    /**
+     * 读取当前时间所用的时钟
+     */
+    private final DispatcherClock clock;
+
+    /**
+     * 运行指标的监听器及其周期性任务
+     */
+    private final Map<QueueMetricsListener, ScheduledFuture<?>> metricsListeners;
 
     RoundRobinDispatcher() {
         this(DEFAULT_TIME_SLICE);
     }
 
     RoundRobinDispatcher(long timeSlice) {
+        this(timeSlice, TaskQueueType.PRIORITY_QUEUE);
+    }
+
+    RoundRobinDispatcher(long timeSlice, TaskQueueType taskQueueType) {
+        this(timeSlice, taskQueueType, TickMode.FIXED_RATE);
+    }
+
+    RoundRobinDispatcher(long timeSlice, TaskQueueType taskQueueType, TickMode tickMode) {
+        this(timeSlice, taskQueueType, tickMode, RoundRobinDispatcherFactory.sharedScheduler());
+    }
+
+    RoundRobinDispatcher(long timeSlice, TaskQueueType taskQueueType, TickMode tickMode,
+                         ScheduledExecutorService scheduler) {
+        this(timeSlice, taskQueueType, tickMode, scheduler, null, DispatcherClock.SYSTEM);
+    }
+
+    RoundRobinDispatcher(long timeSlice, TaskQueueType taskQueueType, TickMode tickMode,
+                         ScheduledExecutorService scheduler, TaskJournal journal) {
+        this(timeSlice, taskQueueType, tickMode, scheduler, journal, DispatcherClock.SYSTEM);
+    }
+
+    RoundRobinDispatcher(long timeSlice, TaskQueueType taskQueueType, TickMode tickMode,
+                         ScheduledExecutorService scheduler, TaskJournal journal, DispatcherClock clock) {
         if (timeSlice <= 0) {
             throw new IllegalArgumentException("Time slice must greater that 0.");
         }
+        if (taskQueueType == null || tickMode == null || clock == null) {
+            throw new NullPointerException("Task queue type, tick mode and clock cannot be null.");
+        }
+        this.clock = clock;
         this.timeSlice = timeSlice;
-        this.taskQueueMap = new HashMap<>(16);
-        this.queueObjectsMap = new HashMap<>(16);
-        this.lastDeadline = new AtomicLong(System.currentTimeMillis());
-        this.queueResourceLock = new LocalResourceLock();
-        new ScheduledThreadPoolExecutor(1, r -> {
-            final Thread thread = new Thread(r);
-            thread.setName("RoundRobinDispatcher");
-            return thread;
-        }).scheduleAtFixedRate(this::runPeriodically, 0, this.timeSlice, TimeUnit.MILLISECONDS);
+        this.taskQueueType = taskQueueType;
+        this.tickMode = tickMode;
+        this.taskQueueMap = new ConcurrentHashMap<>(16);
+        this.queuesByType = new ConcurrentHashMap<>(16);
+        this.origin = clock.currentTimeMillis();
+        this.lastDeadline = new AtomicLong(this.origin);
+        this.queueResourceLock = new ParkingResourceLock();
+        this.defaultExecutionPool = TaskExecutionPool.newFixedPool("RoundRobinDispatcher-worker",
+                Math.max(2, Runtime.getRuntime().availableProcessors()), TaskExecutionPool.DEFAULT_MAX_IN_FLIGHT,
+                TaskExecutionPool.SaturationPolicy.REJECT, 0L);
+        this.tickMonitor = new Object();
+        this.scheduledWakeTime = Long.MAX_VALUE;
+        this.requestedWakeTime = new AtomicLong(Long.MAX_VALUE);
+        this.runningCount = new AtomicInteger();
+        this.terminationLatch = new CountDownLatch(1);
+        this.scheduler = scheduler;
+        this.journal = journal;
+        this.metricsListeners = new ConcurrentHashMap<>(4);
+        // 自适应模式下在添加第一个任务之前不需要醒来
+        this.periodicTick = tickMode == TickMode.FIXED_RATE
+                ? scheduler.scheduleAtFixedRate(this::runPeriodically, 0, this.timeSlice, TimeUnit.MILLISECONDS)
+                : null;
+    }
+
+    /**
+     * 以给定的配置创建一个工作队列
+     * 通过{@link #add(Object, long, String, ToLongFunction)}添加元素时如果队列不存在会以默认配置创建队列,
+     * 所以需要定制配置的队列应该在添加元素之前创建
+     * 配置了{@link QueueOptions#codec(TaskCodec)}的队列是持久化队列,创建时会恢复上一次运行时尚未完成的任务
+     * @param type 队列中元素的类型
+     * @param queueName 工作队列名
+     * @param taskExecutor 任务到期时调用的函数
+     * @param options 队列配置
+     * @param <T> 元素的类型
+     * @return true表示创建成功,false表示队列已经存在
+     */
+    public <T> boolean createQueue(Class<T> type, String queueName, ToLongFunction<T> taskExecutor,
+                                   QueueOptions options) {
+        if (type == null || taskExecutor == null || options == null) {
+            throw new NullPointerException("Type, task executor and options cannot be null.");
+        }
+        return this.createTaskQueue(type, queueName, taskExecutor, null, null, options);
+    }
+
+    /**
+     * 以默认配置创建一个批量工作队列
+     * @param type 队列中元素的类型
+     * @param queueName 工作队列名
+     * @param batchExecutor 一批任务到期时调用的函数
+     * @param <T> 元素的类型
+     * @return true表示创建成功,false表示队列已经存在
+     * @see #addBatchQueue(Class, String, Function, QueueOptions)
+     */
+    public <T> boolean addBatchQueue(Class<T> type, String queueName, Function<List<T>, Map<T, Long>> batchExecutor) {
+        return this.addBatchQueue(type, queueName, batchExecutor, QueueOptions.newOptions());
+    }
+
+    /**
+     * 以给定的配置创建一个批量工作队列
+     * 每个时间片中该队列所有到期的元素会作为一个列表一次性交给batchExecutor,以便外界将这些元素的处理合并成一次批量操作,
+     * 到期元素的数量超过{@link QueueOptions#maxBatchSize(int)}时会被分成多批,每一批占用执行池的一个许可
+     * batchExecutor返回每个元素重新放回的时长,语义与{@link #add(Object, long, String, ToLongFunction)}中函数的返回值相同,
+     * 没有出现在返回结果中的元素视作执行成功
+     * 元素需要通过{@link #add(Object, long, String)}添加
+     * @param type 队列中元素的类型
+     * @param queueName 工作队列名
+     * @param batchExecutor 一批任务到期时调用的函数
+     * @param options 队列配置
+     * @param <T> 元素的类型
+     * @return true表示创建成功,false表示队列已经存在
+     */
+    public <T> boolean addBatchQueue(Class<T> type, String queueName, Function<List<T>, Map<T, Long>> batchExecutor,
+                                     QueueOptions options) {
+        if (type == null || batchExecutor == null || options == null) {
+            throw new NullPointerException("Type, batch executor and options cannot be null.");
+        }
+        return this.createTaskQueue(type, queueName, null, batchExecutor, null, options);
+    }
+
+    /**
+     * 以给定的配置创建一个异步工作队列
+     * 任务到期时asyncExecutor只需要发起操作并返回代表其结果的{@link CompletionStage},不必等待操作完成,
+     * 阶段完成之后再以其结果决定任务是完成还是重新放回,语义与{@link #add(Object, long, String, ToLongFunction)}中函数的返回值相同,
+     * 阶段异常完成与执行函数抛出异常相同
+     * 阶段完成之前任务一直占用执行池的一个许可,所以执行池的最大执行中任务数量限制的是同时进行中的异步操作数量,
+     * 少量线程就可以驱动大量等待I/O的任务
+     * @param type 队列中元素的类型
+     * @param queueName 工作队列名
+     * @param asyncExecutor 任务到期时调用的异步函数
+     * @param options 队列配置
+     * @param <T> 元素的类型
+     * @return true表示创建成功,false表示队列已经存在
+     */
+    public <T> boolean createAsyncQueue(Class<T> type, String queueName,
+                                        Function<T, CompletionStage<Long>> asyncExecutor, QueueOptions options) {
+        if (type == null || asyncExecutor == null || options == null) {
+            throw new NullPointerException("Type, async executor and options cannot be null.");
+        }
+        return this.createTaskQueue(type, queueName, null, null, asyncExecutor, options);
+    }
+
+    /**
+     * 将一个元素添加进已经创建的工作队列之中
+     * @param obj 元素
+     * @param taskDuration 元素在时间片轮中的存活时长
+     * @param queueName 工作队列名
+     * @param <T> 元素的类型
+     * @return 任务句柄,可用于取消任务
+     * @throws IllegalArgumentException 工作队列不存在时抛出
+     * @see #add(Object, long, String, ToLongFunction)
+     */
+    public <T> TaskHandle add(T obj, long taskDuration, String queueName) {
+        return this.add(obj, taskDuration, queueName, null);
     }
 
     /**
      * 将一个元素添加进指定的工作队列之中
+     * 如果该元素在队列中已经有等待到期的任务,那么新任务会替代原任务,不会产生重复的任务
+     * 新任务先放入队列的暂存缓冲,不需要获取队列的锁,下一次推进时间片或者访问该队列时才被放入任务存储;
+     * 持久化队列的任务不经过暂存缓冲,在返回之前就已经写入预写日志
      * @param obj 元素
      * @param taskDuration 元素在时间片轮中的存活时长
      * @param queueName 工作队列名
+     * @param taskExecutor 任务到期时调用的函数,只在工作队列不存在时用于创建队列
      * @param <T> 元素的类型
+     * @return 任务句柄,可用于取消任务
      * @throws NullPointerException 如果obj为{@code null}时抛出
+     * @throws IllegalArgumentException 工作队列不存在并且没有给定taskExecutor时抛出
+     * @throws IllegalStateException 调度者已经关闭时抛出
      */
-    @SuppressWarnings("unchecked")
-    public <T> void add(T obj, long taskDuration, String queueName, ToLongFunction<T> taskExecutor) {
+    public <T> TaskHandle add(T obj, long taskDuration, String queueName, ToLongFunction<T> taskExecutor) {
+        return this.stageTask(obj, taskDuration, queueName, taskExecutor, null);
+    }
+
+    /**
+     * 将一个元素添加进指定的异步工作队列之中,语义与{@link #add(Object, long, String, ToLongFunction)}相同
+     * @param obj 元素
+     * @param taskDuration 元素在时间片轮中的存活时长
+     * @param queueName 工作队列名
+     * @param asyncExecutor 任务到期时调用的异步函数,只在工作队列不存在时用于创建队列
+     * @param <T> 元素的类型
+     * @return 任务句柄,可用于取消任务
+     * @throws NullPointerException 如果obj为{@code null}时抛出
+     * @throws IllegalArgumentException 工作队列不存在并且没有给定asyncExecutor时抛出
+     * @throws IllegalStateException 调度者已经关闭时抛出
+     * @see #createAsyncQueue(Class, String, Function, QueueOptions)
+     */
+    public <T> TaskHandle addAsync(T obj, long taskDuration, String queueName,
+                                   Function<T, CompletionStage<Long>> asyncExecutor) {
+        return this.stageTask(obj, taskDuration, queueName, null, asyncExecutor);
+    }
+
+    /**
+     * 将新任务放入队列的暂存缓冲,队列不存在时以给定的函数和默认配置创建队列
+     * @param obj 元素
+     * @param taskDuration 元素在时间片轮中的存活时长
+     * @param queueName 工作队列名
+     * @param taskExecutor 任务到期时调用的函数
+     * @param asyncExecutor 任务到期时调用的异步函数
+     * @param <T> 元素的类型
+     * @return 任务句柄
+     */
+    private <T> TaskHandle stageTask(T obj, long taskDuration, String queueName, ToLongFunction<T> taskExecutor,
+                                     Function<T, CompletionStage<Long>> asyncExecutor) {
         if (obj == null) {
             throw new NullPointerException("The object in the wheel cannot be null.");
         }
+        this.checkRunning();
         final long taskCompleteTime = this.getTaskCompleteTime(taskDuration);
-        final String actualQueueName = this.buildActualQueueName(obj, queueName);
-        this.queueResourceLock.lock(actualQueueName);
-        try {
-            TaskQueueDelegate<T> queue = (TaskQueueDelegate<T>) this.taskQueueMap.computeIfAbsent(actualQueueName,
-                    k -> new TaskQueueDelegate<>(actualQueueName, taskExecutor));
-            queue.offer(new Task<>(obj, taskCompleteTime, actualQueueName));
-            // 加入每个队列所对应的数据set中
-            ((Set<T>)this.queueObjectsMap.computeIfAbsent(actualQueueName, k -> new HashSet<>())).add(obj);
-        } finally {
-            this.queueResourceLock.unlock(actualQueueName);
+        TaskQueueDelegate<T> queue = this.findQueue(obj.getClass(), queueName);
+        if (queue == null) {
+            if (taskExecutor == null && asyncExecutor == null) {
+                throw new IllegalArgumentException("Task queue " + this.buildActualQueueName(obj, queueName)
+                        + " does not exist.");
+            }
+            this.createTaskQueue(obj.getClass(), queueName, taskExecutor, null, asyncExecutor,
+                    QueueOptions.newOptions());
+            queue = this.findQueue(obj.getClass(), queueName);
         }
+        final Task<T> task = new Task<>(obj, taskCompleteTime, queue.queueName);
+        queue.metrics.recordStaged();
+        if (queue.codec == null) {
+            queue.staging.push(task);
+        } else {
+            // 暂存的任务要到下一次醒来才写入预写日志,之前崩溃就会丢失,所以持久化队列直接放入任务存储
+            this.queueResourceLock.lock(queue.queueName);
+            try {
+                this.acceptStaged(queue, task);
+            } finally {
+                this.queueResourceLock.unlock(queue.queueName);
+            }
+        }
+        this.wakeUpBefore(taskCompleteTime);
+        return new DefaultTaskHandle<>(queue, task);
     }
 
     /**
-     * 删除一个元素所对应的任务
+     * 删除一个元素所对应的任务,任务会立即从所在的队列中摘除
      * @param obj 元素对象
      * @param queueName 任务队列名
      */
     public void remove(Object obj, String queueName) {
-        final String actualQueueName = this.buildActualQueueName(obj, queueName);
-        this.queueResourceLock.lock(actualQueueName);
+        final TaskQueueDelegate<Object> queue = this.findQueue(obj.getClass(), queueName);
+        if (queue == null) {
+            return;
+        }
+        this.queueResourceLock.lock(queue.queueName);
         try {
-            Optional.ofNullable(this.queueObjectsMap.get(actualQueueName))
-                    .ifPresent(set -> set.remove(obj));
+            this.drainStaged(queue);
+            Optional.ofNullable(queue.tasks.get(obj)).ifPresent(this::cancelTask);
         } finally {
-            this.queueResourceLock.unlock(actualQueueName);
+            this.queueResourceLock.unlock(queue.queueName);
+        }
+    }
+
+    /**
+     * 关闭调度者,关闭之后不再接受新的任务
+     * {@link ShutdownPolicy#DRAIN}会执行关闭时已经到期的任务,尚未到期的任务被丢弃,
+     * {@link ShutdownPolicy#DISCARD}会丢弃所有尚未执行的任务;持久化队列在两种策略下都不会执行尚未执行的任务,
+     * 它们保留在预写日志中,重启之后恢复,
+     * 两者都会等待执行中的任务结束,关闭期间执行失败的任务不会再被重新放回
+     * 重复调用时以第一次的策略为准
+     * @param policy 关闭策略
+     */
+    public void shutdown(ShutdownPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("Shutdown policy cannot be null.");
+        }
+        synchronized (this.tickMonitor) {
+            if (this.shutdownPolicy != null) {
+                return;
+            }
+            this.drainDeadline = Math.max(this.catchUpDeadline(), this.clock.currentTimeMillis());
+            this.shutdownPolicy = policy;
+            if (this.periodicTick != null) {
+                this.periodicTick.cancel(false);
+            }
+            if (this.scheduledTick != null) {
+                this.scheduledTick.cancel(false);
+                this.scheduledTick = null;
+            }
+            this.scheduledWakeTime = Long.MAX_VALUE;
+        }
+        new ArrayList<>(this.metricsListeners.keySet()).forEach(this::removeMetricsListener);
+        if (this.tickMode == TickMode.MANUAL) {
+            // 手动推进的调度者在当前线程中处理剩余的任务,处理不完的部分由之后的tick()继续
+            this.runShuttingDown();
+            return;
+        }
+        try {
+            this.scheduler.execute(this::runShuttingDown);
+        } catch (RejectedExecutionException ex) {
+            // 调度线程已经关闭,只能在当前线程中处理剩余的任务
+            this.runShuttingDown();
+        }
+    }
+
+    /**
+     * 推进一次时间片,截止时间追赶到时钟的当前时间,到期的任务会被提交给执行池
+     * 调度者关闭之后继续处理剩余的任务
+     * @throws IllegalStateException 调度者不是{@link TickMode#MANUAL}模式时抛出
+     */
+    public void tick() {
+        if (this.tickMode != TickMode.MANUAL) {
+            throw new IllegalStateException("Only dispatcher in manual tick mode can be ticked by hand.");
+        }
+        if (this.isShutdown()) {
+            this.runShuttingDown();
+            return;
         }
+        final long deadline = this.catchUpDeadline();
+        this.dispatchExpired(deadline);
+    }
+
+    /**
+     * 在给定的时间内等待调度者终止
+     * @param timeout 最长等待时间
+     * @param unit 时间单位
+     * @return true表示已经终止,false表示等待超时
+     * @throws InterruptedException 等待期间被中断时抛出
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.terminationLatch.await(timeout, unit);
+    }
+
+    /**
+     * 判断调度者是否已经关闭
+     * @return true表示已经关闭
+     */
+    public boolean isShutdown() {
+        return this.shutdownPolicy != null;
+    }
+
+    /**
+     * 判断调度者是否已经终止,即已经关闭并且所有任务都已经处理完毕
+     * @return true表示已经终止
+     */
+    public boolean isTerminated() {
+        return this.terminationLatch.getCount() == 0;
+    }
+
+    /**
+     * 得到执行指定队列到期任务的执行池,可用于观察队列的饱和情况
+     * @param type 队列中元素的类型
+     * @param queueName 工作队列名
+     * @return 执行池,队列不存在时返回{@code null}
+     */
+    public TaskExecutionPool getExecutionPool(Class<?> type, String queueName) {
+        return Optional.ofNullable(this.findQueue(type, queueName))
+                .map(queue -> queue.executionPool)
+                .orElse(null);
+    }
+
+    /**
+     * 得到调度者默认的执行池
+     * @return 默认执行池
+     */
+    public TaskExecutionPool getDefaultExecutionPool() {
+        return this.defaultExecutionPool;
+    }
+
+    /**
+     * 得到指定队列从创建开始的累计运行指标
+     * @param type 队列中元素的类型
+     * @param queueName 工作队列名
+     * @return 指标快照,队列不存在时返回{@code null}
+     */
+    public QueueMetrics.Snapshot getQueueMetrics(Class<?> type, String queueName) {
+        return Optional.ofNullable(this.findQueue(type, queueName))
+                .map(queue -> queue.metrics.snapshot())
+                .orElse(null);
+    }
+
+    /**
+     * 得到所有队列从创建开始的累计运行指标
+     * @return 每个队列的指标快照
+     */
+    public List<QueueMetrics.Snapshot> getQueueMetrics() {
+        final List<QueueMetrics.Snapshot> snapshots = new ArrayList<>(this.taskQueueMap.size());
+        this.taskQueueMap.values().forEach(queue -> snapshots.add(queue.metrics.snapshot()));
+        return snapshots;
+    }
+
+    /**
+     * 添加一个周期性接收运行指标的监听器,每次收到的是所有队列在上一个周期中的指标
+     * 监听器在调度线程中被调用,应当尽快返回,抛出异常之后不会再被调用,调度者关闭时自动移除
+     * @param listener 监听器
+     * @param period 周期
+     * @param unit 时间单位
+     */
+    public void addMetricsListener(QueueMetricsListener listener, long period, TimeUnit unit) {
+        if (listener == null || unit == null) {
+            throw new NullPointerException("Listener and time unit cannot be null.");
+        }
+        this.checkRunning();
+        final Map<String, QueueMetrics.Snapshot> previousSnapshots = new HashMap<>(16);
+        this.metricsListeners.computeIfAbsent(listener, k -> this.scheduler.scheduleAtFixedRate(() -> {
+            final List<QueueMetrics.Snapshot> intervals = new ArrayList<>(this.taskQueueMap.size());
+            for (QueueMetrics.Snapshot snapshot : this.getQueueMetrics()) {
+                final QueueMetrics.Snapshot previous = previousSnapshots.put(snapshot.getQueueName(), snapshot);
+                intervals.add(previous == null ? snapshot : snapshot.minus(previous));
+            }
+            listener.onMetrics(intervals);
+        }, period, period, unit));
+    }
+
+    /**
+     * 移除一个监听器
+     * @param listener 监听器
+     */
+    public void removeMetricsListener(QueueMetricsListener listener) {
+        Optional.ofNullable(this.metricsListeners.remove(listener)).ifPresent(future -> future.cancel(false));
     }
 
     /**
      * 周期性执行的任务
+     * 每个队列只负责取出到期任务并提交给执行池,代价很小,所以直接在调度线程中依次处理,不占用公共的ForkJoin线程池
      */
     private void runPeriodically() {
         // 计算此次执行的过期时间
-        this.lastDeadline.addAndGet(this.timeSlice);
-        this.taskQueueMap.values().parallelStream().forEach(this::processOnTaskQueue);
+        final long deadline = this.lastDeadline.addAndGet(this.timeSlice);
+        this.dispatchExpired(deadline);
+    }
+
+    /**
+     * {@link TickMode#ADAPTIVE}模式下醒来时执行的任务
+     * 截止时间以整数个时间片追赶到当前时间,休眠期间跳过的时间片中到期的任务都会在这一次被取出
+     * 处理完毕之后根据所有队列中最早的到期时间安排下一次醒来
+     */
+    private void runAdaptively() {
+        synchronized (this.tickMonitor) {
+            // 处理期间添加的任务会重新安排醒来,保证不会错过
+            this.scheduledWakeTime = Long.MAX_VALUE;
+            this.scheduledTick = null;
+        }
+        if (this.isShutdown()) {
+            return;
+        }
+        final long deadline = this.catchUpDeadline();
+        this.dispatchExpired(deadline);
+
+        long nextExpireTime = Long.MAX_VALUE;
+        for (TaskQueueDelegate<?> taskQueue : this.taskQueueMap.values()) {
+            this.queueResourceLock.lock(taskQueue.queueName);
+            try {
+                this.drainStaged(taskQueue);
+                nextExpireTime = Math.min(nextExpireTime, taskQueue.nextExpireTime());
+            } finally {
+                this.queueResourceLock.unlock(taskQueue.queueName);
+            }
+        }
+        if (nextExpireTime != Long.MAX_VALUE) {
+            // 已经在调度线程中,直接与处理期间其它线程的请求一起安排下一次醒来
+            this.requestedWakeTime.accumulateAndGet(this.wakeTimeOf(nextExpireTime), Math::min);
+        }
+        this.applyWakeRequest();
+    }
+
+    /**
+     * 将截止时间以整数个时间片追赶到当前时间
+     * @return 本次的截止时间
+     */
+    private long catchUpDeadline() {
+        final long elapsedSlices = Math.floorDiv(this.clock.currentTimeMillis() - this.origin, this.timeSlice);
+        return this.lastDeadline.accumulateAndGet(this.origin + elapsedSlices * this.timeSlice, Math::max);
+    }
+
+    /**
+     * 得到给定时间所在时间片的截止时间,恰好落在截止时间上的时间属于以它结束的时间片
+     * @param time 时间戳
+     * @return 时间片的截止时间
+     */
+    private long sliceEndOf(long time) {
+        return this.origin - Math.floorDiv(this.origin - time, this.timeSlice) * this.timeSlice;
+    }
+
+    /**
+     * {@link TickMode#ADAPTIVE}模式下,保证调度线程在给定时间所在的时间片结束之时醒来
+     * 如果已经安排的醒来时间更晚,那么会提前醒来;醒来的时间不会早于下一个时间片,以免执行池饱和时空转
+     * 添加任务的线程不获取监视器,也不取消或者安排定时任务,只通过CAS发布更早的醒来时间,
+     * 由第一个发布的线程通知调度线程在{@link #applyWakeRequest()}中重新安排
+     * @param expireTime 任务的到期时间
+     */
+    private void wakeUpBefore(long expireTime) {
+        if (this.tickMode != TickMode.ADAPTIVE || expireTime == Long.MAX_VALUE) {
+            return;
+        }
+        final long wakeTime = this.wakeTimeOf(expireTime);
+        if (wakeTime >= this.scheduledWakeTime) {
+            return;
+        }
+        if (this.requestedWakeTime.getAndAccumulate(wakeTime, Math::min) != Long.MAX_VALUE) {
+            // 已经有尚未处理的请求,调度线程处理时会取到更早的时间
+            return;
+        }
+        try {
+            this.scheduler.execute(this::applyWakeRequest);
+        } catch (RejectedExecutionException ex) {
+            // 调度线程已经关闭,不再需要醒来
+        }
+    }
+
+    /**
+     * 在调度线程中取走请求的最早醒来时间,比已经安排的醒来时间更早时重新安排
+     */
+    private void applyWakeRequest() {
+        final long wakeTime = this.requestedWakeTime.getAndSet(Long.MAX_VALUE);
+        if (wakeTime >= this.scheduledWakeTime) {
+            return;
+        }
+        synchronized (this.tickMonitor) {
+            if (this.isShutdown()) {
+                return;
+            }
+            if (this.scheduledTick != null) {
+                this.scheduledTick.cancel(false);
+            }
+            this.scheduledWakeTime = wakeTime;
+            this.scheduledTick = this.scheduler.schedule(this::runAdaptively,
+                    Math.max(0L, wakeTime - this.clock.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 得到给定到期时间的任务需要的醒来时间
+     * @param expireTime 任务的到期时间
+     * @return 到期时间所在时间片的截止时间,不早于下一个时间片
+     */
+    private long wakeTimeOf(long expireTime) {
+        final long nextDeadline = this.lastDeadline.get() + this.timeSlice;
+        return expireTime <= nextDeadline ? nextDeadline : this.sliceEndOf(expireTime);
+    }
+
+    /**
+     * 调度者关闭之后在调度线程中处理剩余的任务
+     * {@link ShutdownPolicy#DRAIN}策略下只执行关闭时已经到期的任务,如果执行池饱和或者超过了速率限制,
+     * 剩余的到期任务会在下一个时间片继续执行;之后才到期的任务不会被提前执行,而是被丢弃
+     */
+    private void runShuttingDown() {
+        final boolean drain = this.shutdownPolicy == ShutdownPolicy.DRAIN;
+        final long dueBy = drain ? this.drainDeadline : Long.MIN_VALUE;
+        // 持久化队列的任务不在关闭时执行,只从内存中丢弃,它们保留在预写日志中,重启之后按原来的到期时间恢复
+        this.taskQueueMap.values().forEach(taskQueue ->
+                this.discardTasks(taskQueue, taskQueue.codec == null ? dueBy : Long.MIN_VALUE));
+        if (drain) {
+            // 时间轮存储把放入时已经到期的任务放在下一格,所以截止时间要多推进一个时间片才能取出它们;
+            // 尚未到期的任务已经被丢弃,多推进的时间片不会提前执行任何任务
+            this.dispatchExpired(Math.max(this.sliceEndOf(dueBy), this.catchUpDeadline()) + this.timeSlice);
+        }
+        boolean remaining = false;
+        for (TaskQueueDelegate<?> taskQueue : this.taskQueueMap.values()) {
+            this.queueResourceLock.lock(taskQueue.queueName);
+            try {
+                this.drainStaged(taskQueue);
+                remaining |= taskQueue.size() > 0;
+            } finally {
+                this.queueResourceLock.unlock(taskQueue.queueName);
+            }
+        }
+        if (!remaining) {
+            this.tryTerminate();
+            return;
+        }
+        if (this.tickMode == TickMode.MANUAL) {
+            return;
+        }
+        try {
+            this.scheduler.schedule(this::runShuttingDown, this.timeSlice, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            // 调度线程已经关闭,剩余的任务只能丢弃
+            this.taskQueueMap.values().forEach(taskQueue -> this.discardTasks(taskQueue, Long.MIN_VALUE));
+            this.tryTerminate();
+        }
+    }
+
+    /**
+     * 丢弃队列中到期时间晚于给定时间的任务
+     * 持久化队列中被丢弃的任务仍然保留在预写日志中,调度者重启之后会被恢复
+     * @param taskQueue 任务队列
+     * @param dueBy 保留到期时间不晚于它的任务,{@link Long#MIN_VALUE}表示丢弃所有尚未执行的任务
+     * @param <T> 任务队列中数据的类型
+     */
+    private <T> void discardTasks(TaskQueueDelegate<T> taskQueue, long dueBy) {
+        this.queueResourceLock.lock(taskQueue.queueName);
+        try {
+            this.drainStaged(taskQueue);
+            // 逐个摘除而不是从存储中取出,以免时间轮被推进到保留的任务之后
+            final Iterator<Task<T>> iterator = taskQueue.tasks.values().iterator();
+            while (iterator.hasNext()) {
+                final Task<T> task = iterator.next();
+                if (task.state == Task.State.PENDING && task.completeTime > dueBy) {
+                    iterator.remove();
+                    taskQueue.remove(task);
+                    task.state = Task.State.CANCELLED;
+                }
+            }
+        } finally {
+            this.queueResourceLock.unlock(taskQueue.queueName);
+        }
+    }
+
+    /**
+     * 调度者已经关闭、没有剩余任务并且没有执行中的任务时将调度者置为终止状态,并关闭默认的执行池
+     */
+    private void tryTerminate() {
+        if (!this.isShutdown() || this.runningCount.get() > 0 || this.isTerminated()) {
+            return;
+        }
+        for (TaskQueueDelegate<?> taskQueue : this.taskQueueMap.values()) {
+            this.queueResourceLock.lock(taskQueue.queueName);
+            try {
+                this.drainStaged(taskQueue);
+                if (taskQueue.size() > 0) {
+                    return;
+                }
+            } finally {
+                this.queueResourceLock.unlock(taskQueue.queueName);
+            }
+        }
+        synchronized (this.terminationLatch) {
+            if (!this.isTerminated()) {
+                this.defaultExecutionPool.shutdown();
+                Optional.ofNullable(this.journal).ifPresent(TaskJournal::close);
+                this.terminationLatch.countDown();
+            }
+        }
+    }
+
+    /**
+     * 检查调度者是否仍在运行
+     * @throws IllegalStateException 调度者已经关闭时抛出
+     */
+    private void checkRunning() {
+        if (this.isShutdown()) {
+            throw new IllegalStateException("Round robin dispatcher has been shut down.");
+        }
+    }
+
+    /**
+     * 将所有队列中的到期任务提交给执行池
+     * 各队列以加权轮转的方式轮流提交,每一轮中每个队列最多提交{@link #QUANTUM}与其权重之积个任务,
+     * 取不满说明队列已经没有到期任务、超过了速率限制或者执行池已经饱和,此后本时间片中不再轮到它,
+     * 这样执行池饱和时积压严重的队列不会挤占其他队列的执行机会,没有提交的任务留在存储中等待下一个时间片
+     * @param deadline 本次的截止时间
+     */
+    private void dispatchExpired(long deadline) {
+        final List<TaskQueueDelegate<?>> activeQueues = new ArrayList<>(this.taskQueueMap.values());
+        while (!activeQueues.isEmpty()) {
+            final Iterator<TaskQueueDelegate<?>> iterator = activeQueues.iterator();
+            while (iterator.hasNext()) {
+                final TaskQueueDelegate<?> taskQueue = iterator.next();
+                final int quantum = QUANTUM * taskQueue.weight;
+                if (this.processOnTaskQueue(taskQueue, deadline, quantum) < quantum) {
+                    iterator.remove();
+                }
+            }
+        }
     }
 
     /**
      * 对任务队列所周期性执行的操作
+     * 持有队列的锁只是为了取出到期任务,提交给执行池在释放锁之后进行,以便执行器可以在当前线程中直接执行任务
      * @param taskQueue 任务队列
+     * @param deadline 本次的截止时间
+     * @param limit 最多提交的任务数量
      * @param <T> 任务队列中数据的类型
+     * @return 提交的任务数量,执行器拒绝执行时返回0
      */
-    private <T> void processOnTaskQueue(TaskQueueDelegate<T> taskQueue) {
+    private <T> int processOnTaskQueue(TaskQueueDelegate<T> taskQueue, long deadline, int limit) {
+        final List<List<Task<T>>> batches = new ArrayList<>();
+        final int polled;
         this.queueResourceLock.lock(taskQueue.queueName);
         try {
-            this.runTaskAsync(taskQueue, taskQueue.notification);
+            this.drainStaged(taskQueue);
+            polled = this.pollAdmitted(taskQueue, deadline, limit, batches);
         } finally {
             this.queueResourceLock.unlock(taskQueue.queueName);
         }
+        final TaskExecutionPool executionPool = taskQueue.executionPool;
+        for (int i = 0; i < batches.size(); i++) {
+            final List<Task<T>> batch = batches.get(i);
+            try {
+                if (taskQueue.asyncNotification != null) {
+                    executionPool.executeAsync(() -> this.executeAsyncTask(taskQueue, batch.get(0)));
+                } else {
+                    executionPool.execute(() -> this.executeBatch(taskQueue, batch));
+                }
+            } catch (RejectedExecutionException ex) {
+                // 执行器拒绝执行,剩余的任务放回队列等待下一个时间片
+                this.requeue(taskQueue, batches.subList(i, batches.size()));
+                return 0;
+            }
+        }
+        return polled;
     }
 
-    @SuppressWarnings("unchecked")
-    private <T> void runTaskAsync(TaskQueueDelegate<T> taskQueue, ToLongFunction<T> taskExecutor) {
-        boolean hasNext = true;
-        while (hasNext) {
-            final Task<T> task = taskQueue.poll();
-            // 如果在对应队列所持有的对象集中不存在所需要执行任务中持有的对象,说明这个任务已经被外界通过调用remove()取消掉了,不执行,检查下一条
-            Set<T> queueObjectsSet = (Set<T>) this.queueObjectsMap.get(task.queueName);
-            if (!CollectionUtils.isContaining(queueObjectsSet, task.obj)) {
-                continue;
-            }
-            // 到这一步队列一定不会为null,所以直接用get获取
-            final TaskQueueDelegate<T> queue = (TaskQueueDelegate<T>) this.taskQueueMap.get(task.queueName);
-            final Runnable runnable;
-            // 如果时间还没到完成时间,那么异步重新放回队列之中
-            // 由于是一个优先级队列,当有一条不满足要求之时后续已经都不满足要求了
-            if (hasNext = (task.completeTime <= this.lastDeadline.get())) {
-                // 说明时间到了
-                runnable = () -> {
-                    final long result = taskExecutor.applyAsLong(task.obj);
-                    // result > 0说明任务没有执行成功,以result作为任务工作时长再度放回时间轮之中
-                    if (result > 0) {
-                        Task<T> newTask = new Task<>(task.obj, this.getTaskCompleteTime(result), task.queueName);
-                        queue.offer(newTask);
+    /**
+     * 取出已经获得准入许可的到期任务,每一批占用执行池的一个许可,普通队列每一批只有一个任务,调用方需要持有队列的锁
+     * 每个任务消耗速率限制的一个令牌,令牌不足时剩余的到期任务留在存储中
+     * @param taskQueue 任务队列
+     * @param deadline 本次的截止时间
+     * @param limit 最多取出的任务数量
+     * @param batches 取出的任务
+     * @param <T> 任务队列中数据的类型
+     * @return 取出的任务数量
+     */
+    private <T> int pollAdmitted(TaskQueueDelegate<T> taskQueue, long deadline, int limit,
+                                 List<List<Task<T>>> batches) {
+        final TaskExecutionPool executionPool = taskQueue.executionPool;
+        final TokenBucket rateLimiter = taskQueue.rateLimiter;
+        if (rateLimiter != null) {
+            rateLimiter.refill(this.clock.currentTimeMillis());
+        }
+        int polled = 0;
+        // 先获取准入许可再取出任务,执行池饱和时剩余的到期任务留在存储中,等待下一个时间片
+        // 调度线程由所有调度者共享,不能等待许可,否则一个饱和的队列会拖慢所有调度者的时间片
+        while (polled < limit && executionPool.tryAdmitNow()) {
+            // 任务存储只会返回到期时间不晚于本次截止时间的任务,未到期的任务始终留在存储中,无需取出再放回
+            // 被取消的任务在取消时就已经从存储中摘除,这里取出的都是有效任务
+            final int batchSize = taskQueue.batchNotification != null
+                    ? Math.min(taskQueue.maxBatchSize, limit - polled) : 1;
+            final List<Task<T>> batch = new ArrayList<>(Math.min(batchSize, 16));
+            while (batch.size() < batchSize) {
+                if (rateLimiter != null && !rateLimiter.tryConsume()) {
+                    break;
+                }
+                final Task<T> task = taskQueue.pollExpired(deadline);
+                if (task == null) {
+                    Optional.ofNullable(rateLimiter).ifPresent(TokenBucket::refund);
+                    break;
+                }
+                task.state = Task.State.RUNNING;
+                batch.add(task);
+            }
+            if (batch.isEmpty()) {
+                executionPool.cancelAdmission();
+                break;
+            }
+            this.runningCount.addAndGet(batch.size());
+            polled += batch.size();
+            batches.add(batch);
+            if (batch.size() < batchSize) {
+                break;
+            }
+        }
+        return polled;
+    }
+
+    /**
+     * 将执行器拒绝执行的任务放回队列,第一批的许可已经由执行池归还,其余批次的许可在这里归还
+     * 等待提交期间被取消或者被替代的任务不会再被放回
+     * @param taskQueue 任务队列
+     * @param batches 被拒绝的任务
+     * @param <T> 任务队列中数据的类型
+     */
+    private <T> void requeue(TaskQueueDelegate<T> taskQueue, List<List<Task<T>>> batches) {
+        int count = 0;
+        this.queueResourceLock.lock(taskQueue.queueName);
+        try {
+            for (int i = 0; i < batches.size(); i++) {
+                if (i > 0) {
+                    taskQueue.executionPool.cancelAdmission();
+                }
+                for (Task<T> task : batches.get(i)) {
+                    count++;
+                    if (taskQueue.tasks.get(task.obj) == task) {
+                        task.state = Task.State.PENDING;
+                        taskQueue.offer(task);
                     } else {
-                        // 执行成功,将这个对象从任务队列所对应的objSet中删除
-                        queueObjectsSet.remove(task.obj);
+                        taskQueue.metrics.recordTombstone();
+                        task.state = Task.State.DONE;
+                        taskQueue.journalRemove(task);
                     }
-                };
+                }
+            }
+        } finally {
+            this.queueResourceLock.unlock(taskQueue.queueName);
+        }
+        this.runningCount.addAndGet(-count);
+        this.tryTerminate();
+    }
+
+    /**
+     * 在执行池中执行一批到期的任务,普通队列的一批只有一个任务
+     * @param taskQueue 任务所在的队列
+     * @param batch 到期的任务
+     * @param <T> 任务持有的数据类型
+     */
+    private <T> void executeBatch(TaskQueueDelegate<T> taskQueue, List<Task<T>> batch) {
+        final Function<List<T>, Map<T, Long>> batchExecutor = taskQueue.batchNotification;
+        if (batchExecutor == null) {
+            this.executeTask(taskQueue, batch.get(0), taskQueue.notification);
+            return;
+        }
+        final List<T> objs = new ArrayList<>(batch.size());
+        final long now = this.clock.currentTimeMillis();
+        for (Task<T> task : batch) {
+            objs.add(task.obj);
+            taskQueue.metrics.recordStart(task.completeTime, now);
+        }
+        Map<T, Long> results = null;
+        boolean thrown = true;
+        final long start = System.nanoTime();
+        try {
+            results = batchExecutor.apply(objs);
+            thrown = false;
+        } catch (RuntimeException ex) {
+            // 指定了重试策略时异常作为执行失败处理,不再抛给执行器
+            if (taskQueue.retryPolicy == null) {
+                throw ex;
+            }
+        } finally {
+            taskQueue.metrics.recordExecution(System.nanoTime() - start);
+            if (thrown) {
+                this.completeTasks(taskQueue, batch, obj -> THROWN);
             } else {
-                runnable = () -> queue.offer(task);
+                final Map<T, Long> actualResults = Optional.ofNullable(results).orElse(Collections.emptyMap());
+                this.completeTasks(taskQueue, batch,
+                        obj -> Optional.ofNullable(actualResults.get(obj)).orElse(0L));
+            }
+        }
+    }
+
+    /**
+     * 在执行池中执行一个到期的任务
+     * @param taskQueue 任务所在的队列
+     * @param task 到期的任务
+     * @param taskExecutor 任务到期时调用的函数
+     * @param <T> 任务持有的数据类型
+     */
+    private <T> void executeTask(TaskQueueDelegate<T> taskQueue, Task<T> task, ToLongFunction<T> taskExecutor) {
+        long result = THROWN;
+        taskQueue.metrics.recordStart(task.completeTime, this.clock.currentTimeMillis());
+        final long start = System.nanoTime();
+        try {
+            result = taskExecutor.applyAsLong(task.obj);
+        } catch (RuntimeException ex) {
+            // 指定了重试策略时异常作为执行失败处理,不再抛给执行器
+            if (taskQueue.retryPolicy == null) {
+                throw ex;
+            }
+        } finally {
+            taskQueue.metrics.recordExecution(System.nanoTime() - start);
+            final long actualResult = result;
+            this.completeTasks(taskQueue, Collections.singletonList(task), obj -> actualResult);
+        }
+    }
+
+    /**
+     * 在执行池中发起一个到期任务的异步操作,操作完成之后再处理任务的结果
+     * 没有指定重试策略时,异步操作的异常只记录日志,任务视作完成
+     * @param taskQueue 任务所在的队列
+     * @param task 到期的任务
+     * @param <T> 任务持有的数据类型
+     * @return 任务的结果处理完毕时完成的阶段
+     */
+    private <T> CompletionStage<?> executeAsyncTask(TaskQueueDelegate<T> taskQueue, Task<T> task) {
+        taskQueue.metrics.recordStart(task.completeTime, this.clock.currentTimeMillis());
+        final long start = System.nanoTime();
+        CompletionStage<Long> stage;
+        try {
+            stage = Objects.requireNonNull(taskQueue.asyncNotification.apply(task.obj),
+                    "Async executor returned a null stage.");
+        } catch (RuntimeException ex) {
+            final CompletableFuture<Long> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            stage = failed;
+        }
+        return stage.handle((result, error) -> {
+            taskQueue.metrics.recordExecution(System.nanoTime() - start);
+            if (error != null && taskQueue.retryPolicy == null) {
+                LOG.warn("Async task in queue {} failed.", taskQueue.queueName, error);
+            }
+            final long actualResult = error != null ? THROWN : Optional.ofNullable(result).orElse(0L);
+            this.completeTasks(taskQueue, Collections.singletonList(task), obj -> actualResult);
+            return null;
+        });
+    }
+
+    /**
+     * 根据任务的执行结果决定任务是完成还是重新放回队列
+     * 同一批任务只需要获取一次队列的锁
+     * @param taskQueue 任务所在的队列
+     * @param tasks 执行完毕的任务
+     * @param results 每个任务的执行结果,执行函数抛出异常时为{@link #THROWN}
+     * @param <T> 任务持有的数据类型
+     */
+    private <T> void completeTasks(TaskQueueDelegate<T> taskQueue, List<Task<T>> tasks, ToLongFunction<T> results) {
+        long rescheduleTime = Long.MAX_VALUE;
+        List<Task<T>> deadLetters = null;
+        this.queueResourceLock.lock(taskQueue.queueName);
+        try {
+            for (Task<T> task : tasks) {
+                final long result = results.applyAsLong(task.obj);
+                if (taskQueue.tasks.get(task.obj) != task) {
+                    // 执行期间任务已经被取消,或者被重新添加的任务所替代
+                    taskQueue.metrics.recordTombstone();
+                    task.state = Task.State.DONE;
+                    taskQueue.journalRemove(task);
+                    continue;
+                }
+                // result > 0说明任务没有执行成功,指定了重试策略时抛出异常同样视作执行失败
+                final boolean failed = result > 0 || (result == THROWN && taskQueue.retryPolicy != null);
+                final long delay = !failed ? 0L
+                        : taskQueue.retryPolicy == null ? result : this.nextRetryDelay(taskQueue.retryPolicy, task);
+                if (failed && delay >= 0 && !this.isShutdown()) {
+                    // 以重试的间隔作为任务工作时长复用该任务再度放回时间轮之中
+                    task.completeTime = this.getTaskCompleteTime(delay);
+                    task.state = Task.State.PENDING;
+                    taskQueue.offer(task);
+                    taskQueue.journalUpdate(task);
+                    taskQueue.metrics.recordReschedule();
+                    rescheduleTime = Math.min(rescheduleTime, task.completeTime);
+                    continue;
+                }
+                // 执行成功或者放弃重试,将这个对象从任务队列中删除
+                taskQueue.tasks.remove(task.obj);
+                task.state = Task.State.DONE;
+                if (failed && delay >= 0) {
+                    // 关闭期间执行失败的任务不再放回,持久化队列中留待重启之后重试
+                    task.completeTime = this.getTaskCompleteTime(delay);
+                    taskQueue.journalUpdate(task);
+                } else {
+                    taskQueue.journalRemove(task);
+                }
+                if (failed && delay < 0) {
+                    deadLetters = Optional.ofNullable(deadLetters).orElseGet(ArrayList::new);
+                    deadLetters.add(task);
+                }
+            }
+        } finally {
+            this.queueResourceLock.unlock(taskQueue.queueName);
+        }
+        this.runningCount.addAndGet(-tasks.size());
+        if (this.isShutdown()) {
+            this.tryTerminate();
+        } else {
+            this.wakeUpBefore(rescheduleTime);
+        }
+        if (deadLetters != null && taskQueue.deadLetterHandler != null) {
+            deadLetters.forEach(task -> taskQueue.deadLetterHandler.accept(task.obj, task.attempts));
+        }
+    }
+
+    /**
+     * 记录任务的一次失败,并由重试策略计算下一次重试的间隔,调用方需要持有任务所在队列的锁
+     * @param retryPolicy 重试策略
+     * @param task 失败的任务
+     * @param <T> 任务持有的数据类型
+     * @return 下一次重试的间隔,小于0表示放弃重试
+     */
+    private <T> long nextRetryDelay(RetryPolicy retryPolicy, Task<T> task) {
+        task.attempts++;
+        final long delay = retryPolicy.nextDelay(task.attempts, task.lastRetryDelay);
+        if (delay >= 0) {
+            task.lastRetryDelay = delay;
+        }
+        return delay;
+    }
+
+    /**
+     * 将暂存缓冲中的新任务放入任务存储,调用方需要持有队列的锁
+     * 元素已经有等待到期的任务时,原任务从存储中摘除,新任务沿用它在预写日志中的记录;
+     * 原任务正在执行中时,执行结束之后不会再被放回
+     * @param taskQueue 任务队列
+     * @param <T> 任务队列中数据的类型
+     */
+    private <T> void drainStaged(TaskQueueDelegate<T> taskQueue) {
+        Task<T> task;
+        while ((task = taskQueue.staging.poll()) != null) {
+            this.acceptStaged(taskQueue, task);
+        }
+    }
+
+    /**
+     * 将一个新任务放入任务存储并写入预写日志,调用方需要持有队列的锁
+     * @param taskQueue 任务队列
+     * @param task 新任务
+     * @param <T> 任务队列中数据的类型
+     */
+    private <T> void acceptStaged(TaskQueueDelegate<T> taskQueue, Task<T> task) {
+        taskQueue.metrics.recordDrained();
+        final Task<T> previous = taskQueue.tasks.put(task.obj, task);
+        if (previous != null && previous.state == Task.State.PENDING) {
+            taskQueue.remove(previous);
+            previous.state = Task.State.DONE;
+            task.journalId = previous.journalId;
+            taskQueue.journalUpdate(task);
+        } else {
+            taskQueue.journalAdd(task);
+        }
+        taskQueue.offer(task);
+    }
+
+    /**
+     * 根据元素类型与外界指定的队列名找到工作队列,找到之后缓存在{@link #queuesByType}中
+     * @param type 元素的类型
+     * @param queueName 外界指定的队列名
+     * @param <T> 元素的类型
+     * @return 工作队列,不存在时返回{@code null}
+     */
+    @SuppressWarnings("unchecked")
+    private <T> TaskQueueDelegate<T> findQueue(Class<?> type, String queueName) {
+        final String name = String.valueOf(queueName);
+        final Map<String, TaskQueueDelegate<?>> queues = this.queuesByType.get(type);
+        TaskQueueDelegate<?> queue = queues == null ? null : queues.get(name);
+        if (queue == null) {
+            queue = this.taskQueueMap.get(this.buildActualQueueName(type, name));
+            if (queue != null) {
+                this.queuesByType.computeIfAbsent(type, k -> new ConcurrentHashMap<>(4)).put(name, queue);
             }
-            CompletableFuture.runAsync(runnable);
         }
+        return (TaskQueueDelegate<T>) queue;
+    }
+
+    /**
+     * 取消一个任务,调用方需要持有任务所在队列的锁
+     * @param task 任务
+     * @param <T> 任务持有的数据类型
+     * @return true表示取消成功
+     */
+    @SuppressWarnings("unchecked")
+    private <T> boolean cancelTask(Task<T> task) {
+        final TaskQueueDelegate<T> queue = (TaskQueueDelegate<T>) this.taskQueueMap.get(task.queueName);
+        if (queue == null || !queue.tasks.remove(task.obj, task)) {
+            return false;
+        }
+        if (task.state == Task.State.PENDING) {
+            queue.remove(task);
+        }
+        task.state = Task.State.CANCELLED;
+        queue.journalRemove(task);
+        return true;
     }
 
     /**
@@ -178,7 +1196,109 @@ public class RoundRobinDispatcher {
      * @return 生成的实际队列名
      */
     private String buildActualQueueName(Object obj, String outsideQueueName) {
-        return obj.getClass().getSimpleName() + "-" + outsideQueueName;
+        return this.buildActualQueueName(obj.getClass(), outsideQueueName);
+    }
+
+    /**
+     * 根据元素类型和外界指定的任务队列名来生成一个在时间轮中实际应用的队列名
+     * @param type 元素的类型
+     * @param outsideQueueName 外界指定的队列名
+     * @return 生成的实际队列名
+     */
+    private String buildActualQueueName(Class<?> type, String outsideQueueName) {
+        return type.getSimpleName() + "-" + outsideQueueName;
+    }
+
+    /**
+     * 创建并登记一个任务队列,持久化队列会恢复预写日志中属于它的任务
+     * @param type 队列中元素的类型
+     * @param queueName 外界指定的队列名
+     * @param taskExecutor 任务到期时调用的函数
+     * @param batchExecutor 一批任务到期时调用的函数
+     * @param asyncExecutor 任务到期时调用的异步函数
+     * @param options 队列配置
+     * @param <T> 队列中元素的类型
+     * @return true表示创建成功,false表示队列已经存在
+     */
+    private <T> boolean createTaskQueue(Class<?> type, String queueName, ToLongFunction<T> taskExecutor,
+                                       Function<List<T>, Map<T, Long>> batchExecutor,
+                                       Function<T, CompletionStage<Long>> asyncExecutor, QueueOptions options) {
+        this.checkRunning();
+        final String actualQueueName = this.buildActualQueueName(type, queueName);
+        long nextExpireTime = Long.MAX_VALUE;
+        this.queueResourceLock.lock(actualQueueName);
+        try {
+            if (this.taskQueueMap.containsKey(actualQueueName)) {
+                return false;
+            }
+            final TaskQueueDelegate<T> queue = this.newTaskQueue(actualQueueName, taskExecutor, batchExecutor,
+                    asyncExecutor, options);
+            // 恢复完毕之后再登记,其它线程看到的总是已经恢复的队列
+            nextExpireTime = this.restoreTasks(queue);
+            this.taskQueueMap.put(actualQueueName, queue);
+        } finally {
+            this.queueResourceLock.unlock(actualQueueName);
+        }
+        this.wakeUpBefore(nextExpireTime);
+        return true;
+    }
+
+    /**
+     * 将预写日志中属于持久化队列的任务放回队列,已经过期的任务会在下一个时间片执行,调用方需要持有队列的锁
+     * @param queue 任务队列
+     * @param <T> 队列中元素的类型
+     * @return 恢复的任务中最早的到期时间,没有恢复任何任务时返回{@link Long#MAX_VALUE}
+     */
+    private <T> long restoreTasks(TaskQueueDelegate<T> queue) {
+        if (queue.codec == null) {
+            return Long.MAX_VALUE;
+        }
+        long nextExpireTime = Long.MAX_VALUE;
+        for (TaskJournal.Entry entry : this.journal.recover(queue.queueName)) {
+            final Task<T> task = new Task<>(queue.codec.decode(entry.payload), entry.completeTime, queue.queueName);
+            task.journalId = entry.id;
+            Optional.ofNullable(queue.tasks.put(task.obj, task)).ifPresent(old -> {
+                // 编解码器不满足要求时可能出现相同的元素,只保留后恢复的任务
+                queue.remove(old);
+                queue.journalRemove(old);
+            });
+            queue.offer(task);
+            nextExpireTime = Math.min(nextExpireTime, task.completeTime);
+        }
+        return nextExpireTime;
+    }
+
+    /**
+     * 创建一个任务队列,taskExecutor、batchExecutor与asyncExecutor有且只有一个不为{@code null}
+     * @param actualQueueName 实际队列名
+     * @param taskExecutor 任务到期时调用的函数
+     * @param batchExecutor 一批任务到期时调用的函数
+     * @param asyncExecutor 任务到期时调用的异步函数
+     * @param options 队列配置
+     * @param <T> 队列中元素的类型
+     * @return 任务队列
+     */
+    @SuppressWarnings("unchecked")
+    private <T> TaskQueueDelegate<T> newTaskQueue(String actualQueueName, ToLongFunction<T> taskExecutor,
+                                                  Function<List<T>, Map<T, Long>> batchExecutor,
+                                                  Function<T, CompletionStage<Long>> asyncExecutor,
+                                                  QueueOptions options) {
+        if (options.getCodec() != null && this.journal == null) {
+            throw new IllegalArgumentException("Durable queue needs a dispatcher with a task journal.");
+        }
+        final TaskExecutionPool executionPool = Optional.ofNullable(options.getExecutionPool())
+                .orElse(this.defaultExecutionPool);
+        final TaskQueueDelegate<T> queue = new TaskQueueDelegate<>(actualQueueName, taskExecutor, batchExecutor,
+                asyncExecutor, this.taskQueueType.newStore(this.timeSlice, this.origin), executionPool, options.getMaxBatchSize(),
+                this.journal, (TaskCodec<T>) options.getCodec(), new QueueMetrics(actualQueueName, this.clock));
+        queue.retryPolicy = options.getRetryPolicy();
+        queue.weight = options.getWeight();
+        if (options.getRateLimit() > 0) {
+            queue.rateLimiter = new TokenBucket(options.getRateLimit(), options.getRateLimitBurst(),
+                    this.clock.currentTimeMillis());
+        }
+        queue.deadLetterHandler = (ObjIntConsumer<T>) options.getDeadLetterHandler();
+        return queue;
     }
 
     /**
@@ -187,7 +1307,7 @@ public class RoundRobinDispatcher {
      * @return 任务完成的时间戳
      */
     private long getTaskCompleteTime(long taskNeedTime) {
-        return System.currentTimeMillis() + taskNeedTime;
+        return this.clock.currentTimeMillis() + taskNeedTime;
     }
 
     /**
@@ -202,9 +1322,9 @@ public class RoundRobinDispatcher {
         private final String queueName;
 
         /**
-         * 存储任务的队列,采用优先级队列
+         * 存储任务的结构,由{@link TaskQueueType}决定具体实现
          */
-        private final Queue<Task<E>> delegate;
+        private final TaskStore<E> delegate;
 
         /**
          * 任务完成时调用的函数
@@ -213,47 +1333,192 @@ public class RoundRobinDispatcher {
          */
         private final ToLongFunction<E> notification;
 
-        TaskQueueDelegate(String queueName, ToLongFunction<E> notification) {
+        /**
+         * 批量队列中一批任务到期时调用的函数,返回值中每个元素所对应的值与{@link #notification}的返回值语义相同
+         * 为{@code null}说明该队列不是批量队列
+         */
+        private final Function<List<E>, Map<E, Long>> batchNotification;
+
+        /**
+         * 异步队列中任务到期时调用的函数,返回的阶段完成之后再决定任务是完成还是重新放回,结果的语义与{@link #notification}相同
+         * 为{@code null}说明该队列不是异步队列
+         */
+        private final Function<E, CompletionStage<Long>> asyncNotification;
+
+        /**
+         * 批量队列每一批最多包含的元素数量
+         */
+        private final int maxBatchSize;
+
+        /**
+         * 执行该队列到期任务的执行池
+         */
+        private final TaskExecutionPool executionPool;
+
+        /**
+         * 持久化队列所用的预写日志
+         */
+        private final TaskJournal journal;
+
+        /**
+         * 持久化队列中元素的编解码器,为{@code null}说明该队列不是持久化队列
+         */
+        private final TaskCodec<E> codec;
+
+        /**
+         * 任务执行失败之后的重试策略,为{@code null}时以执行函数的返回值作为重新放回的时长
+         */
+        private RetryPolicy retryPolicy;
+
+        /**
+         * 放弃重试之后处理任务的函数
+         */
+        private ObjIntConsumer<E> deadLetterHandler;
+
+        /**
+         * 队列的权重
+         */
+        private int weight;
+
+        /**
+         * 限制提交速率的令牌桶,为{@code null}时不限制
+         */
+        private TokenBucket rateLimiter;
+
+        /**
+         * 队列中每个元素与其当前任务的对应关系,等待到期与正在执行中的任务都在其中,由队列的锁保护
+         * 尚在暂存缓冲中的任务不在其中
+         */
+        private final Map<E, Task<E>> tasks;
+
+        /**
+         * 队列的运行指标
+         */
+        private final QueueMetrics metrics;
+
+        /**
+         * 新添加任务的暂存缓冲
+         */
+        private final TaskStagingBuffer<E> staging;
+
+        TaskQueueDelegate(String queueName, ToLongFunction<E> notification,
+                          Function<List<E>, Map<E, Long>> batchNotification,
+                          Function<E, CompletionStage<Long>> asyncNotification, TaskStore<E> delegate,
+                          TaskExecutionPool executionPool, int maxBatchSize, TaskJournal journal,
+                          TaskCodec<E> codec, QueueMetrics metrics) {
+            this.journal = journal;
+            this.metrics = metrics;
+            this.codec = codec;
             this.queueName = queueName;
             this.notification = notification;
-            this.delegate = new PriorityQueue<>(Comparator.comparingLong(task -> task.completeTime));
+            this.batchNotification = batchNotification;
+            this.asyncNotification = asyncNotification;
+            this.maxBatchSize = maxBatchSize;
+            this.delegate = delegate;
+            this.executionPool = executionPool;
+            this.tasks = new HashMap<>(16);
+            this.staging = new TaskStagingBuffer<>();
         }
 
         private void offer(Task<E> eTask) {
             delegate.offer(eTask);
+            metrics.updateDepth(delegate.size());
         }
 
-        private Task<E> poll() {
-            return delegate.poll();
+        private Task<E> pollExpired(long deadline) {
+            final Task<E> eTask = delegate.pollExpired(deadline);
+            if (eTask != null) {
+                metrics.updateDepth(delegate.size());
+            }
+            return eTask;
         }
-    }
 
+        private boolean remove(Task<E> eTask) {
+            final boolean removed = delegate.remove(eTask);
+            metrics.updateDepth(delegate.size());
+            return removed;
+        }
 
-    /**
-     * 任务
-     * @param <T> 任务持有的数据类型
-     */
-    private static class Task<T> {
+        private long nextExpireTime() {
+            return delegate.nextExpireTime();
+        }
+
+        private int size() {
+            return delegate.size();
+        }
 
         /**
-         * 持有的数据对象
+         * 持久化队列中记录一个新的任务
+         * @param eTask 任务
          */
-        private final T obj;
+        private void journalAdd(Task<E> eTask) {
+            if (codec != null) {
+                eTask.journalId = journal.add(queueName, eTask.completeTime, codec.encode(eTask.obj));
+            }
+        }
 
         /**
-         * 任务到期时间
+         * 持久化队列中记录任务新的到期时间
+         * @param eTask 任务
          */
-        private final long completeTime;
+        private void journalUpdate(Task<E> eTask) {
+            if (codec != null) {
+                journal.update(eTask.journalId, eTask.completeTime);
+            }
+        }
 
         /**
-         * 任务所在队列名
+         * 持久化队列中记录任务已经完成或者被取消
+         * @param eTask 任务
          */
-        private final String queueName;
+        private void journalRemove(Task<E> eTask) {
+            if (codec != null) {
+                journal.remove(eTask.journalId);
+            }
+        }
+    }
 
-        Task(T obj, long completeTime, String queueName) {
-            this.obj = obj;
-            this.completeTime = completeTime;
-            this.queueName = queueName;
+    /**
+     * 任务句柄的默认实现
+     * @param <E> 任务持有的数据类型
+     */
+    private class DefaultTaskHandle<E> implements TaskHandle {
+
+        /**
+         * 任务所在的队列
+         */
+        private final TaskQueueDelegate<E> queue;
+
+        /**
+         * 句柄所对应的任务
+         */
+        private final Task<E> task;
+
+        DefaultTaskHandle(TaskQueueDelegate<E> queue, Task<E> task) {
+            this.queue = queue;
+            this.task = task;
+        }
+
+        @Override
+        public boolean cancel() {
+            queueResourceLock.lock(this.queue.queueName);
+            try {
+                drainStaged(this.queue);
+                return cancelTask(this.task);
+            } finally {
+                queueResourceLock.unlock(this.queue.queueName);
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            queueResourceLock.lock(this.queue.queueName);
+            try {
+                drainStaged(this.queue);
+                return this.task.state == Task.State.CANCELLED;
+            } finally {
+                queueResourceLock.unlock(this.queue.queueName);
+            }
         }
     }
 }
@@ -1,10 +1,17 @@
 package com.miracle.common.round;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Optional;
+import java.util.concurrent.*;
 
 /**
  * Description:时间片轮转调度者工厂类
+ * 所有调度者的时间片推进都复用同一个共享的调度线程,调度者本身只占用执行任务的线程
  *
  * @author guobin On date 2018/7/2.
  * @version 1.0
@@ -13,9 +20,24 @@ import java.util.concurrent.ConcurrentHashMap;
 public class RoundRobinDispatcherFactory {
 
     /**
-     * 时间轮的池,以时间片的大小作为key
+     * 时间轮的池,以任务队列的实现类型、推进时间片的方式与时间片的大小所组成的字符串作为key
      */
-    private static final Map<Long, RoundRobinDispatcher> ROUND_ROBIN_POOL = new ConcurrentHashMap<>(16);
+    private static final Map<String, RoundRobinDispatcher> ROUND_ROBIN_POOL = new ConcurrentHashMap<>(16);
+
+    /**
+     * 分布式时间轮的池,以key的公共前缀作为key
+     */
+    private static final Map<String, DistributedRoundRobinDispatcher> DISTRIBUTED_POOL = new ConcurrentHashMap<>(4);
+
+    /**
+     * 已经关闭但尚未等待其终止的时间轮
+     */
+    private static final List<RoundRobinDispatcher> SHUTTING_DOWN = new CopyOnWriteArrayList<>();
+
+    /**
+     * 所有时间轮共享的调度线程
+     */
+    private static ScheduledThreadPoolExecutor sharedScheduler;
 
     /**
      * 不允许实例化
@@ -29,7 +51,123 @@ public class RoundRobinDispatcherFactory {
      * @return 时间片轮转调度者
      */
     public static RoundRobinDispatcher registerRoundRobin(long timeSlice) {
-        return ROUND_ROBIN_POOL.computeIfAbsent(timeSlice, k -> new RoundRobinDispatcher(timeSlice));
+        return registerRoundRobin(timeSlice, TaskQueueType.PRIORITY_QUEUE);
+    }
+
+    /**
+     * 注册一个指定任务队列实现类型的时间轮
+     * 如果给定的时间片与实现类型所对应的时间轮是已经存在的那么会进行复用
+     * @param timeSlice 指定的时间片大小
+     * @param taskQueueType 任务队列的实现类型
+     * @return 时间片轮转调度者
+     */
+    public static RoundRobinDispatcher registerRoundRobin(long timeSlice, TaskQueueType taskQueueType) {
+        return registerRoundRobin(timeSlice, taskQueueType, TickMode.FIXED_RATE);
+    }
+
+    /**
+     * 注册一个指定任务队列实现类型与时间片推进方式的时间轮
+     * 如果给定的时间片、实现类型与推进方式所对应的时间轮是已经存在的那么会进行复用
+     * @param timeSlice 指定的时间片大小
+     * @param taskQueueType 任务队列的实现类型
+     * @param tickMode 推进时间片的方式
+     * @return 时间片轮转调度者
+     */
+    public static RoundRobinDispatcher registerRoundRobin(long timeSlice, TaskQueueType taskQueueType,
+                                                          TickMode tickMode) {
+        if (taskQueueType == null || tickMode == null) {
+            throw new NullPointerException("Task queue type and tick mode cannot be null.");
+        }
+        return ROUND_ROBIN_POOL.computeIfAbsent(buildPoolKey(timeSlice, taskQueueType, tickMode),
+                k -> new RoundRobinDispatcher(timeSlice, taskQueueType, tickMode));
+    }
+
+    /**
+     * 注册一个支持持久化队列的时间轮,预写日志保存在给定的目录之中
+     * 同一个目录只对应一个时间轮,如果该目录所对应的时间轮已经存在那么会直接复用
+     * @param timeSlice 指定的时间片大小
+     * @param journalDirectory 预写日志所在的目录
+     * @return 时间片轮转调度者
+     * @see QueueOptions#codec(TaskCodec)
+     */
+    public static RoundRobinDispatcher registerDurableRoundRobin(long timeSlice, Path journalDirectory) {
+        return registerDurableRoundRobin(timeSlice, TaskQueueType.PRIORITY_QUEUE, TickMode.FIXED_RATE, journalDirectory);
+    }
+
+    /**
+     * 注册一个指定任务队列实现类型与时间片推进方式、支持持久化队列的时间轮
+     * 同一个目录只对应一个时间轮,如果该目录所对应的时间轮已经存在那么会直接复用
+     * @param timeSlice 指定的时间片大小
+     * @param taskQueueType 任务队列的实现类型
+     * @param tickMode 推进时间片的方式
+     * @param journalDirectory 预写日志所在的目录
+     * @return 时间片轮转调度者
+     * @throws UncheckedIOException 打开预写日志失败时抛出
+     */
+    public static RoundRobinDispatcher registerDurableRoundRobin(long timeSlice, TaskQueueType taskQueueType,
+                                                                 TickMode tickMode, Path journalDirectory) {
+        if (taskQueueType == null || tickMode == null || journalDirectory == null) {
+            throw new NullPointerException("Task queue type, tick mode and journal directory cannot be null.");
+        }
+        final Path directory = journalDirectory.toAbsolutePath().normalize();
+        return ROUND_ROBIN_POOL.computeIfAbsent("DURABLE-" + directory, k -> {
+            try {
+                return new RoundRobinDispatcher(timeSlice, taskQueueType, tickMode, sharedScheduler(),
+                        TaskJournal.open(directory, TaskJournal.DEFAULT_SEGMENT_SIZE));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+    }
+
+    /**
+     * 创建一个由外界推进时间片的时间轮,一般与{@link VirtualClock}配合用于测试与模拟
+     * 这样的时间轮不会被放入池中复用
+     * @param timeSlice 指定的时间片大小
+     * @param taskQueueType 任务队列的实现类型
+     * @param clock 读取当前时间所用的时钟
+     * @return 时间片轮转调度者
+     * @see RoundRobinDispatcher#tick()
+     */
+    public static RoundRobinDispatcher newManualRoundRobin(long timeSlice, TaskQueueType taskQueueType,
+                                                           DispatcherClock clock) {
+        return new RoundRobinDispatcher(timeSlice, taskQueueType, TickMode.MANUAL, sharedScheduler(), null, clock);
+    }
+
+    /**
+     * 注册一个多节点共享任务的分布式时间轮
+     * 同一个前缀在一个节点中只对应一个时间轮,如果该前缀所对应的时间轮已经存在那么会直接复用
+     * @param namespace 共享存储中所有key的公共前缀,共享同一个前缀的节点共同调度同一组队列
+     * @param timeSlice 指定的时间片大小
+     * @param store 共享的任务存储,一般为{@link RedisDistributedTaskStore}
+     * @return 分布式时间片轮转调度者
+     */
+    public static DistributedRoundRobinDispatcher registerDistributedRoundRobin(String namespace, long timeSlice,
+                                                                               DistributedTaskStore store) {
+        if (namespace == null || store == null) {
+            throw new NullPointerException("Namespace and store cannot be null.");
+        }
+        return DISTRIBUTED_POOL.computeIfAbsent(namespace,
+                k -> new DistributedRoundRobinDispatcher(namespace, timeSlice, store, sharedScheduler()));
+    }
+
+    /**
+     * 创建一个由外界推进时间片的分布式时间轮,一般与{@link VirtualClock}配合用于测试与模拟
+     * 这样的时间轮不会被放入池中复用
+     * @param namespace 共享存储中所有key的公共前缀
+     * @param timeSlice 指定的时间片大小
+     * @param shardCount 每个队列的任务分片数量
+     * @param leaseMillis 分片租约的时长,单位毫秒
+     * @param store 共享的任务存储
+     * @param clock 读取当前时间所用的时钟
+     * @return 分布式时间片轮转调度者
+     * @see DistributedRoundRobinDispatcher#tick()
+     */
+    public static DistributedRoundRobinDispatcher newManualDistributedRoundRobin(String namespace, long timeSlice,
+                                                                                int shardCount, long leaseMillis,
+                                                                                DistributedTaskStore store,
+                                                                                DispatcherClock clock) {
+        return new DistributedRoundRobinDispatcher(namespace, timeSlice, shardCount, leaseMillis, store, null, clock);
     }
 
     /**
@@ -38,6 +176,83 @@ public class RoundRobinDispatcherFactory {
      * @return 时间片轮转调度者
      */
     public static RoundRobinDispatcher registerRoundRobin() {
-        return ROUND_ROBIN_POOL.computeIfAbsent(RoundRobinDispatcher.DEFAULT_TIME_SLICE, k -> new RoundRobinDispatcher());
+        return registerRoundRobin(RoundRobinDispatcher.DEFAULT_TIME_SLICE);
+    }
+
+    /**
+     * 关闭池中所有的时间轮,关闭之后再注册会得到新的时间轮
+     * @param policy 关闭策略
+     */
+    public static void shutdown(ShutdownPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("Shutdown policy cannot be null.");
+        }
+        for (String key : new ArrayList<>(ROUND_ROBIN_POOL.keySet())) {
+            final RoundRobinDispatcher dispatcher = ROUND_ROBIN_POOL.remove(key);
+            if (dispatcher != null) {
+                SHUTTING_DOWN.add(dispatcher);
+                dispatcher.shutdown(policy);
+            }
+        }
+        // 分布式时间轮的任务保存在共享存储中,关闭时只需要交出持有的分片
+        for (String key : new ArrayList<>(DISTRIBUTED_POOL.keySet())) {
+            Optional.ofNullable(DISTRIBUTED_POOL.remove(key)).ifPresent(DistributedRoundRobinDispatcher::shutdown);
+        }
+    }
+
+    /**
+     * 在给定的时间内等待所有已关闭的时间轮终止,全部终止之后关闭共享的调度线程
+     * @param timeout 最长等待时间
+     * @param unit 时间单位
+     * @return true表示全部已经终止,false表示等待超时
+     * @throws InterruptedException 等待期间被中断时抛出
+     */
+    public static boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (RoundRobinDispatcher dispatcher : SHUTTING_DOWN) {
+            if (!dispatcher.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+            SHUTTING_DOWN.remove(dispatcher);
+        }
+        final ScheduledThreadPoolExecutor scheduler;
+        synchronized (RoundRobinDispatcherFactory.class) {
+            if (!ROUND_ROBIN_POOL.isEmpty() || !DISTRIBUTED_POOL.isEmpty() || sharedScheduler == null) {
+                return true;
+            }
+            scheduler = sharedScheduler;
+            sharedScheduler = null;
+        }
+        scheduler.shutdown();
+        return scheduler.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 得到所有时间轮共享的调度线程,调度线程被关闭之后会重新创建
+     * @return 共享的调度线程
+     */
+    static synchronized ScheduledExecutorService sharedScheduler() {
+        if (sharedScheduler == null || sharedScheduler.isShutdown()) {
+            sharedScheduler = new ScheduledThreadPoolExecutor(1, r -> {
+                final Thread thread = new Thread(r);
+                thread.setName("RoundRobinDispatcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // 自适应模式下被取消的醒来会很频繁,及时从队列中移除
+            sharedScheduler.setRemoveOnCancelPolicy(true);
+        }
+        return sharedScheduler;
+    }
+
+    /**
+     * 构造时间轮在池中的key
+     * @param timeSlice 时间片大小
+     * @param taskQueueType 任务队列的实现类型
+     * @param tickMode 推进时间片的方式
+     * @return 池中的key
+     */
+    private static String buildPoolKey(long timeSlice, TaskQueueType taskQueueType, TickMode tickMode) {
+        return taskQueueType.name() + "-" + tickMode.name() + "-" + timeSlice;
     }
 }
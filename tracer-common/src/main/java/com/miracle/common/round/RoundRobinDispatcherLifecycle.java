@@ -0,0 +1,86 @@
+package com.miracle.common.round;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description:将{@link RoundRobinDispatcherFactory}中的时间轮绑定到Spring容器的生命周期上
+ * 容器关闭时按照配置的策略关闭所有时间轮并等待它们终止,避免重新部署与测试时遗留线程
+ *
+ * @author guobin On date 2018/7/16.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+@Component("roundRobinDispatcherLifecycle")
+public class RoundRobinDispatcherLifecycle implements SmartLifecycle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoundRobinDispatcherLifecycle.class);
+
+    /**
+     * 关闭时对尚未到期任务的处理策略
+     */
+    @Value("${tracer.round-robin.shutdown-policy:DRAIN}")
+    private ShutdownPolicy shutdownPolicy;
+
+    /**
+     * 关闭时等待时间轮终止的最长时间,单位毫秒
+     */
+    @Value("${tracer.round-robin.shutdown-timeout:30000}")
+    private long shutdownTimeout;
+
+    private volatile boolean running;
+
+    @Override
+    public boolean isAutoStartup() {
+        return true;
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        try {
+            this.stop();
+        } finally {
+            callback.run();
+        }
+    }
+
+    @Override
+    public void start() {
+        this.running = true;
+    }
+
+    @Override
+    public void stop() {
+        if (!this.running) {
+            return;
+        }
+        this.running = false;
+        RoundRobinDispatcherFactory.shutdown(this.shutdownPolicy);
+        try {
+            if (!RoundRobinDispatcherFactory.awaitTermination(this.shutdownTimeout, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Round robin dispatchers did not terminate in {} ms.", this.shutdownTimeout);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return this.running;
+    }
+
+    /**
+     * 尽量晚启动、尽量早关闭,使其他组件关闭之前时间轮中的任务已经处理完毕
+     * @return 生命周期的阶段
+     */
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE;
+    }
+}
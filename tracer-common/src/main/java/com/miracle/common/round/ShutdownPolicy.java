@@ -0,0 +1,21 @@
+package com.miracle.common.round;
+
+/**
+ * Description:时间片轮转调度者关闭时对尚未到期任务的处理策略
+ *
+ * @author guobin On date 2018/7/16.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public enum ShutdownPolicy {
+
+    /**
+     * 执行关闭时已经到期的任务,并等待它们与执行中的任务执行完毕,尚未到期的任务被丢弃
+     */
+    DRAIN,
+
+    /**
+     * 丢弃所有尚未执行的任务,只等待执行中的任务结束
+     */
+    DISCARD
+}
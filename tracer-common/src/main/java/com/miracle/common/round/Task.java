@@ -0,0 +1,107 @@
+package com.miracle.common.round;
+
+/**
+ * Description:时间片轮转中的任务
+ * 任务本身同时也是{@link TaskList}中的链表节点,以便于在时间轮的槽位之间以O(1)的代价移动
+ * 任务在重新放回队列时会被复用,所以到期时间与状态都是可变的,其读写由所在队列的锁保护
+ *
+ * @author guobin On date 2018/7/12.
+ * @version 1.0
+ * @since jdk 1.8
+ * @param <T> 任务持有的数据类型
+ */
+class Task<T> {
+
+    /**
+     * 持有的数据对象
+     */
+    final T obj;
+
+    /**
+     * 任务所在队列名
+     */
+    final String queueName;
+
+    /**
+     * 任务到期时间
+     */
+    long completeTime;
+
+    /**
+     * 任务的状态
+     */
+    State state;
+
+    /**
+     * 任务存储内部使用的位置信息,例如任务所在时间轮的层数
+     */
+    int storeIndex;
+
+    /**
+     * 任务在{@link TaskJournal}中的编号,不需要持久化的任务为0
+     */
+    long journalId;
+
+    /**
+     * 任务连续失败的次数,由{@link RetryPolicy}使用
+     */
+    int attempts;
+
+    /**
+     * 上一次重试的间隔,由{@link RetryPolicy}使用
+     */
+    long lastRetryDelay;
+
+    /**
+     * 链表中的前驱节点
+     */
+    Task<T> prev;
+
+    /**
+     * 链表中的后继节点
+     */
+    Task<T> next;
+
+    /**
+     * 任务当前所在的链表,为{@code null}说明不在任何链表中
+     */
+    TaskList<T> list;
+
+    /**
+     * 在{@link TaskStagingBuffer}中的后继任务
+     */
+    volatile Task<T> stagedNext;
+
+    Task(T obj, long completeTime, String queueName) {
+        this.obj = obj;
+        this.completeTime = completeTime;
+        this.queueName = queueName;
+        this.state = State.PENDING;
+    }
+
+    /**
+     * 任务的状态
+     */
+    enum State {
+
+        /**
+         * 在任务存储中等待到期
+         */
+        PENDING,
+
+        /**
+         * 已经到期,正在执行
+         */
+        RUNNING,
+
+        /**
+         * 已经执行完毕
+         */
+        DONE,
+
+        /**
+         * 已经被取消
+         */
+        CANCELLED
+    }
+}
@@ -0,0 +1,62 @@
+package com.miracle.common.round;
+
+import java.io.*;
+
+/**
+ * Description:持久化队列中元素的编解码器
+ * 元素在写入{@link TaskJournal}之前经由它编码成字节数组,调度者重启之后再经由它解码还原
+ *
+ * @author guobin On date 2018/7/17.
+ * @version 1.0
+ * @since jdk 1.8
+ * @param <T> 元素的类型
+ */
+public interface TaskCodec<T> {
+
+    /**
+     * 将元素编码成字节数组
+     * @param obj 元素
+     * @return 编码之后的字节数组
+     */
+    byte[] encode(T obj);
+
+    /**
+     * 将字节数组解码成元素
+     * @param bytes 编码之后的字节数组
+     * @return 元素
+     */
+    T decode(byte[] bytes);
+
+    /**
+     * 得到一个基于{@link Serializable}的编解码器,速度较慢,适合元素数量不多的队列
+     * @param <T> 元素的类型
+     * @return 编解码器
+     */
+    static <T extends Serializable> TaskCodec<T> serializable() {
+        return new TaskCodec<T>() {
+            @Override
+            public byte[] encode(T obj) {
+                try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                     ObjectOutputStream out = new ObjectOutputStream(baos)) {
+                    out.writeObject(obj);
+                    out.flush();
+                    return baos.toByteArray();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T decode(byte[] bytes) {
+                try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return (T) in.readObject();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                } catch (ClassNotFoundException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        };
+    }
+}
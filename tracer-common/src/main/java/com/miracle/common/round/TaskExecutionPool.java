@@ -0,0 +1,277 @@
+package com.miracle.common.round;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Description:时间片轮转调度者执行到期任务所用的执行池
+ * 在给定的{@link Executor}之上限制同时执行中的任务数量,达到上限时根据{@link SaturationPolicy}放慢或者拒绝任务的准入
+ * 被拒绝的任务不会被丢弃,而是留在任务队列中等待下一个时间片再尝试执行
+ *
+ * @author guobin On date 2018/7/13.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class TaskExecutionPool {
+
+    /**
+     * 默认的最大执行中任务数量{@value}
+     */
+    static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+
+    /**
+     * 执行任务的执行器
+     */
+    private final Executor executor;
+
+    /**
+     * 执行中任务数量的许可
+     */
+    private final Semaphore permits;
+
+    /**
+     * 最大执行中任务数量
+     */
+    private final int maxInFlight;
+
+    /**
+     * 饱和时的准入策略
+     */
+    private final SaturationPolicy saturationPolicy;
+
+    /**
+     * {@link SaturationPolicy#BLOCK}策略下每个任务等待准入的最长时间,单位毫秒
+     */
+    private final long admissionTimeout;
+
+    /**
+     * 因饱和而被推迟到下一个时间片的次数
+     */
+    private final AtomicLong rejectedCount;
+
+    /**
+     * 已经提交执行的任务数量
+     */
+    private final AtomicLong submittedCount;
+
+    /**
+     * 执行器是否由执行池自己创建,自己创建的执行器在执行池关闭时会被一并关闭
+     */
+    private final boolean ownedExecutor;
+
+    private TaskExecutionPool(Executor executor, int maxInFlight, SaturationPolicy saturationPolicy,
+                              long admissionTimeout, boolean ownedExecutor) {
+        if (executor == null || saturationPolicy == null) {
+            throw new NullPointerException("Executor and saturation policy cannot be null.");
+        }
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Max in-flight count must greater than 0.");
+        }
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+        this.saturationPolicy = saturationPolicy;
+        this.admissionTimeout = Math.max(0L, admissionTimeout);
+        this.rejectedCount = new AtomicLong();
+        this.submittedCount = new AtomicLong();
+        this.ownedExecutor = ownedExecutor;
+    }
+
+    /**
+     * 在给定的执行器之上构造一个执行池
+     * @param executor 执行器
+     * @param maxInFlight 最大执行中任务数量
+     * @param saturationPolicy 饱和时的准入策略
+     * @param admissionTimeout {@link SaturationPolicy#BLOCK}策略下每个任务等待准入的最长时间,单位毫秒
+     * @return 执行池
+     */
+    public static TaskExecutionPool of(Executor executor, int maxInFlight,
+                                       SaturationPolicy saturationPolicy, long admissionTimeout) {
+        return new TaskExecutionPool(executor, maxInFlight, saturationPolicy, admissionTimeout, false);
+    }
+
+    /**
+     * 构造一个拥有独立固定数量线程的执行池
+     * 执行池关闭时这些线程会被一并关闭
+     * @param name 线程名前缀
+     * @param threads 线程数量
+     * @param maxInFlight 最大执行中任务数量
+     * @param saturationPolicy 饱和时的准入策略
+     * @param admissionTimeout {@link SaturationPolicy#BLOCK}策略下每个任务等待准入的最长时间,单位毫秒
+     * @return 执行池
+     */
+    public static TaskExecutionPool newFixedPool(String name, int threads, int maxInFlight,
+                                                 SaturationPolicy saturationPolicy, long admissionTimeout) {
+        final AtomicInteger index = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            final Thread thread = new Thread(r);
+            thread.setName(name + "-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        return new TaskExecutionPool(executor, maxInFlight, saturationPolicy, admissionTimeout, true);
+    }
+
+    /**
+     * 关闭执行池自己创建的执行器,已经提交的任务会继续执行完毕
+     * 外界传入的执行器由外界自行管理,不会被关闭
+     */
+    void shutdown() {
+        if (this.ownedExecutor && this.executor instanceof ExecutorService) {
+            ((ExecutorService) this.executor).shutdown();
+        }
+    }
+
+    /**
+     * 尝试为一个任务获取准入许可,{@link SaturationPolicy#BLOCK}策略下饱和时会等待,
+     * 获取成功之后必须调用{@link #execute(Runnable)}或者{@link #cancelAdmission()}
+     * 可能阻塞,所以不能在推进时间片的共享调度线程中调用,那里应当使用{@link #tryAdmitNow()}
+     * @return true表示准入成功,false表示执行池已经饱和
+     */
+    boolean tryAdmit() {
+        boolean admitted = this.permits.tryAcquire();
+        if (!admitted && this.saturationPolicy == SaturationPolicy.BLOCK && this.admissionTimeout > 0) {
+            try {
+                admitted = this.permits.tryAcquire(this.admissionTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!admitted) {
+            this.rejectedCount.incrementAndGet();
+        }
+        return admitted;
+    }
+
+    /**
+     * 不论准入策略如何都不等待地尝试获取准入许可,获取成功之后必须调用{@link #execute(Runnable)}或者{@link #cancelAdmission()}
+     * @return true表示准入成功,false表示执行池已经饱和
+     */
+    boolean tryAdmitNow() {
+        final boolean admitted = this.permits.tryAcquire();
+        if (!admitted) {
+            this.rejectedCount.incrementAndGet();
+        }
+        return admitted;
+    }
+
+    /**
+     * 归还一个已经获取但没有使用的准入许可
+     */
+    void cancelAdmission() {
+        this.permits.release();
+    }
+
+    /**
+     * 执行一个已经获得准入许可的任务,任务结束之后许可会被归还
+     * @param runnable 任务
+     * @throws RejectedExecutionException 执行器拒绝执行时抛出,此时许可已经被归还
+     */
+    void execute(Runnable runnable) {
+        try {
+            this.executor.execute(() -> {
+                try {
+                    runnable.run();
+                } finally {
+                    this.permits.release();
+                }
+            });
+            this.submittedCount.incrementAndGet();
+        } catch (RejectedExecutionException ex) {
+            this.permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * 执行一个已经获得准入许可的异步任务,任务返回的阶段完成之后许可才会被归还
+     * 这样最大执行中任务数量限制的是同时进行中的异步操作,而不只是发起操作的线程
+     * @param asyncTask 发起异步操作并返回其阶段的任务
+     * @throws RejectedExecutionException 执行器拒绝执行时抛出,此时许可已经被归还
+     */
+    void executeAsync(Supplier<? extends CompletionStage<?>> asyncTask) {
+        try {
+            this.executor.execute(() -> {
+                CompletionStage<?> stage = null;
+                try {
+                    stage = asyncTask.get();
+                } finally {
+                    if (stage == null) {
+                        this.permits.release();
+                    } else {
+                        stage.whenComplete((result, error) -> this.permits.release());
+                    }
+                }
+            });
+            this.submittedCount.incrementAndGet();
+        } catch (RejectedExecutionException ex) {
+            this.permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * 得到当前执行中(包括已提交但尚未开始)的任务数量
+     * @return 执行中的任务数量
+     */
+    public int getInFlightCount() {
+        return this.maxInFlight - this.permits.availablePermits();
+    }
+
+    /**
+     * 得到最大执行中任务数量
+     * @return 最大执行中任务数量
+     */
+    public int getMaxInFlight() {
+        return this.maxInFlight;
+    }
+
+    /**
+     * 判断执行池当前是否已经饱和
+     * @return true表示已经饱和,新的到期任务会被推迟或者需要等待
+     */
+    public boolean isSaturated() {
+        return this.permits.availablePermits() == 0;
+    }
+
+    /**
+     * 得到因饱和而被推迟到下一个时间片的次数
+     * @return 被推迟的次数
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+    /**
+     * 得到已经提交执行的任务数量
+     * @return 已提交的任务数量
+     */
+    public long getSubmittedCount() {
+        return this.submittedCount.get();
+    }
+
+    public SaturationPolicy getSaturationPolicy() {
+        return saturationPolicy;
+    }
+
+    /**
+     * 执行池饱和时的准入策略
+     */
+    public enum SaturationPolicy {
+
+        /**
+         * 在给定的时间内等待许可,以放慢到期任务的准入速度,超时仍未获得许可则推迟到下一个时间片
+         * 只对在独立线程中准入的调度者生效;{@link RoundRobinDispatcher}在所有调度者共享的调度线程中准入,
+         * 等待会拖慢其它调度者,所以它总是不等待,与{@link #REJECT}相同
+         */
+        BLOCK,
+
+        /**
+         * 不等待,直接将本时间片剩余的到期任务推迟到下一个时间片
+         */
+        REJECT
+    }
+}
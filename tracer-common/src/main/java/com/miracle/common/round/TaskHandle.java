@@ -0,0 +1,24 @@
+package com.miracle.common.round;
+
+/**
+ * Description:通过{@link RoundRobinDispatcher#add}添加任务之后得到的任务句柄,用于取消任务
+ *
+ * @author guobin On date 2018/7/14.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public interface TaskHandle {
+
+    /**
+     * 取消任务,任务会立即从所在的队列中摘除
+     * 正在执行中的任务不会被打断,但执行结束之后不会再被重新放回队列
+     * @return true表示取消成功,false表示任务已经完成、已经被取消或者已经被重新添加的任务所替代
+     */
+    boolean cancel();
+
+    /**
+     * 判断任务是否已经被取消
+     * @return true表示已经被取消
+     */
+    boolean isCancelled();
+}
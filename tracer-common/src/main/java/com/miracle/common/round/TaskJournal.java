@@ -0,0 +1,517 @@
+package com.miracle.common.round;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Description:持久化队列的预写日志
+ * 日志由若干个固定大小、以内存映射方式写入的段文件组成,一个段写满之后滚动到下一个段,
+ * 每条记录以任务编号为key,分为新增、更新到期时间与删除三种,记录之前带有长度与CRC32校验,遇到不完整的记录时回放停止
+ * 日志在内存中维护所有存活任务的最新状态,历史记录的大小超过存活任务的两倍时会将存活任务重写到新的段中并删除旧段,
+ * 打开日志时同样会先回放再压缩,所以恢复的耗时只与存活任务的数量有关
+ * 被删除的段在删除之前立即解除映射,不等待缓冲区被垃圾回收,以免已经删除的文件继续占用地址空间与磁盘
+ * 所有的写入都经由{@code synchronized}串行化
+ *
+ * @author guobin On date 2018/7/17.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+class TaskJournal implements Closeable {
+
+    /**
+     * 默认的段大小{@value},单位字节
+     */
+    static final long DEFAULT_SEGMENT_SIZE = 16L * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * 记录之前的长度与校验和所占的字节数
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final byte ADD = 1;
+
+    private static final byte UPDATE = 2;
+
+    private static final byte REMOVE = 3;
+
+    /**
+     * 立即解除内存映射的方式,当前的JDK不支持时为{@code null},此时只能等待缓冲区被垃圾回收
+     */
+    private static final Consumer<MappedByteBuffer> UNMAPPER = findUnmapper();
+
+    /**
+     * 日志所在的目录
+     */
+    private final Path directory;
+
+    /**
+     * 每个段的大小
+     */
+    private final long segmentSize;
+
+    /**
+     * 所有的段,按照序号从小到大排列,最后一个是正在写入的段
+     */
+    private final List<Segment> segments;
+
+    /**
+     * 所有存活的任务,以任务编号作为key
+     */
+    private final Map<Long, Entry> live;
+
+    /**
+     * 打开日志时恢复出来、尚未被队列取走的任务,以实际队列名作为key
+     */
+    private final Map<String, List<Entry>> recovered;
+
+    /**
+     * 上一个分配出去的任务编号
+     */
+    private long lastId;
+
+    /**
+     * 所有段中已经写入的字节数
+     */
+    private long writtenBytes;
+
+    /**
+     * 将所有存活任务重写一遍所需的字节数
+     */
+    private long liveBytes;
+
+    /**
+     * 是否正在压缩,压缩期间的滚动不会再次触发压缩
+     */
+    private boolean compacting;
+
+    private boolean closed;
+
+    private TaskJournal(Path directory, long segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segments = new ArrayList<>();
+        this.live = new HashMap<>(16);
+        this.recovered = new HashMap<>(16);
+    }
+
+    /**
+     * 打开指定目录中的日志,目录中已有的段会被回放并压缩
+     * @param directory 日志所在的目录,不存在时会被创建
+     * @param segmentSize 每个段的大小,单位字节
+     * @return 日志
+     * @throws IOException 读写段文件失败时抛出
+     */
+    static TaskJournal open(Path directory, long segmentSize) throws IOException {
+        if (segmentSize <= RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size is too small.");
+        }
+        Files.createDirectories(directory);
+        final TaskJournal journal = new TaskJournal(directory, segmentSize);
+        final List<Path> oldSegments = journal.listSegments();
+        for (Path path : oldSegments) {
+            journal.replay(path);
+        }
+        journal.live.values().forEach(entry ->
+                journal.recovered.computeIfAbsent(entry.queueName, k -> new ArrayList<>()).add(entry));
+        synchronized (journal) {
+            final long nextSequence = oldSegments.isEmpty() ? 0L : sequenceOf(oldSegments.get(oldSegments.size() - 1)) + 1;
+            journal.rewrite(nextSequence);
+        }
+        for (Path path : oldSegments) {
+            Files.deleteIfExists(path);
+        }
+        return journal;
+    }
+
+    /**
+     * 取走打开日志时恢复出来的属于指定队列的任务,每个队列只能取走一次
+     * 取走之后任务仍然存活在日志中,直到被删除
+     * @param queueName 实际队列名
+     * @return 恢复出来的任务,没有时返回空列表
+     */
+    synchronized List<Entry> recover(String queueName) {
+        return Optional.ofNullable(this.recovered.remove(queueName)).orElse(Collections.emptyList());
+    }
+
+    /**
+     * 记录一个新增的任务
+     * @param queueName 实际队列名
+     * @param completeTime 到期时间
+     * @param payload 编码之后的元素
+     * @return 分配给任务的编号
+     */
+    synchronized long add(String queueName, long completeTime, byte[] payload) {
+        this.checkOpen();
+        final Entry entry = new Entry(++this.lastId, queueName, completeTime, payload);
+        this.live.put(entry.id, entry);
+        this.liveBytes += RECORD_HEADER_SIZE + entry.encodedSize();
+        this.append(entry.encode());
+        return entry.id;
+    }
+
+    /**
+     * 记录一个任务新的到期时间
+     * @param id 任务编号
+     * @param completeTime 到期时间
+     */
+    synchronized void update(long id, long completeTime) {
+        final Entry entry = this.live.get(id);
+        if (entry == null || this.closed) {
+            return;
+        }
+        entry.completeTime = completeTime;
+        this.append(ByteBuffer.allocate(17).put(UPDATE).putLong(id).putLong(completeTime).array());
+    }
+
+    /**
+     * 记录一个任务已经完成或者被取消
+     * @param id 任务编号
+     */
+    synchronized void remove(long id) {
+        final Entry entry = this.closed ? null : this.live.remove(id);
+        if (entry == null) {
+            return;
+        }
+        this.liveBytes -= RECORD_HEADER_SIZE + entry.encodedSize();
+        this.append(ByteBuffer.allocate(9).put(REMOVE).putLong(id).array());
+    }
+
+    /**
+     * 得到存活任务的数量
+     * @return 存活任务的数量
+     */
+    synchronized int size() {
+        return this.live.size();
+    }
+
+    /**
+     * 将正在写入的段刷到磁盘并关闭日志,关闭之后的写入会被忽略
+     */
+    @Override
+    public synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        if (!this.segments.isEmpty()) {
+            this.segments.get(this.segments.size() - 1).buffer.force();
+        }
+        // 关闭之后不会再有写入,所有段都可以解除映射
+        this.segments.forEach(segment -> unmap(segment.buffer));
+        this.segments.clear();
+    }
+
+    /**
+     * 追加一条记录,当前段放不下时滚动到下一个段
+     * @param body 记录的内容
+     */
+    private void append(byte[] body) {
+        final int recordSize = RECORD_HEADER_SIZE + body.length;
+        MappedByteBuffer buffer = this.segments.get(this.segments.size() - 1).buffer;
+        if (buffer.remaining() < recordSize) {
+            this.roll(recordSize);
+            if (!this.compacting && this.writtenBytes > 2 * this.liveBytes) {
+                // 压缩时会重写包括本条记录所对应状态在内的所有存活任务,所以本条记录无需再写
+                this.rewrite(this.segments.get(this.segments.size() - 1).sequence + 1);
+                return;
+            }
+            buffer = this.segments.get(this.segments.size() - 1).buffer;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        buffer.putInt(body.length).putInt((int) crc.getValue()).put(body);
+        this.writtenBytes += recordSize;
+    }
+
+    /**
+     * 将当前段刷到磁盘,并创建下一个段
+     * @param minSize 新的段至少需要容纳的字节数
+     */
+    private void roll(int minSize) {
+        final long sequence = this.segments.isEmpty() ? 0L : this.segments.get(this.segments.size() - 1).sequence + 1;
+        if (!this.segments.isEmpty()) {
+            this.segments.get(this.segments.size() - 1).buffer.force();
+        }
+        this.segments.add(this.newSegment(sequence, Math.max(this.segmentSize, minSize + RECORD_HEADER_SIZE)));
+    }
+
+    /**
+     * 将所有存活任务重写到从给定序号开始的新段中,然后删除所有旧段
+     * 新段写完之前旧段不会被删除,中途崩溃时回放旧段之后再回放新段得到的结果与压缩之前相同
+     * 旧段在删除之前解除映射,此时日志中已经没有任何对它们的引用
+     * @param sequence 新段的起始序号
+     */
+    private void rewrite(long sequence) {
+        final List<Segment> oldSegments = new ArrayList<>(this.segments);
+        this.compacting = true;
+        try {
+            this.segments.clear();
+            this.segments.add(this.newSegment(sequence, this.segmentSize));
+            this.writtenBytes = 0L;
+            for (Entry entry : this.live.values()) {
+                this.append(entry.encode());
+            }
+            this.segments.get(this.segments.size() - 1).buffer.force();
+        } finally {
+            this.compacting = false;
+        }
+        for (Segment segment : oldSegments) {
+            unmap(segment.buffer);
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * 创建并映射一个新的段文件
+     * @param sequence 段的序号
+     * @param size 段的大小
+     * @return 段
+     */
+    private Segment newSegment(long sequence, long size) {
+        final Path path = this.directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // 映射在通道关闭之后仍然有效
+            return new Segment(sequence, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * 回放一个段中的所有记录
+     * @param path 段文件
+     * @throws IOException 读取失败时抛出
+     */
+    private void replay(Path path) throws IOException {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            this.replay(buffer);
+        } finally {
+            unmap(buffer);
+        }
+    }
+
+    /**
+     * 回放一个已经映射的段中的记录,直到段中写入的末尾或者第一条不完整的记录
+     * @param buffer 段的映射
+     */
+    private void replay(MappedByteBuffer buffer) {
+        final CRC32 crc = new CRC32();
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            final int length = buffer.getInt();
+            final int checksum = buffer.getInt();
+            // 长度为0说明已经到达段中写入的末尾,校验失败说明记录没有写完整
+            if (length <= 0 || length > buffer.remaining()) {
+                return;
+            }
+            final byte[] body = new byte[length];
+            buffer.get(body);
+            crc.reset();
+            crc.update(body, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                return;
+            }
+            this.apply(ByteBuffer.wrap(body));
+        }
+    }
+
+    /**
+     * 将一条记录应用到存活任务上
+     * @param body 记录的内容
+     */
+    private void apply(ByteBuffer body) {
+        final byte type = body.get();
+        final long id = body.getLong();
+        this.lastId = Math.max(this.lastId, id);
+        switch (type) {
+            case ADD:
+                final long completeTime = body.getLong();
+                final byte[] queueName = new byte[body.getShort()];
+                body.get(queueName);
+                final byte[] payload = new byte[body.getInt()];
+                body.get(payload);
+                final Entry entry = new Entry(id, new String(queueName, StandardCharsets.UTF_8), completeTime, payload);
+                Optional.ofNullable(this.live.put(id, entry))
+                        .ifPresent(old -> this.liveBytes -= RECORD_HEADER_SIZE + old.encodedSize());
+                this.liveBytes += RECORD_HEADER_SIZE + entry.encodedSize();
+                break;
+            case UPDATE:
+                final long updatedTime = body.getLong();
+                Optional.ofNullable(this.live.get(id)).ifPresent(e -> e.completeTime = updatedTime);
+                break;
+            case REMOVE:
+                Optional.ofNullable(this.live.remove(id))
+                        .ifPresent(old -> this.liveBytes -= RECORD_HEADER_SIZE + old.encodedSize());
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type + ".");
+        }
+    }
+
+    /**
+     * 列出目录中所有的段文件,按照序号从小到大排列
+     * @return 段文件
+     * @throws IOException 读取目录失败时抛出
+     */
+    private List<Path> listSegments() throws IOException {
+        final List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(paths::add);
+        }
+        paths.sort(Comparator.comparingLong(TaskJournal::sequenceOf));
+        return paths;
+    }
+
+    private static long sequenceOf(Path path) {
+        final String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * 立即解除一个缓冲区的内存映射,调用之后不能再访问该缓冲区
+     * @param buffer 不再使用的映射
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        Optional.ofNullable(UNMAPPER).ifPresent(unmapper -> unmapper.accept(buffer));
+    }
+
+    /**
+     * 查找当前JDK中解除内存映射的方式
+     * JDK 9及以上通过{@code sun.misc.Unsafe#invokeCleaner},JDK 8通过缓冲区自身的{@code cleaner()}
+     * @return 解除映射的方式,都不可用时返回{@code null}
+     */
+    private static Consumer<MappedByteBuffer> findUnmapper() {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            return buffer -> invoke(invokeCleaner, unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // JDK 8没有invokeCleaner
+        }
+        try {
+            final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> Optional.ofNullable(invoke(cleaner, buffer)).ifPresent(target -> invoke(clean, target));
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Failed to unmap journal segment.", ex);
+        }
+    }
+
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("Task journal has been closed.");
+        }
+    }
+
+    /**
+     * 日志中的一个段
+     */
+    private static class Segment {
+
+        private final long sequence;
+
+        private final Path path;
+
+        private final MappedByteBuffer buffer;
+
+        Segment(long sequence, Path path, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * 日志中一个存活的任务
+     */
+    static class Entry {
+
+        /**
+         * 任务编号
+         */
+        final long id;
+
+        /**
+         * 任务所在的实际队列名
+         */
+        final String queueName;
+
+        /**
+         * 任务最新的到期时间
+         */
+        long completeTime;
+
+        /**
+         * 编码之后的元素
+         */
+        final byte[] payload;
+
+        private final byte[] encodedQueueName;
+
+        Entry(long id, String queueName, long completeTime, byte[] payload) {
+            this.id = id;
+            this.queueName = queueName;
+            this.completeTime = completeTime;
+            this.payload = payload;
+            this.encodedQueueName = queueName.getBytes(StandardCharsets.UTF_8);
+        }
+
+        private int encodedSize() {
+            return 1 + 8 + 8 + 2 + this.encodedQueueName.length + 4 + this.payload.length;
+        }
+
+        /**
+         * 编码成一条新增记录
+         * @return 记录的内容
+         */
+        private byte[] encode() {
+            return ByteBuffer.allocate(this.encodedSize())
+                    .put(ADD)
+                    .putLong(this.id)
+                    .putLong(this.completeTime)
+                    .putShort((short) this.encodedQueueName.length)
+                    .put(this.encodedQueueName)
+                    .putInt(this.payload.length)
+                    .put(this.payload)
+                    .array();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.miracle.common.round;
+
+/**
+ * Description:以{@link Task}自身作为节点的双向链表
+ * 增加、删除操作都是O(1)的,整表转移的代价与被转移的任务数量成正比,用作时间轮的槽位
+ * 该类不是线程安全的
+ *
+ * @author guobin On date 2018/7/12.
+ * @version 1.0
+ * @since jdk 1.8
+ * @param <T> 任务持有的数据类型
+ */
+class TaskList<T> {
+
+    /**
+     * 头节点
+     */
+    private Task<T> head;
+
+    /**
+     * 尾节点
+     */
+    private Task<T> tail;
+
+    /**
+     * 链表中的任务数量
+     */
+    private int size;
+
+    /**
+     * 在链表尾部增加一个任务
+     * @param task 任务,不能已经处于其他链表中
+     */
+    void add(Task<T> task) {
+        task.list = this;
+        task.prev = this.tail;
+        task.next = null;
+        if (this.tail == null) {
+            this.head = task;
+        } else {
+            this.tail.next = task;
+        }
+        this.tail = task;
+        this.size++;
+    }
+
+    /**
+     * 从链表中摘除一个任务
+     * @param task 任务
+     * @return true表示摘除成功,false表示任务并不在该链表中
+     */
+    boolean remove(Task<T> task) {
+        if (task.list != this) {
+            return false;
+        }
+        if (task.prev == null) {
+            this.head = task.next;
+        } else {
+            task.prev.next = task.next;
+        }
+        if (task.next == null) {
+            this.tail = task.prev;
+        } else {
+            task.next.prev = task.prev;
+        }
+        task.prev = null;
+        task.next = null;
+        task.list = null;
+        this.size--;
+        return true;
+    }
+
+    /**
+     * 取出链表的头节点
+     * @return 头节点,链表为空时返回{@code null}
+     */
+    Task<T> poll() {
+        final Task<T> first = this.head;
+        if (first != null) {
+            this.remove(first);
+        }
+        return first;
+    }
+
+    /**
+     * 得到链表的头节点但不取出
+     * @return 头节点,链表为空时返回{@code null}
+     */
+    Task<T> peek() {
+        return this.head;
+    }
+
+    /**
+     * 将本链表中的所有任务整体接到另一个链表的尾部,本链表会被清空
+     * @param other 目标链表
+     */
+    void transferTo(TaskList<T> other) {
+        if (this.head == null) {
+            return;
+        }
+        for (Task<T> task = this.head; task != null; task = task.next) {
+            task.list = other;
+        }
+        if (other.tail == null) {
+            other.head = this.head;
+        } else {
+            other.tail.next = this.head;
+            this.head.prev = other.tail;
+        }
+        other.tail = this.tail;
+        other.size += this.size;
+        this.head = null;
+        this.tail = null;
+        this.size = 0;
+    }
+
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    int size() {
+        return this.size;
+    }
+}
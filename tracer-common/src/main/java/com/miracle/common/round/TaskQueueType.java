@@ -0,0 +1,51 @@
+package com.miracle.common.round;
+
+/**
+ * Description:时间片轮转调度者中任务队列的实现类型
+ *
+ * @author guobin On date 2018/7/12.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public enum TaskQueueType {
+
+    /**
+     * 优先级队列,放入、取出与摘除的代价都是O(log n),适用于任务量较少的场景
+     */
+    PRIORITY_QUEUE {
+        @Override
+        <E> TaskStore<E> newStore(long timeSlice, long origin) {
+            return new PriorityTaskStore<>();
+        }
+    },
+
+    /**
+     * 分层哈希时间轮,放入与到期的代价都是O(1),适用于同时存在大量待执行任务的场景
+     */
+    TIMING_WHEEL {
+        @Override
+        <E> TaskStore<E> newStore(long timeSlice, long origin) {
+            return new HashedWheelTaskStore<>(timeSlice, origin);
+        }
+    },
+
+    /**
+     * 以基本类型数组实现的二叉堆,放入、取出与摘除的代价都是O(log n),稳定状态下重新放回任务不会分配内存,
+     * 适用于大量任务频繁重新放回、需要降低GC压力的场景
+     */
+    PRIMITIVE_HEAP {
+        @Override
+        <E> TaskStore<E> newStore(long timeSlice, long origin) {
+            return new PrimitiveTaskHeap<>();
+        }
+    };
+
+    /**
+     * 创建一个任务存储
+     * @param timeSlice 时间片大小
+     * @param origin 时间片的起始时间
+     * @param <E> 任务持有的数据类型
+     * @return 任务存储
+     */
+    abstract <E> TaskStore<E> newStore(long timeSlice, long origin);
+}
@@ -0,0 +1,60 @@
+package com.miracle.common.round;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Description:新添加任务的暂存缓冲,多个生产者、单个消费者
+ * 生产者只需要一次原子的交换就可以放入任务,不会等待其它线程,也不需要持有队列的锁;
+ * 消费者是持有队列锁的线程,它把暂存的任务依次取出并放入任务存储
+ * 缓冲以任务自身的{@link Task#stagedNext}串联,放入任务不会额外分配链表节点
+ * 生产者交换尾节点之后、链接前驱之前的瞬间,消费者会暂时看不到该任务及其后的任务,它们会在下一次取出时出现
+ *
+ * @author guobin On date 2018/7/24.
+ * @version 1.0
+ * @since jdk 1.8
+ * @param <E> 任务持有的数据类型
+ */
+class TaskStagingBuffer<E> {
+
+    /**
+     * 最后放入的任务,生产者之间通过交换它来排队
+     */
+    private final AtomicReference<Task<E>> tail;
+
+    /**
+     * 最后取出的任务,只由消费者访问,初始时是一个不持有数据的哨兵
+     */
+    private Task<E> head;
+
+    TaskStagingBuffer() {
+        final Task<E> stub = new Task<>(null, 0L, null);
+        this.head = stub;
+        this.tail = new AtomicReference<>(stub);
+    }
+
+    /**
+     * 放入一个任务,可以被任意线程同时调用
+     * @param task 新的任务
+     */
+    void push(Task<E> task) {
+        task.stagedNext = null;
+        final Task<E> prev = this.tail.getAndSet(task);
+        prev.stagedNext = task;
+    }
+
+    /**
+     * 取出最早放入的任务,调用方需要持有队列的锁
+     * 取出的任务会成为新的哨兵,直到下一次取出之前都被缓冲引用
+     * @return 任务,没有可以取出的任务时返回{@code null}
+     */
+    Task<E> poll() {
+        final Task<E> next = this.head.stagedNext;
+        if (next == null) {
+            return null;
+        }
+        // 断开旧哨兵的链接,以免已经取出的任务通过它保持可达
+        this.head.stagedNext = null;
+        this.head = next;
+        return next;
+    }
+}
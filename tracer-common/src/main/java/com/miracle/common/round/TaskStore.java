@@ -0,0 +1,47 @@
+package com.miracle.common.round;
+
+/**
+ * Description:任务队列中任务的存储结构
+ * 负责按照任务的到期时间组织任务,并在每个时间片取出已经到期的任务
+ * 实现类不需要是线程安全的,并发控制由{@link RoundRobinDispatcher}负责
+ *
+ * @author guobin On date 2018/7/12.
+ * @version 1.0
+ * @since jdk 1.8
+ * @param <E> 任务持有的数据类型
+ */
+interface TaskStore<E> {
+
+    /**
+     * 放入一个任务
+     * @param task 任务
+     */
+    void offer(Task<E> task);
+
+    /**
+     * 取出一个到期时间不晚于给定截止时间的任务
+     * @param deadline 截止时间
+     * @return 到期的任务,如果已经没有到期任务则返回{@code null}
+     */
+    Task<E> pollExpired(long deadline);
+
+    /**
+     * 将一个尚未到期取出的任务从存储中摘除
+     * @param task 任务
+     * @return true表示摘除成功,false表示任务不在存储中
+     */
+    boolean remove(Task<E> task);
+
+    /**
+     * 得到存储中最早的任务到期时间,用于决定调度线程下一次醒来的时间
+     * 返回值可以早于真实的最早到期时间,但不能晚于它
+     * @return 最早的任务到期时间,存储为空时返回{@link Long#MAX_VALUE}
+     */
+    long nextExpireTime();
+
+    /**
+     * 得到存储中的任务数量
+     * @return 任务数量
+     */
+    int size();
+}
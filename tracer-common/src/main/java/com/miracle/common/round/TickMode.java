@@ -0,0 +1,28 @@
+package com.miracle.common.round;
+
+/**
+ * Description:时间片轮转调度者的调度线程推进时间片的方式
+ *
+ * @author guobin On date 2018/7/15.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public enum TickMode {
+
+    /**
+     * 每个时间片都醒来检查一次所有队列,即使没有任何任务到期
+     */
+    FIXED_RATE,
+
+    /**
+     * 只在最早的任务到期的那个时间片醒来,队列为空时一直休眠
+     * 添加了更早到期的任务时会被提前唤醒,醒来时截止时间仍然按整数个时间片推进
+     */
+    ADAPTIVE,
+
+    /**
+     * 不安排任何醒来,由外界调用{@link RoundRobinDispatcher#tick()}推进,截止时间的计算方式与{@link #ADAPTIVE}相同
+     * 一般与{@link VirtualClock}配合用于测试与模拟
+     */
+    MANUAL
+}
@@ -0,0 +1,76 @@
+package com.miracle.common.round;
+
+/**
+ * Description:限制任务队列提交速率的令牌桶
+ * 令牌以固定的速率生成,最多积攒到桶的容量,每提交一个任务消耗一个令牌,令牌不足时剩余的到期任务留到下一个时间片
+ * 令牌桶不是线程安全的,由所在任务队列的锁保护
+ *
+ * @author guobin On date 2018/7/20.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+class TokenBucket {
+
+    /**
+     * 每毫秒生成的令牌数
+     */
+    private final double tokensPerMillis;
+
+    /**
+     * 桶的容量,即允许的最大突发数量
+     */
+    private final double capacity;
+
+    /**
+     * 当前的令牌数
+     */
+    private double tokens;
+
+    /**
+     * 上一次生成令牌的时间
+     */
+    private long lastRefillTime;
+
+    /**
+     * 构造一个装满令牌的令牌桶
+     * @param tokensPerSecond 每秒生成的令牌数
+     * @param capacity 桶的容量
+     * @param now 当前时间
+     */
+    TokenBucket(double tokensPerSecond, int capacity, long now) {
+        this.tokensPerMillis = tokensPerSecond / 1000D;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefillTime = now;
+    }
+
+    /**
+     * 生成从上一次到现在这段时间中的令牌
+     * @param now 当前时间
+     */
+    void refill(long now) {
+        if (now > this.lastRefillTime) {
+            this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefillTime) * this.tokensPerMillis);
+            this.lastRefillTime = now;
+        }
+    }
+
+    /**
+     * 尝试消耗一个令牌
+     * @return true表示消耗成功,false表示令牌不足
+     */
+    boolean tryConsume() {
+        if (this.tokens < 1D) {
+            return false;
+        }
+        this.tokens -= 1D;
+        return true;
+    }
+
+    /**
+     * 归还一个消耗之后没有用到的令牌
+     */
+    void refund() {
+        this.tokens = Math.min(this.capacity, this.tokens + 1D);
+    }
+}
@@ -0,0 +1,44 @@
+package com.miracle.common.round;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Description:只在外界推进时才会流逝的虚拟时钟
+ * 与{@link TickMode#MANUAL}模式的调度者配合使用,可以在不等待真实时间的情况下模拟长时间的运行
+ *
+ * @author guobin On date 2018/7/18.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class VirtualClock implements DispatcherClock {
+
+    /**
+     * 当前时间
+     */
+    private final AtomicLong now;
+
+    public VirtualClock() {
+        this(0L);
+    }
+
+    public VirtualClock(long startTime) {
+        this.now = new AtomicLong(startTime);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return this.now.get();
+    }
+
+    /**
+     * 将时钟向前推进给定的时长
+     * @param millis 推进的时长,单位毫秒
+     * @return 推进之后的时间
+     */
+    public long advance(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Virtual clock cannot go backwards.");
+        }
+        return this.now.addAndGet(millis);
+    }
+}
@@ -0,0 +1,167 @@
+package com.miracle.base;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Description:需要真实Redis的测试所用的连接
+ * Redis的地址由系统属性{@value #HOST_PROPERTY}与{@value #PORT_PROPERTY}指定,默认为本机的6379端口,
+ * 与本地环境的配置一致;连接不上时跳过测试,而不是让没有Redis的构建失败
+ * 不需要Redis的测试可以用{@link ScriptRecorder}记录Lua脚本的调用,校验传入的KEYS与ARGV与脚本中的引用一致
+ *
+ * @author guobin On date 2018/7/27.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public final class RedisTestSupport implements AutoCloseable {
+
+    public static final String HOST_PROPERTY = "tracer.test.redis.host";
+
+    public static final String PORT_PROPERTY = "tracer.test.redis.port";
+
+    private final LettuceConnectionFactory connectionFactory;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final List<RedisMessageListenerContainer> listenerContainers;
+
+    private RedisTestSupport(LettuceConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+        this.listenerContainers = new ArrayList<>();
+    }
+
+    /**
+     * 连接测试用的Redis,连接不上时跳过当前测试
+     * @return 测试用的连接
+     */
+    public static RedisTestSupport connectOrSkip() {
+        final RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getProperty(HOST_PROPERTY, "127.0.0.1"), Integer.getInteger(PORT_PROPERTY, 6379));
+        final LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(configuration,
+                LettuceClientConfiguration.builder().commandTimeout(Duration.ofSeconds(2)).build());
+        connectionFactory.afterPropertiesSet();
+        try {
+            connectionFactory.getConnection().ping();
+        } catch (RuntimeException ex) {
+            connectionFactory.destroy();
+            Assume.assumeNoException("Redis is not reachable.", ex);
+        }
+        return new RedisTestSupport(connectionFactory);
+    }
+
+    public RedisConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    public StringRedisTemplate getRedisTemplate() {
+        return redisTemplate;
+    }
+
+    /**
+     * 创建并启动一个监听容器,随连接一起关闭
+     * @return 监听容器
+     */
+    public RedisMessageListenerContainer newListenerContainer() {
+        final RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(this.connectionFactory);
+        container.afterPropertiesSet();
+        container.start();
+        this.listenerContainers.add(container);
+        return container;
+    }
+
+    /**
+     * 删除测试写入的key
+     * @param keys 测试写入的key
+     */
+    public void delete(Collection<String> keys) {
+        this.redisTemplate.delete(keys);
+    }
+
+    @Override
+    public void close() {
+        for (RedisMessageListenerContainer container : this.listenerContainers) {
+            try {
+                container.destroy();
+            } catch (Exception ex) {
+                // 只是测试结束时的清理
+            }
+        }
+        this.connectionFactory.destroy();
+    }
+
+    /**
+     * 只记录Lua脚本调用的Redis模板,不连接Redis
+     */
+    public static final class ScriptRecorder extends StringRedisTemplate {
+
+        private static final Pattern KEYS_REFERENCE = Pattern.compile("KEYS\\[(\\d+)]");
+
+        private static final Pattern ARGV_REFERENCE = Pattern.compile("ARGV\\[(\\d+)]");
+
+        private RedisScript<?> script;
+
+        private List<String> keys;
+
+        private List<Object> args;
+
+        private Object result;
+
+        /**
+         * 设置之后的脚本调用返回的结果
+         * @param result 结果
+         */
+        public void willReturn(Object result) {
+            this.result = result;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+            this.script = script;
+            this.keys = keys;
+            this.args = Arrays.asList(args);
+            return (T) this.result;
+        }
+
+        /**
+         * 校验上一次脚本调用传入的KEYS与ARGV,并且脚本引用的KEYS与ARGV的数量与传入的数量相同
+         * @param expectedKeys 期望的KEYS,按顺序
+         * @param expectedArgs 期望的ARGV,按顺序
+         */
+        public void assertCalled(List<String> expectedKeys, Object... expectedArgs) {
+            Assert.assertNotNull("No script was executed.", this.script);
+            Assert.assertEquals(expectedKeys, this.keys);
+            Assert.assertEquals(Arrays.asList(expectedArgs), this.args);
+            final String source = this.script.getScriptAsString();
+            Assert.assertEquals(source, this.keys.size(), maxReference(KEYS_REFERENCE, source));
+            Assert.assertEquals(source, this.args.size(), maxReference(ARGV_REFERENCE, source));
+            this.script = null;
+        }
+
+        private static int maxReference(Pattern pattern, String source) {
+            final Matcher matcher = pattern.matcher(source);
+            int max = 0;
+            while (matcher.find()) {
+                max = Math.max(max, Integer.parseInt(matcher.group(1)));
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.miracle.common.lock;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Description:进程内的资源锁租约存储,以与Redis相同的语义代替Redis用于测试
+ * 所有操作都在同一个监视器下完成,租约按系统时间过期,删除租约之后在监视器之外同步地通知订阅者
+ * 多个{@link RedisResourceLock}共享同一个实例即可模拟多个节点
+ *
+ * @author guobin On date 2018/7/26.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+class InMemoryLockLeaseStore implements LockLeaseStore {
+
+    /**
+     * 租约的持有者
+     */
+    private final Map<String, String> owners = new HashMap<>();
+
+    /**
+     * 租约的过期时间
+     */
+    private final Map<String, Long> expireTimes = new HashMap<>();
+
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public synchronized boolean setIfAbsent(String key, String owner, long leaseMillis) {
+        if (this.getOwner(key) != null) {
+            return false;
+        }
+        this.owners.put(key, owner);
+        this.expireTimes.put(key, System.currentTimeMillis() + leaseMillis);
+        return true;
+    }
+
+    @Override
+    public synchronized String getOwner(String key) {
+        final Long expireTime = this.expireTimes.get(key);
+        if (expireTime != null && expireTime <= System.currentTimeMillis()) {
+            this.owners.remove(key);
+            this.expireTimes.remove(key);
+        }
+        return this.owners.get(key);
+    }
+
+    @Override
+    public synchronized boolean renew(String key, String owner, long leaseMillis) {
+        if (!owner.equals(this.getOwner(key))) {
+            return false;
+        }
+        this.expireTimes.put(key, System.currentTimeMillis() + leaseMillis);
+        return true;
+    }
+
+    @Override
+    public boolean compareAndDelete(String key, String owner) {
+        synchronized (this) {
+            if (!owner.equals(this.getOwner(key))) {
+                return false;
+            }
+            this.owners.remove(key);
+            this.expireTimes.remove(key);
+        }
+        this.listeners.forEach(listener -> listener.accept(key));
+        return true;
+    }
+
+    @Override
+    public boolean delete(String key) {
+        synchronized (this) {
+            if (this.getOwner(key) == null) {
+                return false;
+            }
+            this.owners.remove(key);
+            this.expireTimes.remove(key);
+        }
+        this.listeners.forEach(listener -> listener.accept(key));
+        return true;
+    }
+
+    @Override
+    public void subscribe(Consumer<String> listener) {
+        this.listeners.add(listener);
+    }
+}
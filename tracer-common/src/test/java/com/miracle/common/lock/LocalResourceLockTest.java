@@ -0,0 +1,159 @@
+package com.miracle.common.lock;
+
+import com.miracle.base.BaseTest;
+import com.miracle.common.metrics.SpaceSavingSketch;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:{@link LocalResourceLock}的测试类
+ *
+ * @author guobin On date 2018/7/25.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class LocalResourceLockTest extends BaseTest {
+
+    @Test
+    public void reenterAndHoldSeveralKeys() throws Exception {
+        final ResourceLock lock = new LocalResourceLock();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(lock.tryLock("user-1"));
+            assertTrue(lock.tryLock("user-1"));
+            assertTrue(lock.tryLock("user-2"));
+            // 解锁一个资源之后仍然是其它资源的持有者
+            assertTrue(lock.unlock("user-2"));
+            assertTrue(lock.unlock("user-1"));
+            assertFalse(executor.submit(() -> lock.tryLock("user-1")).get());
+            assertTrue(lock.unlock("user-1"));
+            assertTrue(executor.submit(() -> lock.tryLock("user-1")).get());
+            assertFalse(lock.unlock("user-1"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void acquireAsyncByRetrying() throws Exception {
+        final ResourceLock lock = new LocalResourceLock(10L);
+        assertTrue(lock.tryLock("user-1"));
+        final CompletableFuture<LockHandle> waiting = lock.acquireAsync("user-1", 1, TimeUnit.SECONDS);
+        final CompletableFuture<LockHandle> expired = lock.acquireAsync("user-1", 30, TimeUnit.MILLISECONDS);
+        try {
+            expired.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+        assertTrue(lock.unlock("user-1"));
+        // 句柄持有的锁不属于任何线程,只能通过关闭句柄释放
+        final LockHandle handle = waiting.get(1, TimeUnit.SECONDS);
+        assertFalse(lock.tryLock("user-1"));
+        assertFalse(lock.unlock("user-1"));
+        handle.close();
+        assertTrue(lock.tryLock("user-1"));
+        assertTrue(lock.unlock("user-1"));
+    }
+
+    @Test
+    public void expireStaleLeases() throws Exception {
+        final LocalResourceLock lock = new LocalResourceLock(10L, 100L);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // 正常解锁的租约不会被计为到期
+            assertTrue(lock.tryLock("user-1"));
+            assertTrue(lock.unlock("user-1"));
+            // 持有锁的线程卡住之后,租约到期时锁被释放
+            assertTrue(executor.submit(() -> lock.tryLock("user-1")).get());
+            final long start = System.currentTimeMillis();
+            assertTrue(lock.tryLock("user-1", 1, TimeUnit.SECONDS));
+            assertTrue(System.currentTimeMillis() - start >= 50);
+            assertEquals(1L, lock.getExpiredLeaseCount());
+            // 失效的线程不能再释放别人持有的锁
+            assertFalse(executor.submit(() -> lock.unlock("user-1")).get());
+            assertTrue(lock.unlock("user-1"));
+            Thread.sleep(250);
+            assertEquals(1L, lock.getExpiredLeaseCount());
+        } finally {
+            executor.shutdownNow();
+            lock.shutdown();
+        }
+    }
+
+    @Test
+    public void wakeAsyncOnExpiry() throws Exception {
+        // 重试间隔很长,异步获取只有在租约到期时被唤醒才能及时完成
+        final LocalResourceLock lock = new LocalResourceLock(5000L, 100L);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(executor.submit(() -> lock.tryLock("user-1")).get());
+            final long start = System.currentTimeMillis();
+            final LockHandle handle = lock.acquireAsync("user-1", 3, TimeUnit.SECONDS).get(3, TimeUnit.SECONDS);
+            assertTrue(System.currentTimeMillis() - start < 1000);
+            assertEquals(1L, lock.getExpiredLeaseCount());
+            handle.close();
+        } finally {
+            executor.shutdownNow();
+            lock.shutdown();
+        }
+    }
+
+    @Test
+    public void stopSweepingWhenUnreachable() throws Exception {
+        // 没有调用shutdown()的资源锁不会被共享定时器上的清理任务一直持有
+        final WeakReference<LocalResourceLock> reference = new WeakReference<>(new LocalResourceLock(10L, 100L));
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(reference.get());
+    }
+
+    @Test
+    public void profileContention() throws Exception {
+        final LocalResourceLock lock = new LocalResourceLock(10L);
+        final LockContentionProfiler profiler = LockContentionProfiler.create(4);
+        lock.setContentionProfiler(profiler);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // 没有竞争的获取只记录持有时长
+            for (int i = 0; i < 10; i++) {
+                assertTrue(lock.tryLock("cold-" + i));
+                assertTrue(lock.unlock("cold-" + i));
+            }
+            assertEquals(0L, profiler.getContentionCount());
+            assertEquals(10L, profiler.getHoldNanos().getCount());
+
+            // 其它线程持有锁时等待并重试
+            assertTrue(executor.submit(() -> lock.tryLock("hot")).get());
+            executor.submit(() -> {
+                Thread.sleep(100);
+                return lock.unlock("hot");
+            });
+            assertTrue(lock.tryLock("hot", 1, TimeUnit.SECONDS));
+            assertFalse(executor.submit(() -> lock.tryLock("hot", 30, TimeUnit.MILLISECONDS)).get());
+            assertTrue(lock.unlock("hot"));
+
+            assertEquals(2L, profiler.getContentionCount());
+            assertTrue(profiler.getWaitNanos().getMax() >= TimeUnit.MILLISECONDS.toNanos(50));
+            assertTrue(profiler.getRetries().getMax() >= 2);
+            assertTrue(profiler.getHoldNanos().getMax() >= TimeUnit.MILLISECONDS.toNanos(50));
+            final List<SpaceSavingSketch.Counter<String>> hottest = profiler.getHottestKeys(1);
+            assertEquals("hot", hottest.get(0).getKey());
+            assertEquals(2L, hottest.get(0).getCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.miracle.common.lock;
+
+import com.miracle.base.BaseTest;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:{@link ParkingResourceLock}的测试类
+ *
+ * @author guobin On date 2018/7/25.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class ParkingResourceLockTest extends BaseTest {
+
+    @Test
+    public void excludeOtherThreads() throws Exception {
+        final ResourceLock lock = new ParkingResourceLock();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final AtomicInteger holders = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        final int[] counter = new int[1];
+        try {
+            final CountDownLatch done = new CountDownLatch(8);
+            for (int i = 0; i < 8; i++) {
+                executor.execute(() -> {
+                    for (int j = 0; j < 2000; j++) {
+                        lock.lock("counter");
+                        try {
+                            overlapped.compareAndSet(false, holders.incrementAndGet() > 1);
+                            counter[0]++;
+                            holders.decrementAndGet();
+                        } finally {
+                            assertTrue(lock.unlock("counter"));
+                        }
+                    }
+                    done.countDown();
+                });
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertFalse(overlapped.get());
+        assertEquals(16000, counter[0]);
+        // 不同的资源key互不影响,解锁之后可以再次获取
+        assertTrue(lock.tryLock("counter"));
+        assertTrue(lock.tryLock("other"));
+        assertTrue(lock.unlock("counter"));
+        assertTrue(lock.unlock("other"));
+    }
+
+    @Test
+    public void timeoutAndInterrupt() throws Exception {
+        final ResourceLock lock = new ParkingResourceLock();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(lock.tryLock("key"));
+            // 其它线程等待超时之后返回false,不是持有锁的线程不能解锁
+            final long start = System.currentTimeMillis();
+            assertFalse(executor.submit(() -> lock.tryLock("key", 100, TimeUnit.MILLISECONDS)).get());
+            assertTrue(System.currentTimeMillis() - start >= 100);
+            assertFalse(executor.submit(() -> lock.unlock("key")).get());
+
+            // 等待期间被中断时返回false并保留中断状态
+            final CountDownLatch started = new CountDownLatch(1);
+            final Future<Boolean> interrupted = executor.submit(() -> {
+                started.countDown();
+                final boolean acquired = lock.tryLock("key", 10, TimeUnit.SECONDS);
+                return !acquired && Thread.interrupted();
+            });
+            started.await();
+            Thread.sleep(50);
+            executor.shutdownNow();
+            assertTrue(interrupted.get(1, TimeUnit.SECONDS));
+            assertTrue(lock.unlock("key"));
+            assertTrue(lock.tryLock("key"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void handOffToWaiter() throws Exception {
+        final ResourceLock lock = new ParkingResourceLock();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            lock.lock("key");
+            final CountDownLatch started = new CountDownLatch(1);
+            final Future<Long> waited = executor.submit(() -> {
+                started.countDown();
+                lock.lockInterruptibly("key");
+                final long acquiredAt = System.nanoTime();
+                lock.unlock("key");
+                return acquiredAt;
+            });
+            started.await();
+            Thread.sleep(50);
+            // 等待中的线程排在前面,新来的线程不能插队
+            assertFalse(executor.submit(() -> lock.tryLock("key")).get());
+            final long unlockedAt = System.nanoTime();
+            assertTrue(lock.unlock("key"));
+            // 解锁之后等待的线程被直接唤醒,而不是等到下一次轮询
+            final long handOff = waited.get(1, TimeUnit.SECONDS) - unlockedAt;
+            assertTrue(handOff < TimeUnit.MILLISECONDS.toNanos(50));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void reenterAndShareReads() throws Exception {
+        final ParkingResourceLock lock = new ParkingResourceLock();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // 重复锁定需要解锁同样的次数
+            lock.lock("user-1");
+            assertTrue(lock.tryLock("user-1"));
+            assertTrue(lock.unlock("user-1"));
+            assertFalse(executor.submit(() -> lock.tryReadLock("user-1")).get());
+            // 持有写锁时可以再获取读锁
+            lock.readLock("user-1");
+            assertTrue(lock.unlockWrite("user-1"));
+            assertTrue(executor.submit(() -> lock.tryReadLock("user-1")).get());
+            assertTrue(lock.unlockRead("user-1"));
+            // 持有读锁时不能升级为写锁
+            lock.readLock("user-2");
+            try {
+                lock.tryLock("user-2");
+                fail();
+            } catch (IllegalStateException ignored) {
+                // 预期的异常
+            }
+            assertTrue(lock.unlockRead("user-2"));
+
+            // 多个线程可以同时持有读锁
+            final CountDownLatch reading = new CountDownLatch(2);
+            final CountDownLatch release = new CountDownLatch(1);
+            final ParkingResourceLock shared = new ParkingResourceLock();
+            for (int i = 0; i < 2; i++) {
+                executor.execute(() -> {
+                    shared.readLock("key");
+                    reading.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignored) {
+                        // 测试结束
+                    }
+                    shared.unlockRead("key");
+                });
+            }
+            assertTrue(reading.await(1, TimeUnit.SECONDS));
+            // 写锁需要等待所有读锁释放
+            assertFalse(shared.tryLock("key", 50, TimeUnit.MILLISECONDS));
+            release.countDown();
+            assertTrue(shared.tryLock("key", 1, TimeUnit.SECONDS));
+            assertFalse(shared.unlockRead("key"));
+            assertTrue(shared.unlock("key"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void lockAllOrNothing() throws Exception {
+        final ResourceLock lock = new ParkingResourceLock();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final List<String> keys = Arrays.asList("card-1", "board-1", "card-1");
+        try {
+            assertTrue(executor.submit(() -> lock.tryLock("board-1")).get());
+            // 其中一个key被占用时超时返回,已经获取的key全部释放
+            assertFalse(lock.lockAll(keys, 50, TimeUnit.MILLISECONDS));
+            assertTrue(executor.submit(() -> lock.tryLock("card-1")).get());
+            assertTrue(executor.submit(() -> lock.unlock("card-1")).get());
+
+            // 占用的key释放之后等待中的线程获取所有的key
+            final Future<Boolean> released = executor.submit(() -> {
+                Thread.sleep(50);
+                return lock.unlock("board-1");
+            });
+            assertTrue(lock.lockAll(keys, 1, TimeUnit.SECONDS));
+            assertTrue(released.get());
+            assertFalse(executor.submit(() -> lock.tryLock("card-1")).get());
+            assertTrue(lock.unlockAll(keys));
+            assertTrue(executor.submit(() -> lock.tryLock("card-1")).get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void acquireAsyncInOrder() throws Exception {
+        final ParkingResourceLock lock = new ParkingResourceLock();
+        lock.lock("key");
+        // 异步获取不会阻塞调用线程,锁被释放之前不会完成
+        final CompletableFuture<LockHandle> first = lock.acquireAsync("key", 1, TimeUnit.SECONDS);
+        final CompletableFuture<LockHandle> second = lock.acquireAsync("key", 1, TimeUnit.SECONDS);
+        final CompletableFuture<LockHandle> expired = lock.acquireAsync("key", 50, TimeUnit.MILLISECONDS);
+        assertFalse(first.isDone());
+        try {
+            expired.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+        assertTrue(lock.unlock("key"));
+        // 锁按排队的顺序交给异步等待者,句柄可以在任意线程中关闭
+        final LockHandle handle = first.get(1, TimeUnit.SECONDS);
+        assertEquals("key", handle.getKey());
+        assertFalse(second.isDone());
+        assertFalse(lock.tryLock("key"));
+        CompletableFuture.runAsync(handle::close).get(1, TimeUnit.SECONDS);
+        assertTrue(handle.isReleased());
+        try (LockHandle secondHandle = second.get(1, TimeUnit.SECONDS)) {
+            assertFalse(secondHandle.isReleased());
+            assertFalse(lock.tryLock("key"));
+        }
+        // 同步的等待线程同样排在异步等待者之后
+        final CompletableFuture<LockHandle> third = lock.acquireAsync("key", 0, TimeUnit.MILLISECONDS);
+        final LockHandle thirdHandle = third.get(1, TimeUnit.SECONDS);
+        final CompletableFuture<Boolean> waiting = CompletableFuture.supplyAsync(() -> lock.tryLock("key", 1,
+                TimeUnit.SECONDS) && lock.unlock("key"));
+        Thread.sleep(50);
+        thirdHandle.close();
+        assertTrue(waiting.get(1, TimeUnit.SECONDS));
+        assertTrue(lock.tryLock("key"));
+        assertTrue(lock.unlock("key"));
+    }
+
+    @Test
+    public void localLockWaitsForRelease() throws Exception {
+        final ResourceLock lock = new LocalResourceLock();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(lock.tryLock("key"));
+            final Future<Boolean> waited = executor.submit(() -> lock.tryLock("key", 2, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            lock.unlockForcedly("key");
+            // 修正超时判断之后,等待的线程会重试直到获取成功
+            assertTrue(waited.get(2, TimeUnit.SECONDS));
+            assertFalse(lock.tryLock("key", 50, TimeUnit.MILLISECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.miracle.common.lock;
+
+import com.miracle.base.BaseTest;
+import com.miracle.base.RedisTestSupport;
+import org.junit.Test;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:{@link RedisLockLeaseStore}的测试类
+ * 参数顺序的校验不需要Redis,其余用例在真实的Redis上执行Lua脚本,连接不上时跳过
+ *
+ * @author guobin On date 2018/7/26.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class RedisLockLeaseStoreTest extends BaseTest {
+
+    @Test
+    public void matchScriptArguments() {
+        final RedisTestSupport.ScriptRecorder recorder = new RedisTestSupport.ScriptRecorder();
+        final LockLeaseStore store = RedisLockLeaseStore.of(recorder, new RedisMessageListenerContainer(), "channel");
+        recorder.willReturn(1L);
+
+        assertTrue(store.renew("key", "owner", 3000L));
+        recorder.assertCalled(Collections.singletonList("key"), "owner", "3000");
+
+        assertTrue(store.compareAndDelete("key", "owner"));
+        recorder.assertCalled(Collections.singletonList("key"), "owner", "channel");
+
+        assertTrue(store.delete("key"));
+        recorder.assertCalled(Collections.singletonList("key"), "channel");
+    }
+
+    @Test
+    public void onlyOwnerRenewsAndDeletes() throws Exception {
+        final String key = "tracer-test:" + UUID.randomUUID() + ":lock";
+        final String channel = "tracer-test:" + UUID.randomUUID() + ":released";
+        try (RedisTestSupport redis = RedisTestSupport.connectOrSkip()) {
+            final LockLeaseStore store = RedisLockLeaseStore.of(redis.getRedisTemplate(),
+                    redis.newListenerContainer(), channel);
+            final BlockingQueue<String> released = new LinkedBlockingQueue<>();
+            store.subscribe(released::add);
+            // 订阅在监听容器中异步生效
+            Thread.sleep(200L);
+            try {
+                assertTrue(store.setIfAbsent(key, "node-1", 300L));
+                assertFalse(store.setIfAbsent(key, "node-2", 300L));
+                assertEquals("node-1", store.getOwner(key));
+
+                // 其它节点不能续约或者删除不属于自己的租约,也不会发布通知
+                assertFalse(store.renew(key, "node-2", 300L));
+                assertFalse(store.compareAndDelete(key, "node-2"));
+                assertEquals("node-1", store.getOwner(key));
+                assertNull(released.poll(200L, TimeUnit.MILLISECONDS));
+
+                // 续约之后超过原来的租约时长仍然持有
+                assertTrue(store.renew(key, "node-1", 1000L));
+                Thread.sleep(400L);
+                assertEquals("node-1", store.getOwner(key));
+
+                // 持有者删除租约时发布被删除的key
+                assertTrue(store.compareAndDelete(key, "node-1"));
+                assertNull(store.getOwner(key));
+                assertEquals(key, released.poll(2, TimeUnit.SECONDS));
+                assertFalse(store.compareAndDelete(key, "node-1"));
+
+                // 强制删除同样发布通知,租约不存在时不发布
+                assertTrue(store.setIfAbsent(key, "node-2", 1000L));
+                assertTrue(store.delete(key));
+                assertEquals(key, released.poll(2, TimeUnit.SECONDS));
+                assertFalse(store.delete(key));
+                assertNull(released.poll(200L, TimeUnit.MILLISECONDS));
+            } finally {
+                redis.delete(Collections.singletonList(key));
+            }
+        }
+    }
+}
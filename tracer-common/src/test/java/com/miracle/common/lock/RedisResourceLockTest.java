@@ -0,0 +1,105 @@
+package com.miracle.common.lock;
+
+import com.miracle.base.BaseTest;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:{@link RedisResourceLock}的测试类,多个节点共享同一个进程内的租约存储
+ *
+ * @author guobin On date 2018/7/26.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class RedisResourceLockTest extends BaseTest {
+
+    @Test
+    public void renewLeaseWhileHolding() throws Exception {
+        final InMemoryLockLeaseStore store = new InMemoryLockLeaseStore();
+        final RedisResourceLock first = new RedisResourceLock(store, 150L, 20L);
+        final RedisResourceLock second = new RedisResourceLock(store, 150L, 20L);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(first.tryLock("user-1"));
+            // 持有时间超过租约时长,看门狗续约之后其它节点仍然无法获取
+            Thread.sleep(400);
+            assertFalse(executor.submit(() -> second.tryLock("user-1")).get());
+            assertFalse(executor.submit(() -> first.unlock("user-1")).get());
+            assertTrue(first.unlock("user-1"));
+            assertTrue(executor.submit(() -> second.tryLock("user-1")).get());
+
+            // 持有锁的节点崩溃之后不再续约,租约过期之后其它节点可以获取
+            second.shutdown();
+            final long start = System.currentTimeMillis();
+            assertTrue(first.tryLock("user-1", 1, TimeUnit.SECONDS));
+            assertTrue(System.currentTimeMillis() - start >= 100);
+            assertTrue(first.unlock("user-1"));
+        } finally {
+            executor.shutdownNow();
+            first.shutdown();
+            second.shutdown();
+        }
+    }
+
+    @Test
+    public void wakeUpOnRelease() throws Exception {
+        final InMemoryLockLeaseStore store = new InMemoryLockLeaseStore();
+        // 重试间隔很长,只有收到通知才能及时获取
+        final RedisResourceLock first = new RedisResourceLock(store, 30000L, 5000L);
+        final RedisResourceLock second = new RedisResourceLock(store, 30000L, 5000L);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            first.lock("user-1");
+            final CountDownLatch started = new CountDownLatch(1);
+            final Future<Long> waited = executor.submit(() -> {
+                started.countDown();
+                assertTrue(second.tryLock("user-1", 10, TimeUnit.SECONDS));
+                final long acquiredAt = System.currentTimeMillis();
+                second.unlock("user-1");
+                return acquiredAt;
+            });
+            started.await();
+            Thread.sleep(100);
+            final long unlockedAt = System.currentTimeMillis();
+            assertTrue(first.unlock("user-1"));
+            assertTrue(waited.get(2, TimeUnit.SECONDS) - unlockedAt < 1000);
+        } finally {
+            executor.shutdownNow();
+            first.shutdown();
+            second.shutdown();
+        }
+    }
+
+    @Test
+    public void wakeUpAsyncOnRelease() throws Exception {
+        final InMemoryLockLeaseStore store = new InMemoryLockLeaseStore();
+        // 重试间隔很长,异步获取只有收到通知才能及时完成
+        final RedisResourceLock first = new RedisResourceLock(store, 30000L, 5000L);
+        final RedisResourceLock second = new RedisResourceLock(store, 30000L, 5000L);
+        try {
+            first.lock("user-1");
+            final CompletableFuture<LockHandle> waiting = second.acquireAsync("user-1", 10, TimeUnit.SECONDS);
+            Thread.sleep(100);
+            assertFalse(waiting.isDone());
+            final long unlockedAt = System.currentTimeMillis();
+            assertTrue(first.unlock("user-1"));
+            final LockHandle handle = waiting.get(2, TimeUnit.SECONDS);
+            assertTrue(System.currentTimeMillis() - unlockedAt < 1000);
+            assertFalse(first.tryLock("user-1"));
+            handle.close();
+            assertTrue(first.tryLock("user-1"));
+            assertTrue(first.unlock("user-1"));
+        } finally {
+            first.shutdown();
+            second.shutdown();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.miracle.common.lock;
+
+import com.miracle.base.BaseTest;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:{@link StripedResourceLock}的测试类
+ *
+ * @author guobin On date 2018/7/25.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class StripedResourceLockTest extends BaseTest {
+
+    @Test
+    public void excludeOtherThreads() throws Exception {
+        final ResourceLock lock = new StripedResourceLock(64);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final long[] counters = new long[16];
+        try {
+            final CountDownLatch done = new CountDownLatch(8);
+            for (int i = 0; i < 8; i++) {
+                executor.execute(() -> {
+                    // 大量不同的资源key共享有限的分段
+                    for (int j = 0; j < 20000; j++) {
+                        final String key = "user#" + (j % 16);
+                        lock.lock(key);
+                        try {
+                            counters[j % 16]++;
+                        } finally {
+                            lock.unlock(key);
+                        }
+                    }
+                    done.countDown();
+                });
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        for (long counter : counters) {
+            assertEquals(8 * 20000 / 16, counter);
+        }
+    }
+
+    @Test
+    public void collideAndRelease() throws Exception {
+        // 只有一个分段时所有的key都会冲突
+        final StripedResourceLock lock = new StripedResourceLock(1);
+        assertEquals(1, lock.getStripeCount());
+        assertEquals(8, new StripedResourceLock(5).getStripeCount());
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // 同一个线程可以锁定同一个分段上的多个key,每次锁定对应一次解锁
+            assertTrue(lock.tryLock("a"));
+            assertTrue(lock.tryLock("b"));
+            assertFalse(executor.submit(() -> lock.tryLock("c", 50, TimeUnit.MILLISECONDS)).get());
+            assertFalse(executor.submit(() -> lock.unlock("a")).get());
+            assertTrue(lock.unlock("b"));
+            assertFalse(executor.submit(() -> lock.tryLock("c")).get());
+            assertTrue(lock.unlock("a"));
+            assertTrue(executor.submit(() -> lock.tryLock("c")).get());
+
+            // 任意线程都可以强制释放
+            assertFalse(lock.tryLock("a"));
+            lock.unlockForcedly("a");
+            assertTrue(lock.tryLock("a"));
+            assertTrue(lock.unlock("a"));
+            assertTrue(lock.unlock("a"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void acquireAsyncFromStripeQueue() throws Exception {
+        final StripedResourceLock lock = new StripedResourceLock(1);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(lock.tryLock("a"));
+            final CompletableFuture<LockHandle> first = lock.acquireAsync("b", 1, TimeUnit.SECONDS);
+            final CompletableFuture<LockHandle> second = lock.acquireAsync("c", 1, TimeUnit.SECONDS);
+            final CompletableFuture<LockHandle> expired = lock.acquireAsync("d", 30, TimeUnit.MILLISECONDS);
+            try {
+                expired.get(1, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof TimeoutException);
+            }
+            assertFalse(first.isDone());
+            // 线程解锁时分段直接交给队首的等待者
+            assertTrue(lock.unlock("a"));
+            final LockHandle handle = first.get(0, TimeUnit.MILLISECONDS);
+            assertFalse(second.isDone());
+            // 句柄持有的分段不属于任何线程
+            assertFalse(lock.tryLock("a"));
+            assertFalse(lock.unlock("b"));
+            handle.close();
+            final LockHandle next = second.get(0, TimeUnit.MILLISECONDS);
+            // 等待中的线程在句柄关闭之后获得分段
+            final Future<Boolean> waiting =
+                    executor.submit(() -> lock.tryLock("e", 1, TimeUnit.SECONDS));
+            Thread.sleep(50);
+            assertFalse(waiting.isDone());
+            next.close();
+            assertTrue(waiting.get(1, TimeUnit.SECONDS));
+            assertTrue(executor.submit(() -> lock.unlock("e")).get());
+
+            // 取消的等待者不会获得分段
+            assertTrue(lock.tryLock("a"));
+            final CompletableFuture<LockHandle> cancelled = lock.acquireAsync("b", 1, TimeUnit.SECONDS);
+            final CompletableFuture<LockHandle> last = lock.acquireAsync("c", 1, TimeUnit.SECONDS);
+            cancelled.cancel(false);
+            assertTrue(lock.unlock("a"));
+            last.get(0, TimeUnit.MILLISECONDS).close();
+            assertTrue(lock.tryLock("a"));
+            assertTrue(lock.unlock("a"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void ignoreStaleHandle() throws Exception {
+        final StripedResourceLock lock = new StripedResourceLock(1);
+        final LockHandle stale = lock.acquireAsync("a", 1, TimeUnit.SECONDS).get(0, TimeUnit.MILLISECONDS);
+        // 强制释放之后分段交给了新的句柄,关闭旧句柄不能释放新句柄的锁
+        lock.unlockForcedly("a");
+        final LockHandle current = lock.acquireAsync("b", 1, TimeUnit.SECONDS).get(0, TimeUnit.MILLISECONDS);
+        stale.close();
+        assertFalse(lock.tryLock("c"));
+        current.close();
+        assertTrue(lock.tryLock("c"));
+
+        // 超时的结果不在定时器线程中完成
+        final CompletableFuture<String> completedOn = lock.acquireAsync("d", 10, TimeUnit.MILLISECONDS)
+                .handle((handle, ex) -> Thread.currentThread().getName());
+        assertNotEquals("resource-lock-timer", completedOn.get(1, TimeUnit.SECONDS));
+        assertTrue(lock.unlock("c"));
+    }
+
+    @Test
+    public void lockAllWithoutDeadlock() throws Exception {
+        final ResourceLock lock = new StripedResourceLock(4);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<String> keys = Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h");
+        final int[] counter = new int[1];
+        try {
+            final CountDownLatch done = new CountDownLatch(4);
+            for (int i = 0; i < 4; i++) {
+                final int seed = i;
+                executor.execute(() -> {
+                    // 每个线程以不同的顺序给出同一组key,锁定所有分段之后才修改计数
+                    final List<String> shuffled = Arrays.asList(keys.toArray(new String[0]));
+                    for (int j = 0; j < 2000; j++) {
+                        Collections.rotate(shuffled, seed + 1);
+                        assertTrue(lock.lockAll(shuffled, 5, TimeUnit.SECONDS));
+                        counter[0]++;
+                        assertTrue(lock.unlockAll(shuffled));
+                    }
+                    done.countDown();
+                });
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(8000, counter[0]);
+    }
+}
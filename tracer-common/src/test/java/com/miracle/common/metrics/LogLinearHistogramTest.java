@@ -0,0 +1,63 @@
+package com.miracle.common.metrics;
+
+import com.miracle.base.BaseTest;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:{@link LogLinearHistogram}的测试类
+ *
+ * @author guobin On date 2018/7/23.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class LogLinearHistogramTest extends BaseTest {
+
+    @Test
+    public void bucketsCoverAllValues() {
+        // 相邻的桶首尾相接,覆盖所有非负的long
+        long expectedLowest = 0L;
+        for (int i = 0; i < LogLinearHistogram.BUCKET_COUNT; i++) {
+            final long highest = LogLinearHistogram.highestValueAt(i);
+            assertEquals(i, LogLinearHistogram.indexOf(expectedLowest));
+            assertEquals(i, LogLinearHistogram.indexOf(highest));
+            // 桶的宽度不超过其下界的1/8
+            assertTrue(highest - expectedLowest <= Math.max(0L, expectedLowest / LogLinearHistogram.SUB_BUCKET_COUNT));
+            expectedLowest = highest + 1;
+        }
+        assertEquals(Long.MAX_VALUE, LogLinearHistogram.highestValueAt(LogLinearHistogram.BUCKET_COUNT - 1));
+    }
+
+    @Test
+    public void quantilesWithinRelativeError() {
+        final LogLinearHistogram histogram = new LogLinearHistogram();
+        final Random random = new Random(7L);
+        final long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.abs(random.nextGaussian() * 1_000_000);
+        }
+        // 多个线程同时记录
+        IntStream.range(0, values.length).parallel().forEach(i -> histogram.record(values[i]));
+        java.util.Arrays.sort(values);
+        final LogLinearHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(values.length, snapshot.getCount());
+        assertEquals(values[values.length - 1], snapshot.getMax());
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            final long exact = values[(int) Math.ceil(quantile * values.length) - 1];
+            final long estimated = snapshot.valueAt(quantile);
+            assertTrue(quantile + ": " + exact + " vs " + estimated,
+                    estimated >= exact && estimated - exact <= exact / LogLinearHistogram.SUB_BUCKET_COUNT);
+        }
+
+        // 两次快照之差只包含其间记录的数值
+        histogram.record(5L);
+        final LogLinearHistogram.Snapshot delta = histogram.snapshot().minus(snapshot);
+        assertEquals(1, delta.getCount());
+        assertEquals(5L, delta.valueAt(0.5));
+        assertEquals(5L, delta.getSum());
+    }
+}
@@ -0,0 +1,99 @@
+package com.miracle.common.metrics;
+
+import com.miracle.base.BaseTest;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:{@link SpaceSavingSketch}的测试类
+ *
+ * @author guobin On date 2018/7/26.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class SpaceSavingSketchTest extends BaseTest {
+
+    @Test
+    public void trackHeavyHitters() {
+        final SpaceSavingSketch<String> sketch = new SpaceSavingSketch<>(16);
+        final Random random = new Random(7);
+        // 三个热点各占约10%,其余是大量只出现几次的元素
+        for (int i = 0; i < 100000; i++) {
+            final int roll = random.nextInt(10);
+            final String key = roll < 3 ? "hot-" + roll : "cold-" + random.nextInt(50000);
+            sketch.offer(key, 2L);
+        }
+        assertEquals(100000L, sketch.getTotal());
+        final List<SpaceSavingSketch.Counter<String>> top = sketch.top(3);
+        assertEquals(3, top.size());
+        for (SpaceSavingSketch.Counter<String> counter : top) {
+            assertTrue(counter.getKey().startsWith("hot-"));
+            // 计数是上界,减去误差之后是下界
+            assertTrue(counter.getCount() >= 9000 && counter.getCount() - counter.getError() <= 11000);
+            assertEquals(2L * (counter.getCount() - counter.getError()), counter.getSum());
+        }
+        assertTrue(top.get(0).getCount() >= top.get(1).getCount());
+        assertEquals(16, sketch.top(100).size());
+    }
+
+    @Test
+    public void replaceMinimum() {
+        final SpaceSavingSketch<String> sketch = new SpaceSavingSketch<>(3);
+        offer(sketch, "a", 5);
+        offer(sketch, "b", 3);
+        // 计数器未满时新元素的计数最小,之后被替换的是它而不是先来的元素
+        offer(sketch, "c", 1);
+        offer(sketch, "d", 1);
+        final List<SpaceSavingSketch.Counter<String>> top = sketch.top(3);
+        assertEquals("a", top.get(0).getKey());
+        assertEquals(5L, top.get(0).getCount());
+        assertEquals("b", top.get(1).getKey());
+        assertEquals("d", top.get(2).getKey());
+        assertEquals(2L, top.get(2).getCount());
+        assertEquals(1L, top.get(2).getError());
+        // 被替换的元素再次出现时替换当前最小的d
+        offer(sketch, "c", 2);
+        final SpaceSavingSketch.Counter<String> replaced = sketch.top(3).get(1);
+        assertEquals("c", replaced.getKey());
+        assertEquals(4L, replaced.getCount());
+        assertEquals(2L, replaced.getError());
+    }
+
+    @Test
+    public void boundTrueCounts() {
+        final SpaceSavingSketch<Integer> sketch = new SpaceSavingSketch<>(32);
+        final Map<Integer, Long> exact = new HashMap<>(1024);
+        final Random random = new Random(26);
+        // 偏斜分布,小编号出现得更频繁,计数器满了之后频繁替换
+        for (int i = 0; i < 200000; i++) {
+            final int key = (int) Math.abs(random.nextGaussian() * 100);
+            sketch.offer(key, 1L);
+            exact.merge(key, 1L, Long::sum);
+        }
+        final List<SpaceSavingSketch.Counter<Integer>> all = sketch.top(100);
+        assertEquals(32, all.size());
+        // 替换时继承计数,所以所有计数之和恰好是事件总数
+        assertEquals(sketch.getTotal(), all.stream().mapToLong(SpaceSavingSketch.Counter::getCount).sum());
+        for (SpaceSavingSketch.Counter<Integer> counter : all) {
+            final long count = exact.get(counter.getKey());
+            assertTrue(counter.getCount() >= count && counter.getCount() - counter.getError() <= count);
+        }
+        // 最小的计数不超过总数除以容量,出现次数超过它的元素一定被跟踪
+        final long min = all.get(all.size() - 1).getCount();
+        assertTrue(min <= sketch.getTotal() / 32);
+        exact.forEach((key, count) -> assertTrue(count <= min
+                || all.stream().anyMatch(counter -> counter.getKey().equals(key))));
+    }
+
+    private static void offer(SpaceSavingSketch<String> sketch, String key, int times) {
+        for (int i = 0; i < times; i++) {
+            sketch.offer(key, 1L);
+        }
+    }
+}
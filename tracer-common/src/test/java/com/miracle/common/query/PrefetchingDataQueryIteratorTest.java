@@ -0,0 +1,119 @@
+package com.miracle.common.query;
+
+import com.miracle.base.BaseTest;
+import com.miracle.data.bo.request.CommonBusinessRequest;
+import com.miracle.data.common.ResultConstant;
+import com.miracle.data.po.result.CommonPersistenceResult;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:{@link PrefetchingDataQueryIterator}的测试类
+ *
+ * @author guobin On date 2018/7/27.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class PrefetchingDataQueryIteratorTest extends BaseTest {
+
+    private static final UnaryOperator<CommonBusinessRequest> COPIER = request -> {
+        final CommonBusinessRequest copy = new CommonBusinessRequest();
+        copy.setPage(request.getPage());
+        copy.setPageSize(request.getPageSize());
+        return copy;
+    };
+
+    @Test
+    public void prefetchInOrder() {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        try {
+            // 查询得越慢的页越早提交,结果仍然要按页的顺序返回
+            final Function<CommonBusinessRequest, CommonPersistenceResult<Integer>> mapper = request -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(20 - request.getPage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                return page(request, 95);
+            };
+            final List<Integer> values = new ArrayList<>();
+            final PrefetchingDataQueryIterator<Integer, CommonBusinessRequest, CommonPersistenceResult<Integer>>
+                    iterator = new PrefetchingDataQueryIterator<>(request(10), mapper,
+                    CommonPersistenceResult::getValues, COPIER, executor, 3);
+            iterator.forEachRemaining(values::add);
+            assertEquals(IntStream.range(0, 95).boxed().collect(Collectors.toList()), values);
+            assertTrue(maxRunning.get() <= 3);
+            assertTrue(maxRunning.get() > 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void surfaceFailureInOrder() {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // 第2页最先失败,但第0页和第1页的数据都要先返回
+            final Function<CommonBusinessRequest, CommonPersistenceResult<Integer>> mapper = request -> {
+                if (request.getPage() == 2) {
+                    throw new IllegalStateException("page 2");
+                }
+                try {
+                    TimeUnit.MILLISECONDS.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return page(request, 50);
+            };
+            final PrefetchingDataQueryIterator<Integer, CommonBusinessRequest, CommonPersistenceResult<Integer>>
+                    iterator = new PrefetchingDataQueryIterator<>(request(10), mapper,
+                    CommonPersistenceResult::getValues, COPIER, executor, 4);
+            final List<Integer> values = new ArrayList<>();
+            try {
+                iterator.forEachRemaining(values::add);
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("page 2", e.getMessage());
+            }
+            assertEquals(IntStream.range(0, 20).boxed().collect(Collectors.toList()), values);
+            // 失败的页被跳过,之后的页仍然可以继续读取
+            assertEquals(Integer.valueOf(30), iterator.next());
+            iterator.close();
+            assertFalse(iterator.hasNext());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static CommonBusinessRequest request(int pageSize) {
+        final CommonBusinessRequest request = new CommonBusinessRequest();
+        request.setPageSize(pageSize);
+        return request;
+    }
+
+    private static CommonPersistenceResult<Integer> page(CommonBusinessRequest request, int total) {
+        final CommonPersistenceResult<Integer> result = new CommonPersistenceResult<>();
+        final int from = request.getPage() * request.getPageSize();
+        result.setValues(IntStream.range(from, Math.min(from + request.getPageSize(), total))
+                .boxed().collect(Collectors.toList()));
+        result.setTotalCount(total);
+        result.setCode(ResultConstant.Code.SUCCESS);
+        return result;
+    }
+}
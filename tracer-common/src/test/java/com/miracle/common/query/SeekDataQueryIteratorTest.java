@@ -0,0 +1,62 @@
+package com.miracle.common.query;
+
+import com.miracle.base.BaseTest;
+import com.miracle.data.common.ResultConstant;
+import com.miracle.data.po.request.user.UserPersistenceRequest;
+import com.miracle.data.po.result.CommonPersistenceResult;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:{@link SeekDataQueryIterator}的测试类
+ *
+ * @author guobin On date 2018/7/27.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class SeekDataQueryIteratorTest extends BaseTest {
+
+    @Test
+    public void seekThroughAllPages() {
+        final List<Integer> data = IntStream.range(0, 30).boxed().collect(Collectors.toList());
+        final List<Object> cursors = new ArrayList<>();
+        // 模拟游标分页的查询:只返回游标之后的一页数据,不返回总数
+        final Function<UserPersistenceRequest, CommonPersistenceResult<Integer>> mapper = request -> {
+            cursors.add(request.getLastId());
+            final int from = request.isFirstSeek() ? 0 : (Integer) request.getLastId() + 1;
+            final CommonPersistenceResult<Integer> result = new CommonPersistenceResult<>();
+            result.setValues(data.subList(Math.min(from, data.size()),
+                    Math.min(from + request.getPageSize(), data.size())));
+            result.setCode(ResultConstant.Code.SUCCESS);
+            return result;
+        };
+        final UserPersistenceRequest request = new UserPersistenceRequest();
+        request.setPageSize(10);
+
+        final List<Integer> values = new ArrayList<>();
+        new SeekDataQueryIterator<>(request, mapper, CommonPersistenceResult::getValues,
+                (req, value) -> req.seekAfter(value, value)).forEachRemaining(values::add);
+        assertEquals(data, values);
+        // 正好是整页时需要多查询一次空页才能确认结束
+        assertEquals(4, cursors.size());
+        assertNull(cursors.get(0));
+        assertEquals(29, cursors.get(3));
+
+        // 不足一页时直接结束
+        request.resetSeek();
+        request.setPageSize(7);
+        cursors.clear();
+        final List<Integer> shortValues = new ArrayList<>();
+        new SeekDataQueryIterator<>(request, mapper, CommonPersistenceResult::getValues,
+                (req, value) -> req.seekAfter(value, value)).forEachRemaining(shortValues::add);
+        assertEquals(data, shortValues);
+        assertEquals(5, cursors.size());
+    }
+}
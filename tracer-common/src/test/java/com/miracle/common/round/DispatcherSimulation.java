@@ -0,0 +1,275 @@
+package com.miracle.common.round;
+
+import java.util.Random;
+
+/**
+ * Description:以虚拟时钟驱动{@link RoundRobinDispatcher}的模拟工具
+ * 调度者以{@link TickMode#MANUAL}模式运行,任务在推进时间片的线程中直接执行,所以同样的配置与种子总会得到同样的结果,
+ * 模拟数小时的运行只需要几秒钟
+ * 报告中包含吞吐量、任务执行时间相对于到期时间的延迟分位数以及每个定时任务所占用的堆内存
+ *
+ * @author guobin On date 2018/7/18.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+class DispatcherSimulation {
+
+    private static final String QUEUE_PREFIX = "simulation-";
+
+    /**
+     * 延迟统计的上限为多少个时间片,更大的延迟都计入最后一格
+     */
+    private static final int LATENESS_SLICES = 16;
+
+    private long timeSlice;
+
+    private TaskQueueType taskQueueType;
+
+    private int timers;
+
+    private int queues;
+
+    private long minDuration;
+
+    private long maxDuration;
+
+    private double retryRatio;
+
+    private long retryDelay;
+
+    private long horizon;
+
+    private long seed;
+
+    private DispatcherSimulation() {
+        this.timeSlice = RoundRobinDispatcher.DEFAULT_TIME_SLICE;
+        this.taskQueueType = TaskQueueType.TIMING_WHEEL;
+        this.timers = 100_000;
+        this.queues = 1;
+        this.minDuration = 0L;
+        this.maxDuration = 60 * 60 * 1000L;
+        this.retryRatio = 0D;
+        this.retryDelay = 1000L;
+        this.horizon = Long.MAX_VALUE;
+        this.seed = 0L;
+    }
+
+    static DispatcherSimulation newSimulation() {
+        return new DispatcherSimulation();
+    }
+
+    DispatcherSimulation timeSlice(long timeSlice) {
+        this.timeSlice = timeSlice;
+        return this;
+    }
+
+    DispatcherSimulation taskQueueType(TaskQueueType taskQueueType) {
+        this.taskQueueType = taskQueueType;
+        return this;
+    }
+
+    /**
+     * 设置一开始添加的定时任务数量与它们均匀分布的队列数量
+     * @param timers 定时任务数量
+     * @param queues 队列数量
+     * @return 模拟自身
+     */
+    DispatcherSimulation timers(int timers, int queues) {
+        this.timers = timers;
+        this.queues = queues;
+        return this;
+    }
+
+    /**
+     * 设置定时任务的时长范围,每个任务的时长在其中均匀分布
+     * @param minDuration 最短时长
+     * @param maxDuration 最长时长
+     * @return 模拟自身
+     */
+    DispatcherSimulation duration(long minDuration, long maxDuration) {
+        this.minDuration = minDuration;
+        this.maxDuration = maxDuration;
+        return this;
+    }
+
+    /**
+     * 设置任务执行失败的比例,失败的任务以给定的时长重新放回,每个任务最多失败一次
+     * @param retryRatio 失败的比例
+     * @param retryDelay 重新放回的时长
+     * @return 模拟自身
+     */
+    DispatcherSimulation retry(double retryRatio, long retryDelay) {
+        this.retryRatio = retryRatio;
+        this.retryDelay = retryDelay;
+        return this;
+    }
+
+    /**
+     * 设置模拟的最长时间,到达之后即使仍有任务未执行也会结束
+     * @param horizon 模拟的最长时间
+     * @return 模拟自身
+     */
+    DispatcherSimulation horizon(long horizon) {
+        this.horizon = horizon;
+        return this;
+    }
+
+    DispatcherSimulation seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * 执行一次模拟
+     * @return 模拟报告
+     */
+    Report run() {
+        final Random random = new Random(this.seed);
+        final VirtualClock clock = new VirtualClock();
+        final RoundRobinDispatcher dispatcher = RoundRobinDispatcherFactory.newManualRoundRobin(this.timeSlice,
+                this.taskQueueType, clock);
+        final Report report = new Report(this.timeSlice);
+        // 任务直接在推进时间片的线程中执行,执行池永远不会饱和
+        final QueueOptions options = QueueOptions.newOptions().executionPool(TaskExecutionPool.of(Runnable::run,
+                Integer.MAX_VALUE, TaskExecutionPool.SaturationPolicy.REJECT, 0L));
+        for (int i = 0; i < this.queues; i++) {
+            dispatcher.createQueue(Timer.class, QUEUE_PREFIX + i, timer -> {
+                final long now = clock.currentTimeMillis();
+                report.record(now - timer.dueTime);
+                if (!timer.retried && random.nextDouble() < this.retryRatio) {
+                    timer.retried = true;
+                    timer.dueTime = now + this.retryDelay;
+                    report.retried++;
+                    return this.retryDelay;
+                }
+                report.completed++;
+                return 0L;
+            }, options);
+        }
+
+        final long heapBefore = usedHeap();
+        final long range = this.maxDuration - this.minDuration + 1;
+        for (int i = 0; i < this.timers; i++) {
+            final long duration = this.minDuration + (long) (random.nextDouble() * range);
+            final Timer timer = new Timer(clock.currentTimeMillis() + duration);
+            dispatcher.add(timer, duration, QUEUE_PREFIX + (i % this.queues));
+        }
+        report.heapBytes = usedHeap() - heapBefore;
+        report.timers = this.timers;
+
+        final long start = System.nanoTime();
+        while (report.completed < this.timers && clock.currentTimeMillis() < this.horizon) {
+            clock.advance(this.timeSlice);
+            dispatcher.tick();
+            report.ticks++;
+        }
+        report.wallNanos = System.nanoTime() - start;
+        report.simulatedMillis = clock.currentTimeMillis();
+        dispatcher.shutdown(ShutdownPolicy.DISCARD);
+        return report;
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * 模拟中的定时任务,以对象标识区分
+     */
+    private static class Timer {
+
+        /**
+         * 当前的到期时间
+         */
+        private long dueTime;
+
+        /**
+         * 是否已经失败过一次
+         */
+        private boolean retried;
+
+        Timer(long dueTime) {
+            this.dueTime = dueTime;
+        }
+    }
+
+    /**
+     * 模拟报告
+     */
+    static class Report {
+
+        private final long timeSlice;
+
+        /**
+         * 以毫秒为单位的延迟分布,最后一格记录更大的延迟
+         */
+        private final long[] lateness;
+
+        int timers;
+
+        long executions;
+
+        long completed;
+
+        long retried;
+
+        long ticks;
+
+        long wallNanos;
+
+        long simulatedMillis;
+
+        long heapBytes;
+
+        long maxLateness;
+
+        Report(long timeSlice) {
+            this.timeSlice = timeSlice;
+            this.lateness = new long[(int) (timeSlice * LATENESS_SLICES) + 1];
+        }
+
+        private void record(long late) {
+            this.executions++;
+            this.maxLateness = Math.max(this.maxLateness, late);
+            this.lateness[(int) Math.max(0L, Math.min(late, this.lateness.length - 1))]++;
+        }
+
+        /**
+         * 得到延迟的分位数
+         * @param quantile 分位,取值范围(0, 1]
+         * @return 延迟,单位毫秒
+         */
+        long latenessAt(double quantile) {
+            final long rank = (long) Math.ceil(quantile * this.executions);
+            long count = 0L;
+            for (int i = 0; i < this.lateness.length; i++) {
+                count += this.lateness[i];
+                if (count >= rank) {
+                    return i;
+                }
+            }
+            return this.maxLateness;
+        }
+
+        /**
+         * 得到每真实秒执行的任务数
+         * @return 吞吐量
+         */
+        double throughput() {
+            return this.executions * 1e9 / Math.max(1L, this.wallNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("timers=%d, executions=%d, retried=%d, ticks=%d, simulated=%ds, wall=%dms, "
+                            + "throughput=%.0f/s, lateness(ms) p50=%d p99=%d p999=%d max=%d, heap/timer=%dB, slice=%dms",
+                    this.timers, this.executions, this.retried, this.ticks, this.simulatedMillis / 1000,
+                    this.wallNanos / 1_000_000, this.throughput(), this.latenessAt(0.5), this.latenessAt(0.99),
+                    this.latenessAt(0.999), this.maxLateness, this.heapBytes / Math.max(1, this.timers), this.timeSlice);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.miracle.common.round;
+
+import com.miracle.base.BaseTest;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:以{@link DispatcherSimulation}检验{@link RoundRobinDispatcher}在大量定时任务下的行为
+ *
+ * @author guobin On date 2018/7/18.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class DispatcherSimulationTest extends BaseTest {
+
+    @Test
+    public void simulateOneHour() {
+        for (TaskQueueType type : TaskQueueType.values()) {
+            // 20万个定时任务均匀分布在一个小时之内,其中一成失败一次之后在一分钟后重试
+            final DispatcherSimulation.Report report = DispatcherSimulation.newSimulation()
+                    .taskQueueType(type)
+                    .timeSlice(100L)
+                    .timers(200_000, 4)
+                    .duration(0L, 60 * 60 * 1000L)
+                    .retry(0.1D, 60 * 1000L)
+                    .seed(7L)
+                    .run();
+            System.out.println(type + ": " + report);
+            assertEquals(200_000L, report.completed);
+            assertEquals(200_000L + report.retried, report.executions);
+            assertTrue(report.retried > 0);
+            // 每个任务都在到期之后的一个时间片之内执行
+            assertTrue(report.maxLateness < 100L);
+        }
+    }
+
+    @Test
+    public void deterministicWithSameSeed() {
+        final DispatcherSimulation simulation = DispatcherSimulation.newSimulation()
+                .timers(10_000, 2)
+                .duration(0L, 10 * 60 * 1000L)
+                .retry(0.3D, 5000L)
+                .seed(42L);
+        final DispatcherSimulation.Report first = simulation.run();
+        final DispatcherSimulation.Report second = simulation.run();
+        assertEquals(first.retried, second.retried);
+        assertEquals(first.ticks, second.ticks);
+        assertEquals(first.latenessAt(0.99), second.latenessAt(0.99));
+    }
+}
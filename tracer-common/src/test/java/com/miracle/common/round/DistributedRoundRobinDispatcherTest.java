@@ -0,0 +1,168 @@
+package com.miracle.common.round;
+
+import com.miracle.base.BaseTest;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:{@link DistributedRoundRobinDispatcher}的测试类,多个节点共享同一个进程内的任务存储
+ *
+ * @author guobin On date 2018/7/22.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class DistributedRoundRobinDispatcherTest extends BaseTest {
+
+    private static final String NAMESPACE = "tracer-test";
+
+    private static final long TIME_SLICE = 100L;
+
+    private static final int SHARDS = 16;
+
+    private static final long LEASE = 1000L;
+
+    @Test
+    public void shareShardsAndExecuteOnce() {
+        final VirtualClock clock = new VirtualClock();
+        final InMemoryDistributedTaskStore store = new InMemoryDistributedTaskStore(clock);
+        final Map<Integer, AtomicInteger> executions = new ConcurrentHashMap<>();
+        final AtomicInteger executedByFirst = new AtomicInteger();
+        final AtomicInteger executedBySecond = new AtomicInteger();
+        final DistributedRoundRobinDispatcher first = newNode(store, clock, executions, executedByFirst);
+        final DistributedRoundRobinDispatcher second = newNode(store, clock, executions, executedBySecond);
+
+        // 两个节点的心跳都登记之后,多出的分片被释放,再由另一个节点获取
+        for (int i = 0; i < 3; i++) {
+            tickAll(clock, first, second);
+        }
+        assertEquals(SHARDS / 2, first.getOwnedShardCount());
+        assertEquals(SHARDS / 2, second.getOwnedShardCount());
+
+        // 所有任务都由第一个节点添加,但分散在两个节点持有的分片中
+        for (int i = 0; i < 200; i++) {
+            first.add(i, 500L + i, "share");
+        }
+        assertEquals(200, store.size(NAMESPACE + ":queue:"));
+        for (int i = 0; i < 10; i++) {
+            tickAll(clock, first, second);
+        }
+        assertEquals(200, executions.size());
+        assertTrue(executions.values().stream().allMatch(count -> count.get() == 1));
+        assertTrue(executedByFirst.get() > 0 && executedBySecond.get() > 0);
+        assertEquals(200, executedByFirst.get() + executedBySecond.get());
+        assertEquals(0, store.size(NAMESPACE + ":queue:"));
+
+        // 关闭的节点交出持有的分片
+        first.shutdown();
+        tickAll(clock, second);
+        assertEquals(SHARDS, second.getOwnedShardCount());
+        second.shutdown();
+    }
+
+    @Test
+    public void takeOverFailedNode() {
+        final VirtualClock clock = new VirtualClock();
+        final InMemoryDistributedTaskStore store = new InMemoryDistributedTaskStore(clock);
+        final Map<Integer, AtomicInteger> executions = new ConcurrentHashMap<>();
+        final AtomicInteger executedByFirst = new AtomicInteger();
+        final AtomicInteger executedBySecond = new AtomicInteger();
+        final DistributedRoundRobinDispatcher first = newNode(store, clock, executions, executedByFirst);
+        final DistributedRoundRobinDispatcher second = newNode(store, clock, executions, executedBySecond);
+        for (int i = 0; i < 3; i++) {
+            tickAll(clock, first, second);
+        }
+        for (int i = 0; i < 100; i++) {
+            first.add(i, 2000L, "share");
+        }
+
+        // 第一个节点失去响应,既不释放租约也不再登记心跳,租约过期之后它的分片由第二个节点接管
+        for (int i = 0; i < 15; i++) {
+            tickAll(clock, second);
+        }
+        assertEquals(SHARDS, second.getOwnedShardCount());
+        for (int i = 0; i < 10; i++) {
+            tickAll(clock, second);
+        }
+        assertEquals(0, executedByFirst.get());
+        assertEquals(100, executedBySecond.get());
+        assertEquals(100, executions.size());
+
+        // 第一个节点恢复之后发现租约已经被接管,重新参与均分
+        for (int i = 0; i < 3; i++) {
+            tickAll(clock, first, second);
+        }
+        assertEquals(SHARDS / 2, first.getOwnedShardCount());
+        assertEquals(SHARDS / 2, second.getOwnedShardCount());
+        first.shutdown();
+        second.shutdown();
+    }
+
+    @Test
+    public void keepSharedSchedulerResponsive() throws InterruptedException {
+        final CountDownLatch slowTickStarted = new CountDownLatch(1);
+        final AtomicInteger heartbeats = new AtomicInteger();
+        // 模拟共享存储卡顿:每次心跳都要等待很久
+        final InMemoryDistributedTaskStore store = new InMemoryDistributedTaskStore(DispatcherClock.SYSTEM) {
+            @Override
+            public int heartbeat(String nodesKey, String nodeId, long now, long expireBefore) {
+                heartbeats.incrementAndGet();
+                slowTickStarted.countDown();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.heartbeat(nodesKey, nodeId, now, expireBefore);
+            }
+        };
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+        final DistributedRoundRobinDispatcher dispatcher = new DistributedRoundRobinDispatcher(
+                NAMESPACE, 10L, SHARDS, LEASE, store, scheduler, DispatcherClock.SYSTEM);
+        try {
+            assertTrue(slowTickStarted.await(1, TimeUnit.SECONDS));
+            // 时间片推进卡住时,同一个调度线程上的其它任务仍然按时执行
+            final long start = System.nanoTime();
+            scheduler.schedule(() -> { }, 0, TimeUnit.MILLISECONDS).get(1, TimeUnit.SECONDS);
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 200);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        } finally {
+            dispatcher.shutdown();
+            scheduler.shutdownNow();
+        }
+        // 推进落后时多余的触发被合并,不会积压
+        assertTrue(heartbeats.get() <= 3);
+    }
+
+    private static DistributedRoundRobinDispatcher newNode(InMemoryDistributedTaskStore store, VirtualClock clock,
+                                                           Map<Integer, AtomicInteger> executions,
+                                                           AtomicInteger executedByNode) {
+        final DistributedRoundRobinDispatcher dispatcher = RoundRobinDispatcherFactory.newManualDistributedRoundRobin(
+                NAMESPACE, TIME_SLICE, SHARDS, LEASE, store, clock);
+        // 任务直接在推进时间片的线程中执行
+        dispatcher.createQueue(Integer.class, "share", i -> {
+            executions.computeIfAbsent(i, k -> new AtomicInteger()).incrementAndGet();
+            executedByNode.incrementAndGet();
+            return 0L;
+        }, QueueOptions.newOptions()
+                .codec(TaskCodec.<Integer>serializable())
+                .executionPool(TaskExecutionPool.of(Runnable::run, Integer.MAX_VALUE,
+                        TaskExecutionPool.SaturationPolicy.REJECT, 0L)));
+        return dispatcher;
+    }
+
+    private static void tickAll(VirtualClock clock, DistributedRoundRobinDispatcher... nodes) {
+        clock.advance(TIME_SLICE);
+        for (DistributedRoundRobinDispatcher node : nodes) {
+            node.tick();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.miracle.common.round;
+
+import com.miracle.base.BaseTest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:{@link HashedWheelTaskStore}的测试类
+ *
+ * @author guobin On date 2018/7/12.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class HashedWheelTaskStoreTest extends BaseTest {
+
+    private static final long TIME_SLICE = 100L;
+
+    private static final long ORIGIN = 1_530_000_000_123L;
+
+    @Test
+    public void expireInOrderOfSlices() {
+        final HashedWheelTaskStore<Integer> store = new HashedWheelTaskStore<>(TIME_SLICE, ORIGIN);
+        // 1.落在第1个时间片末尾的任务
+        store.offer(new Task<>(1, ORIGIN + TIME_SLICE, "q"));
+        // 2.刚好超出第1个时间片的任务
+        store.offer(new Task<>(2, ORIGIN + TIME_SLICE + 1, "q"));
+        // 3.已经过期的任务在下一个时间片到期
+        store.offer(new Task<>(3, ORIGIN - 5000L, "q"));
+        assertEquals(3, store.size());
+
+        assertNull(store.pollExpired(ORIGIN));
+        final List<Integer> firstSlice = drain(store, ORIGIN + TIME_SLICE);
+        assertTrue(firstSlice.contains(1));
+        assertTrue(firstSlice.contains(3));
+        assertEquals(2, firstSlice.size());
+
+        final List<Integer> secondSlice = drain(store, ORIGIN + 2 * TIME_SLICE);
+        assertEquals(1, secondSlice.size());
+        assertEquals(Integer.valueOf(2), secondSlice.get(0));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void sameAsPriorityQueue() {
+        final HashedWheelTaskStore<Integer> wheel = new HashedWheelTaskStore<>(TIME_SLICE, ORIGIN);
+        final PriorityTaskStore<Integer> queue = new PriorityTaskStore<>();
+        final Random random = new Random(20180712L);
+        int id = 0;
+        // 跨越多层时间轮的随机任务,每个时间片都与优先级队列的到期结果进行比较
+        for (long slice = 1; slice <= 20_000; slice++) {
+            final long deadline = ORIGIN + slice * TIME_SLICE;
+            for (int i = random.nextInt(3); i > 0; i--) {
+                final long duration = random.nextInt(4) == 0
+                        ? (long) random.nextInt(50_000_000) : (long) random.nextInt(10_000);
+                final long completeTime = deadline - TIME_SLICE + duration;
+                wheel.offer(new Task<>(id, completeTime, "q"));
+                queue.offer(new Task<>(id, completeTime, "q"));
+                id++;
+            }
+            final List<Integer> expected = drain(queue, deadline);
+            final List<Integer> actual = drain(wheel, deadline);
+            expected.sort(Integer::compareTo);
+            actual.sort(Integer::compareTo);
+            assertEquals("slice " + slice, expected, actual);
+            assertEquals(queue.size(), wheel.size());
+        }
+    }
+
+    @Test
+    public void catchUpAfterIdle() {
+        final HashedWheelTaskStore<Integer> store = new HashedWheelTaskStore<>(TIME_SLICE, ORIGIN);
+        final long farAway = ORIGIN + 3_600_000L * 24 * 365;
+        store.offer(new Task<>(1, farAway, "q"));
+        assertTrue(drain(store, farAway - 1).isEmpty());
+        assertEquals(1, drain(store, farAway).size());
+    }
+
+    @Test
+    public void removeFromAnyLevel() {
+        final HashedWheelTaskStore<Integer> store = new HashedWheelTaskStore<>(TIME_SLICE, ORIGIN);
+        final Task<Integer> near = new Task<>(1, ORIGIN + TIME_SLICE, "q");
+        final Task<Integer> far = new Task<>(2, ORIGIN + TIME_SLICE * 100_000, "q");
+        final Task<Integer> kept = new Task<>(3, ORIGIN + TIME_SLICE * 100_000, "q");
+        store.offer(near);
+        store.offer(far);
+        store.offer(kept);
+
+        // 1.摘除最底层与较高层中的任务
+        assertTrue(store.remove(near));
+        assertTrue(store.remove(far));
+        assertEquals(1, store.size());
+        // 2.重复摘除
+        assertFalse(store.remove(far));
+
+        // 3.摘除之后的任务以新的到期时间重新放入
+        far.completeTime = ORIGIN + 2 * TIME_SLICE;
+        store.offer(far);
+        assertTrue(drain(store, ORIGIN + TIME_SLICE).isEmpty());
+        assertEquals(Collections.singletonList(2), drain(store, ORIGIN + 2 * TIME_SLICE));
+        assertEquals(Collections.singletonList(3), drain(store, ORIGIN + TIME_SLICE * 100_000));
+        assertEquals(0, store.size());
+    }
+
+    private static List<Integer> drain(TaskStore<Integer> store, long deadline) {
+        final List<Integer> list = new ArrayList<>();
+        Task<Integer> task;
+        while ((task = store.pollExpired(deadline)) != null) {
+            assertTrue(task.completeTime <= deadline);
+            list.add(task.obj);
+        }
+        return list;
+    }
+}
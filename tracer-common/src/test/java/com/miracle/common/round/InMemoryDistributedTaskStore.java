@@ -0,0 +1,105 @@
+package com.miracle.common.round;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Description:进程内的分布式任务存储,以与Redis相同的语义代替Redis用于测试
+ * 所有操作都在同一个监视器下完成,租约的过期时间以给定的时钟计算
+ *
+ * @author guobin On date 2018/7/22.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+class InMemoryDistributedTaskStore implements DistributedTaskStore {
+
+    private final DispatcherClock clock;
+
+    /**
+     * 每个有序集合中成员与分数的映射
+     */
+    private final Map<String, Map<String, Long>> sortedSets = new HashMap<>();
+
+    /**
+     * 租约的持有者
+     */
+    private final Map<String, String> leaseOwners = new HashMap<>();
+
+    /**
+     * 租约的过期时间
+     */
+    private final Map<String, Long> leaseExpireTimes = new HashMap<>();
+
+    InMemoryDistributedTaskStore(DispatcherClock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public synchronized void add(String shardKey, String member, long dueTime) {
+        this.sortedSets.computeIfAbsent(shardKey, k -> new HashMap<>()).put(member, dueTime);
+    }
+
+    @Override
+    public synchronized boolean remove(String shardKey, String member) {
+        return this.sortedSets.getOrDefault(shardKey, Collections.emptyMap()).remove(member) != null;
+    }
+
+    @Override
+    public synchronized List<String> popDue(String shardKey, long now, int limit) {
+        final Map<String, Long> members = this.sortedSets.getOrDefault(shardKey, Collections.emptyMap());
+        final List<String> due = members.entrySet().stream()
+                .filter(entry -> entry.getValue() <= now)
+                .sorted(Map.Entry.comparingByValue())
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        due.forEach(members::remove);
+        return due;
+    }
+
+    @Override
+    public synchronized boolean acquireLease(String leaseKey, String owner, long leaseMillis) {
+        final long now = this.clock.currentTimeMillis();
+        final String current = this.leaseExpireTimes.getOrDefault(leaseKey, Long.MIN_VALUE) > now
+                ? this.leaseOwners.get(leaseKey) : null;
+        if (current != null && !current.equals(owner)) {
+            return false;
+        }
+        this.leaseOwners.put(leaseKey, owner);
+        this.leaseExpireTimes.put(leaseKey, now + leaseMillis);
+        return true;
+    }
+
+    @Override
+    public synchronized void releaseLease(String leaseKey, String owner) {
+        if (owner.equals(this.leaseOwners.get(leaseKey))) {
+            this.leaseOwners.remove(leaseKey);
+            this.leaseExpireTimes.remove(leaseKey);
+        }
+    }
+
+    @Override
+    public synchronized int heartbeat(String nodesKey, String nodeId, long now, long expireBefore) {
+        final Map<String, Long> nodes = this.sortedSets.computeIfAbsent(nodesKey, k -> new HashMap<>());
+        nodes.put(nodeId, now);
+        nodes.values().removeIf(time -> time < expireBefore);
+        return nodes.size();
+    }
+
+    @Override
+    public synchronized void leave(String nodesKey, String nodeId) {
+        this.remove(nodesKey, nodeId);
+    }
+
+    /**
+     * 得到给定前缀下所有分片中的任务总数
+     * @param prefix key的前缀
+     * @return 任务数量
+     */
+    synchronized int size(String prefix) {
+        return this.sortedSets.entrySet().stream()
+                .filter(entry -> entry.getKey().startsWith(prefix))
+                .mapToInt(entry -> entry.getValue().size())
+                .sum();
+    }
+}
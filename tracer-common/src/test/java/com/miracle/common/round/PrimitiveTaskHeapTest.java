@@ -0,0 +1,99 @@
+package com.miracle.common.round;
+
+import com.miracle.base.BaseTest;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:{@link PrimitiveTaskHeap}的测试类
+ *
+ * @author guobin On date 2018/7/21.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class PrimitiveTaskHeapTest extends BaseTest {
+
+    @Test
+    public void sameAsPriorityQueue() {
+        final PrimitiveTaskHeap<Integer> heap = new PrimitiveTaskHeap<>(4);
+        final PriorityTaskStore<Integer> queue = new PriorityTaskStore<>();
+        final List<Task<Integer>> heapTasks = new ArrayList<>();
+        final List<Task<Integer>> queueTasks = new ArrayList<>();
+        final Random random = new Random(20180721L);
+        for (long deadline = 0; deadline < 20_000; deadline += 10) {
+            // 随机放入、摘除任务,每一步都与优先级队列的到期结果进行比较
+            for (int i = random.nextInt(4); i > 0; i--) {
+                final long completeTime = deadline + random.nextInt(1000);
+                final int id = heapTasks.size();
+                heapTasks.add(new Task<>(id, completeTime, "q"));
+                queueTasks.add(new Task<>(id, completeTime, "q"));
+                heap.offer(heapTasks.get(id));
+                queue.offer(queueTasks.get(id));
+            }
+            if (random.nextBoolean() && !heapTasks.isEmpty()) {
+                final int id = random.nextInt(heapTasks.size());
+                assertEquals(queue.remove(queueTasks.get(id)), heap.remove(heapTasks.get(id)));
+            }
+            assertEquals(queue.nextExpireTime(), heap.nextExpireTime());
+            Task<Integer> expected;
+            while ((expected = queue.pollExpired(deadline)) != null) {
+                final Task<Integer> actual = heap.pollExpired(deadline);
+                assertNotNull(actual);
+                assertEquals(expected.completeTime, actual.completeTime);
+            }
+            assertNull(heap.pollExpired(deadline));
+            assertEquals(queue.size(), heap.size());
+        }
+    }
+
+    @Test
+    public void noAllocationWhenRescheduling() {
+        final PrimitiveTaskHeap<Integer> heap = new PrimitiveTaskHeap<>();
+        final int count = 100_000;
+        for (int i = 0; i < count; i++) {
+            heap.offer(new Task<>(i, i, "q"));
+        }
+        // 预热之后测量稳定状态下取出到期任务再重新放回的内存分配
+        long now = this.reschedule(heap, count, 0L, 1_000_000);
+        final com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        now = this.reschedule(heap, count, now, 1_000_000);
+        final long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+        assertEquals(count, heap.size());
+        assertTrue(now > 0);
+        assertEquals("Bytes allocated by 1,000,000 reschedules", 0L, allocated);
+    }
+
+    /**
+     * 每次推进1毫秒,将到期的任务以固定的时长重新放回,并把最后放回的任务摘除之后以更晚的到期时间再放入一次
+     * @return 推进之后的时间
+     */
+    private long reschedule(PrimitiveTaskHeap<Integer> heap, int duration, long now, int times) {
+        int rescheduled = 0;
+        while (rescheduled < times) {
+            now++;
+            Task<Integer> task;
+            Task<Integer> last = null;
+            while ((task = heap.pollExpired(now)) != null) {
+                task.completeTime = now + duration;
+                heap.offer(task);
+                last = task;
+                rescheduled++;
+            }
+            if (last != null) {
+                assertTrue(heap.remove(last));
+                last.completeTime++;
+                heap.offer(last);
+            }
+        }
+        return now;
+    }
+}
@@ -0,0 +1,58 @@
+package com.miracle.common.round;
+
+import com.miracle.base.BaseTest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:{@link PriorityTaskStore}的测试类
+ *
+ * @author guobin On date 2018/7/12.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class PriorityTaskStoreTest extends BaseTest {
+
+    @Test
+    public void sameAsPriorityQueue() {
+        final PriorityTaskStore<Integer> store = new PriorityTaskStore<>();
+        final PriorityQueue<Task<Integer>> queue =
+                new PriorityQueue<>(Comparator.comparingLong(task -> task.completeTime));
+        final List<Task<Integer>> tasks = new ArrayList<>();
+        final Random random = new Random(20180712L);
+        for (long deadline = 0; deadline < 20_000; deadline += 10) {
+            // 随机放入、摘除任务,摘除已经取出或者已经摘除的任务时返回false
+            for (int i = random.nextInt(4); i > 0; i--) {
+                final Task<Integer> task = new Task<>(tasks.size(), deadline + random.nextInt(1000), "q");
+                tasks.add(task);
+                store.offer(task);
+                queue.offer(task);
+            }
+            if (random.nextBoolean() && !tasks.isEmpty()) {
+                final Task<Integer> task = tasks.get(random.nextInt(tasks.size()));
+                assertEquals(queue.remove(task), store.remove(task));
+            }
+            assertEquals(queue.isEmpty() ? Long.MAX_VALUE : queue.peek().completeTime, store.nextExpireTime());
+            Task<Integer> actual;
+            while ((actual = store.pollExpired(deadline)) != null) {
+                final Task<Integer> expected = queue.poll();
+                assertNotNull(expected);
+                assertEquals(expected.completeTime, actual.completeTime);
+                // 到期时间相同时两者的顺序可能不同,以存储取出的任务为准
+                if (expected != actual) {
+                    assertTrue(queue.remove(actual));
+                    queue.offer(expected);
+                }
+            }
+            assertTrue(queue.isEmpty() || queue.peek().completeTime > deadline);
+            assertEquals(queue.size(), store.size());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.miracle.common.round;
+
+import com.miracle.base.BaseTest;
+import com.miracle.base.RedisTestSupport;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:{@link RedisDistributedTaskStore}的测试类
+ * 参数顺序的校验不需要Redis,其余用例在真实的Redis上执行Lua脚本,连接不上时跳过
+ *
+ * @author guobin On date 2018/7/22.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class RedisDistributedTaskStoreTest extends BaseTest {
+
+    @Test
+    public void matchScriptArguments() {
+        final RedisTestSupport.ScriptRecorder recorder = new RedisTestSupport.ScriptRecorder();
+        final RedisDistributedTaskStore store = RedisDistributedTaskStore.of(recorder);
+
+        recorder.willReturn(Arrays.asList("a", "b"));
+        assertEquals(Arrays.asList("a", "b"), store.popDue("shard", 1000L, 64));
+        recorder.assertCalled(Collections.singletonList("shard"), "1000", "64");
+
+        recorder.willReturn(1L);
+        assertTrue(store.acquireLease("lease", "node-1", 3000L));
+        recorder.assertCalled(Collections.singletonList("lease"), "node-1", "3000");
+
+        store.releaseLease("lease", "node-1");
+        recorder.assertCalled(Collections.singletonList("lease"), "node-1");
+
+        recorder.willReturn(2L);
+        assertEquals(2, store.heartbeat("nodes", "node-1", 5000L, 2000L));
+        recorder.assertCalled(Collections.singletonList("nodes"), "node-1", "5000", "2000");
+    }
+
+    @Test
+    public void popDueAtMostOnce() throws Exception {
+        final String shard = "tracer-test:" + UUID.randomUUID() + ":shard";
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (RedisTestSupport redis = RedisTestSupport.connectOrSkip()) {
+            final RedisDistributedTaskStore store = RedisDistributedTaskStore.of(redis.getRedisTemplate());
+            try {
+                for (int i = 0; i < 200; i++) {
+                    store.add(shard, "task-" + i, i < 100 ? i : 10_000L + i);
+                }
+                // 多个节点同时取出同一个分片,每个到期任务只被取出一次,未到期的任务留在分片中
+                final Set<String> popped = ConcurrentHashMap.newKeySet();
+                final AtomicInteger duplicates = new AtomicInteger();
+                final List<Future<?>> futures = IntStream.range(0, 4).mapToObj(n -> executor.submit(() -> {
+                    List<String> batch;
+                    while (!(batch = store.popDue(shard, 5_000L, 7)).isEmpty()) {
+                        batch.stream().filter(member -> !popped.add(member))
+                                .forEach(member -> duplicates.incrementAndGet());
+                    }
+                })).collect(Collectors.toList());
+                for (Future<?> future : futures) {
+                    future.get(10, TimeUnit.SECONDS);
+                }
+                assertEquals(0, duplicates.get());
+                assertEquals(IntStream.range(0, 100).mapToObj(i -> "task-" + i).collect(Collectors.toSet()), popped);
+                assertTrue(store.remove(shard, "task-150"));
+                assertFalse(store.remove(shard, "task-150"));
+                assertEquals(99, store.popDue(shard, Long.MAX_VALUE / 2, 1000).size());
+            } finally {
+                redis.delete(Collections.singletonList(shard));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void fenceLeasesByOwner() throws Exception {
+        final String lease = "tracer-test:" + UUID.randomUUID() + ":lease";
+        try (RedisTestSupport redis = RedisTestSupport.connectOrSkip()) {
+            final RedisDistributedTaskStore store = RedisDistributedTaskStore.of(redis.getRedisTemplate());
+            try {
+                assertTrue(store.acquireLease(lease, "node-1", 300L));
+                assertFalse(store.acquireLease(lease, "node-2", 300L));
+                // 持有者再次获取即续约
+                assertTrue(store.acquireLease(lease, "node-1", 300L));
+                // 只能释放自己的租约
+                store.releaseLease(lease, "node-2");
+                assertFalse(store.acquireLease(lease, "node-2", 300L));
+                store.releaseLease(lease, "node-1");
+                assertTrue(store.acquireLease(lease, "node-2", 300L));
+                // 不续约的租约到期之后可以被其它节点获取
+                Thread.sleep(500L);
+                assertTrue(store.acquireLease(lease, "node-1", 300L));
+            } finally {
+                redis.delete(Collections.singletonList(lease));
+            }
+        }
+    }
+
+    @Test
+    public void heartbeatEvictsStaleNodes() {
+        final String nodes = "tracer-test:" + UUID.randomUUID() + ":nodes";
+        try (RedisTestSupport redis = RedisTestSupport.connectOrSkip()) {
+            final RedisDistributedTaskStore store = RedisDistributedTaskStore.of(redis.getRedisTemplate());
+            try {
+                assertEquals(1, store.heartbeat(nodes, "node-1", 1000L, 0L));
+                assertEquals(2, store.heartbeat(nodes, "node-2", 1500L, 0L));
+                // 最后一次心跳早于expireBefore的节点被清除,恰好等于时仍然存活
+                assertEquals(2, store.heartbeat(nodes, "node-2", 2500L, 1000L));
+                assertEquals(1, store.heartbeat(nodes, "node-2", 3000L, 1001L));
+                store.leave(nodes, "node-2");
+                assertEquals(1, store.heartbeat(nodes, "node-3", 3000L, 1001L));
+            } finally {
+                redis.delete(Collections.singletonList(nodes));
+            }
+        }
+    }
+}
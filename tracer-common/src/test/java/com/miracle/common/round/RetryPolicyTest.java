@@ -0,0 +1,53 @@
+package com.miracle.common.round;
+
+import com.miracle.base.BaseTest;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:{@link RetryPolicy}的测试类
+ *
+ * @author guobin On date 2018/7/19.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class RetryPolicyTest extends BaseTest {
+
+    @Test
+    public void fixedAndExponential() {
+        final RetryPolicy fixed = RetryPolicy.fixed(100L);
+        assertEquals(100L, fixed.nextDelay(1, 0L));
+        assertEquals(100L, fixed.nextDelay(10, 100L));
+
+        final RetryPolicy exponential = RetryPolicy.exponential(100L, 1000L);
+        assertEquals(100L, exponential.nextDelay(1, 0L));
+        assertEquals(200L, exponential.nextDelay(2, 100L));
+        assertEquals(800L, exponential.nextDelay(4, 400L));
+        assertEquals(1000L, exponential.nextDelay(5, 800L));
+        // 失败次数很多时不会溢出
+        assertEquals(1000L, exponential.nextDelay(Integer.MAX_VALUE, 1000L));
+    }
+
+    @Test
+    public void decorrelatedJitter() {
+        final RetryPolicy jitter = RetryPolicy.decorrelatedJitter(100L, 5000L);
+        long lastDelay = 0L;
+        boolean varied = false;
+        for (int attempts = 1; attempts <= 1000; attempts++) {
+            final long delay = jitter.nextDelay(attempts, lastDelay);
+            assertTrue(delay >= 100L && delay <= Math.min(5000L, Math.max(100L, lastDelay) * 3));
+            varied |= delay != lastDelay;
+            lastDelay = delay;
+        }
+        assertTrue(varied);
+    }
+
+    @Test
+    public void giveUpAfterMaxAttempts() {
+        final RetryPolicy policy = RetryPolicy.fixed(10L).maxAttempts(3);
+        assertEquals(10L, policy.nextDelay(1, 0L));
+        assertEquals(10L, policy.nextDelay(2, 10L));
+        assertEquals(RetryPolicy.GIVE_UP, policy.nextDelay(3, 10L));
+    }
+}
@@ -0,0 +1,458 @@
+package com.miracle.common.round;
+
+import com.miracle.base.BaseTest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:{@link RoundRobinDispatcher}的测试类
+ *
+ * @author guobin On date 2018/7/15.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class RoundRobinDispatcherTest extends BaseTest {
+
+    private static final long TIME_SLICE = 20L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void executeAndReschedule() throws InterruptedException {
+        for (TickMode tickMode : EnumSet.of(TickMode.FIXED_RATE, TickMode.ADAPTIVE)) {
+            for (TaskQueueType type : TaskQueueType.values()) {
+                final RoundRobinDispatcher dispatcher = new RoundRobinDispatcher(TIME_SLICE, type, tickMode);
+                final AtomicInteger attempts = new AtomicInteger();
+                final CountDownLatch done = new CountDownLatch(1);
+                final long start = System.currentTimeMillis();
+                // 前两次执行失败,以50ms的时长重新放回
+                dispatcher.add("task", 100L, "reschedule", s -> {
+                    if (attempts.incrementAndGet() < 3) {
+                        return 50L;
+                    }
+                    done.countDown();
+                    return 0L;
+                });
+                assertTrue(type + "/" + tickMode, done.await(5, TimeUnit.SECONDS));
+                assertEquals(3, attempts.get());
+                // 固定频率模式下截止时间领先于当前时间一个时间片,每次执行最多会提前一个时间片
+                assertTrue(System.currentTimeMillis() - start >= 200L - 3 * TIME_SLICE);
+            }
+        }
+    }
+
+    @Test
+    public void cancelAndUpdate() throws InterruptedException {
+        for (TaskQueueType type : TaskQueueType.values()) {
+            final RoundRobinDispatcher dispatcher = new RoundRobinDispatcher(TIME_SLICE, type, TickMode.ADAPTIVE);
+            final AtomicInteger executed = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(1);
+
+            // 1.取消之后不再执行
+            final TaskHandle handle = dispatcher.add(1, 100L, "cancel", i -> {
+                executed.incrementAndGet();
+                return 0L;
+            });
+            assertTrue(handle.cancel());
+            assertTrue(handle.isCancelled());
+            assertFalse(handle.cancel());
+
+            // 2.重复添加同一个元素只会更新到期时间,不会产生重复的任务
+            dispatcher.add(2, 60_000L, "update", i -> {
+                executed.incrementAndGet();
+                done.countDown();
+                return 0L;
+            });
+            dispatcher.add(2, 100L, "update", i -> 0L);
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            Thread.sleep(200L);
+            assertEquals(1, executed.get());
+        }
+    }
+
+    @Test
+    public void shutdownWithPolicy() throws InterruptedException {
+        for (ShutdownPolicy policy : ShutdownPolicy.values()) {
+            final RoundRobinDispatcher dispatcher = RoundRobinDispatcherFactory.newManualRoundRobin(TIME_SLICE,
+                    TaskQueueType.TIMING_WHEEL, new VirtualClock());
+            final List<Integer> executed = new CopyOnWriteArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                // 一半的任务在关闭时已经到期,执行失败的任务在关闭期间不会被重新放回
+                dispatcher.add(i, i < 5 ? 0L : 60_000L, "shutdown", v -> executed.add(v) ? 10L : 0L);
+            }
+            dispatcher.shutdown(policy);
+            assertTrue(dispatcher.isShutdown());
+            assertTrue(policy.name(), dispatcher.awaitTermination(5, TimeUnit.SECONDS));
+            assertTrue(dispatcher.isTerminated());
+            // DRAIN只执行已经到期的任务,尚未到期的任务不会被提前执行
+            final Set<Integer> expected = policy == ShutdownPolicy.DRAIN
+                    ? new HashSet<>(Arrays.asList(0, 1, 2, 3, 4)) : Collections.emptySet();
+            assertEquals(expected, new HashSet<>(executed));
+            assertEquals(expected.size(), executed.size());
+            try {
+                dispatcher.add(0, 100L, "shutdown", v -> 0L);
+                fail();
+            } catch (IllegalStateException ex) {
+                // 关闭之后不再接受新的任务
+            }
+        }
+    }
+
+    @Test
+    public void executeInBatch() throws InterruptedException {
+        for (TaskQueueType type : TaskQueueType.values()) {
+            final RoundRobinDispatcher dispatcher = new RoundRobinDispatcher(TIME_SLICE, type, TickMode.ADAPTIVE);
+            final List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+            final Set<Integer> failed = Collections.newSetFromMap(new ConcurrentHashMap<>(16));
+            final AtomicInteger delivered = new AtomicInteger();
+            final CountDownLatch done = new CountDownLatch(150);
+            // 偶数元素第一次执行失败,以50ms的时长重新放回
+            assertTrue(dispatcher.addBatchQueue(Integer.class, "batch", list -> {
+                batches.add(list);
+                delivered.addAndGet(list.size());
+                list.forEach(i -> done.countDown());
+                final Map<Integer, Long> results = new HashMap<>(16);
+                list.stream().filter(i -> i % 2 == 0 && failed.add(i)).forEach(i -> results.put(i, 50L));
+                return results;
+            }, QueueOptions.newOptions().maxBatchSize(80)));
+            for (int i = 0; i < 100; i++) {
+                dispatcher.add(i, 100L, "batch");
+            }
+            assertTrue(type.name(), done.await(5, TimeUnit.SECONDS));
+            Thread.sleep(100L);
+            assertEquals(150, delivered.get());
+            assertEquals(50, failed.size());
+            // 同一个时间片中到期的元素合并交付,每一批不超过上限
+            assertTrue(batches.size() < 10);
+            assertTrue(batches.stream().allMatch(batch -> batch.size() <= 80));
+            try {
+                dispatcher.add(0, 100L, "missing");
+                fail();
+            } catch (IllegalArgumentException ex) {
+                // 不指定执行函数时队列必须已经存在
+            }
+        }
+    }
+
+    @Test
+    public void recoverDurableQueue() throws IOException, InterruptedException {
+        final QueueOptions options = QueueOptions.newOptions().codec(TaskCodec.<String>serializable());
+        RoundRobinDispatcher dispatcher = new RoundRobinDispatcher(TIME_SLICE, TaskQueueType.TIMING_WHEEL,
+                TickMode.ADAPTIVE, RoundRobinDispatcherFactory.sharedScheduler(),
+                TaskJournal.open(folder.getRoot().toPath(), 4096L));
+        assertTrue(dispatcher.createQueue(String.class, "durable", s -> 0L, options));
+        dispatcher.add("kept", 200L, "durable");
+        dispatcher.add("cancelled", 60_000L, "durable").cancel();
+        // 丢弃的任务仍然保留在预写日志中
+        dispatcher.shutdown(ShutdownPolicy.DISCARD);
+        assertTrue(dispatcher.awaitTermination(5, TimeUnit.SECONDS));
+
+        final List<String> executed = new CopyOnWriteArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        dispatcher = new RoundRobinDispatcher(TIME_SLICE, TaskQueueType.TIMING_WHEEL, TickMode.ADAPTIVE,
+                RoundRobinDispatcherFactory.sharedScheduler(), TaskJournal.open(folder.getRoot().toPath(), 4096L));
+        assertTrue(dispatcher.createQueue(String.class, "durable", s -> {
+            executed.add(s);
+            done.countDown();
+            return 0L;
+        }, options));
+        // 恢复的任务按照原来的到期时间执行
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        dispatcher.shutdown(ShutdownPolicy.DRAIN);
+        assertTrue(dispatcher.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("kept"), executed);
+        try (TaskJournal journal = TaskJournal.open(folder.getRoot().toPath(), 4096L)) {
+            assertEquals(0, journal.size());
+        }
+    }
+
+    @Test
+    public void keepDurableTasksOnShutdown() throws IOException, InterruptedException {
+        final QueueOptions options = QueueOptions.newOptions().codec(TaskCodec.<String>serializable());
+        final VirtualClock clock = new VirtualClock(1000L);
+        final List<String> executed = new CopyOnWriteArrayList<>();
+        RoundRobinDispatcher dispatcher = new RoundRobinDispatcher(TIME_SLICE, TaskQueueType.TIMING_WHEEL,
+                TickMode.MANUAL, RoundRobinDispatcherFactory.sharedScheduler(),
+                TaskJournal.open(folder.getRoot().toPath(), 4096L), clock);
+        assertTrue(dispatcher.createQueue(String.class, "durable", s -> executed.add(s) ? 0L : 0L, options));
+        dispatcher.add("future", 60_000L, "durable");
+        // 即使是DRAIN策略,持久化队列的任务也不会在关闭时执行,更不会被提前执行
+        dispatcher.shutdown(ShutdownPolicy.DRAIN);
+        assertTrue(dispatcher.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(executed.isEmpty());
+        try (TaskJournal journal = TaskJournal.open(folder.getRoot().toPath(), 4096L)) {
+            final List<TaskJournal.Entry> entries = journal.recover("String-durable");
+            assertEquals(1, entries.size());
+            assertEquals(61_000L, entries.get(0).completeTime);
+        }
+
+        // 重启之后按照原来的到期时间执行
+        dispatcher = new RoundRobinDispatcher(TIME_SLICE, TaskQueueType.TIMING_WHEEL, TickMode.MANUAL,
+                RoundRobinDispatcherFactory.sharedScheduler(), TaskJournal.open(folder.getRoot().toPath(), 4096L),
+                clock);
+        assertTrue(dispatcher.createQueue(String.class, "durable", s -> executed.add(s) ? 0L : 0L,
+                options.executionPool(TaskExecutionPool.of(Runnable::run, 4,
+                        TaskExecutionPool.SaturationPolicy.REJECT, 0L))));
+        clock.advance(59_000L);
+        dispatcher.tick();
+        assertTrue(executed.isEmpty());
+        clock.advance(1_000L + TIME_SLICE);
+        dispatcher.tick();
+        assertEquals(Collections.singletonList("future"), executed);
+        dispatcher.shutdown(ShutdownPolicy.DISCARD);
+        assertTrue(dispatcher.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void journalDurableTaskBeforeAddReturns() throws IOException, InterruptedException {
+        final Path live = folder.newFolder("live").toPath();
+        final RoundRobinDispatcher dispatcher = new RoundRobinDispatcher(TIME_SLICE, TaskQueueType.TIMING_WHEEL,
+                TickMode.ADAPTIVE, RoundRobinDispatcherFactory.sharedScheduler(), TaskJournal.open(live, 4096L));
+        assertTrue(dispatcher.createQueue(String.class, "durable", s -> 0L,
+                QueueOptions.newOptions().codec(TaskCodec.<String>serializable())));
+        dispatcher.add("far-future", TimeUnit.HOURS.toMillis(1), "durable");
+        // 不推进时间片也不关闭,直接复制此刻的日志文件,模拟进程在下一次醒来之前崩溃
+        final Path crashed = folder.newFolder("crashed").toPath();
+        try (Stream<Path> segments = Files.list(live)) {
+            for (Path segment : (Iterable<Path>) segments::iterator) {
+                Files.copy(segment, crashed.resolve(segment.getFileName()));
+            }
+        }
+        try (TaskJournal journal = TaskJournal.open(crashed, 4096L)) {
+            final List<TaskJournal.Entry> entries = journal.recover("String-durable");
+            assertEquals(1, entries.size());
+        } finally {
+            dispatcher.shutdown(ShutdownPolicy.DISCARD);
+            assertTrue(dispatcher.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void retryWithPolicy() {
+        final VirtualClock clock = new VirtualClock();
+        final RoundRobinDispatcher dispatcher = RoundRobinDispatcherFactory.newManualRoundRobin(TIME_SLICE,
+                TaskQueueType.TIMING_WHEEL, clock);
+        final List<Long> executedAt = new ArrayList<>();
+        final Map<String, Integer> deadLetters = new HashMap<>(16);
+        final QueueOptions options = QueueOptions.newOptions()
+                .executionPool(TaskExecutionPool.of(Runnable::run, 16, TaskExecutionPool.SaturationPolicy.REJECT, 0L))
+                .retryPolicy(RetryPolicy.exponential(100L, 1000L).maxAttempts(4))
+                .deadLetterHandler((String s, int attempts) -> deadLetters.put(s, attempts));
+        // 抛出异常同样视作执行失败
+        dispatcher.createQueue(String.class, "retry", s -> {
+            executedAt.add(clock.currentTimeMillis());
+            throw new IllegalStateException("Dependency is down.");
+        }, options);
+        dispatcher.add("task", 0L, "retry");
+        for (int i = 0; i < 100; i++) {
+            clock.advance(TIME_SLICE);
+            dispatcher.tick();
+        }
+        // 第一次执行之后依次间隔100ms、200ms、400ms重试,第4次失败之后交给死信处理函数
+        assertEquals(Arrays.asList(20L, 120L, 320L, 720L), executedAt);
+        assertEquals(Collections.singletonMap("task", 4), deadLetters);
+        dispatcher.shutdown(ShutdownPolicy.DISCARD);
+        assertTrue(dispatcher.isTerminated());
+    }
+
+    @Test
+    public void carryOverWhenRateLimited() {
+        final VirtualClock clock = new VirtualClock();
+        final RoundRobinDispatcher dispatcher = RoundRobinDispatcherFactory.newManualRoundRobin(TIME_SLICE,
+                TaskQueueType.PRIORITY_QUEUE, clock);
+        final AtomicInteger executed = new AtomicInteger();
+        // 每毫秒生成1个令牌,最多积攒10个,每个时间片最多提交10个任务
+        dispatcher.createQueue(Integer.class, "limited", i -> {
+            executed.incrementAndGet();
+            return 0L;
+        }, QueueOptions.newOptions()
+                .executionPool(TaskExecutionPool.of(Runnable::run, 1024, TaskExecutionPool.SaturationPolicy.REJECT, 0L))
+                .rateLimit(1000D, 10));
+        for (int i = 0; i < 100; i++) {
+            dispatcher.add(i, 0L, "limited");
+        }
+        for (int tick = 1; tick <= 10; tick++) {
+            clock.advance(TIME_SLICE);
+            dispatcher.tick();
+            // 超过速率的任务没有被丢弃,而是留到下一个时间片
+            assertEquals(tick * 10, executed.get());
+        }
+    }
+
+    @Test
+    public void shareSaturatedPoolByWeight() {
+        final VirtualClock clock = new VirtualClock();
+        final RoundRobinDispatcher dispatcher = RoundRobinDispatcherFactory.newManualRoundRobin(TIME_SLICE,
+                TaskQueueType.TIMING_WHEEL, clock);
+        // 提交的任务先积压在执行器中,执行池在一个时间片中最多准入256个任务
+        // 即使执行池的策略是BLOCK,共享的调度线程也不会等待许可
+        final List<Runnable> submitted = new ArrayList<>();
+        final TaskExecutionPool pool = TaskExecutionPool.of(submitted::add, 256,
+                TaskExecutionPool.SaturationPolicy.BLOCK, 5000L);
+        final Map<String, AtomicInteger> executed = new HashMap<>(16);
+        for (String queueName : Arrays.asList("noisy", "urgent")) {
+            executed.put(queueName, new AtomicInteger());
+            dispatcher.createQueue(Integer.class, queueName, i -> executed.get(queueName).incrementAndGet(),
+                    QueueOptions.newOptions().executionPool(pool).weight("urgent".equals(queueName) ? 3 : 1));
+            for (int i = 0; i < 1000; i++) {
+                dispatcher.add(i, 0L, queueName);
+            }
+        }
+        clock.advance(TIME_SLICE);
+        final long start = System.currentTimeMillis();
+        dispatcher.tick();
+        assertTrue(System.currentTimeMillis() - start < 2000L);
+        submitted.forEach(Runnable::run);
+        // 执行池的许可按照1:3的权重分给两个队列
+        assertEquals(64, executed.get("noisy").get());
+        assertEquals(192, executed.get("urgent").get());
+    }
+
+    @Test
+    public void recordQueueMetrics() throws InterruptedException {
+        final VirtualClock clock = new VirtualClock();
+        final RoundRobinDispatcher dispatcher = RoundRobinDispatcherFactory.newManualRoundRobin(TIME_SLICE,
+                TaskQueueType.PRIMITIVE_HEAP, clock);
+        final Set<Integer> rescheduled = new HashSet<>();
+        // 偶数第一次执行之后重新放回,0在执行期间把自己删除,执行结果会被丢弃
+        dispatcher.createQueue(Integer.class, "metrics", i -> {
+            if (i == 0) {
+                dispatcher.remove(i, "metrics");
+                return 100L;
+            }
+            return i % 2 == 0 && rescheduled.add(i) ? 100L : 0L;
+        }, QueueOptions.newOptions()
+                .executionPool(TaskExecutionPool.of(Runnable::run, 1024, TaskExecutionPool.SaturationPolicy.REJECT, 0L)));
+        for (int i = 0; i < 10; i++) {
+            dispatcher.add(i, 50L, "metrics");
+        }
+        assertEquals(10, dispatcher.getQueueMetrics(Integer.class, "metrics").getDepth());
+        for (int tick = 0; tick < 10; tick++) {
+            clock.advance(TIME_SLICE);
+            dispatcher.tick();
+        }
+        final QueueMetrics.Snapshot snapshot = dispatcher.getQueueMetrics(Integer.class, "metrics");
+        assertEquals(0, snapshot.getDepth());
+        assertEquals(14, snapshot.getExecuted());
+        assertEquals(4, snapshot.getRescheduled());
+        assertEquals(1, snapshot.getTombstones());
+        assertEquals(14, snapshot.getLag().getCount());
+        assertEquals(14, snapshot.getExecutionNanos().getCount());
+        // 截止时间与时间片对齐,任务最多晚一个时间片执行
+        assertTrue(snapshot.getLag().getMax() < TIME_SLICE);
+        // 10个时间片共200ms,其间重新放回了4次
+        assertEquals(20D, snapshot.getRescheduleRate(), 0.01D);
+
+        // 监听器收到的是每个周期中的增量
+        final BlockingQueue<List<QueueMetrics.Snapshot>> received = new LinkedBlockingQueue<>();
+        dispatcher.addMetricsListener(received::add, 10L, TimeUnit.MILLISECONDS);
+        assertEquals(14, received.poll(5, TimeUnit.SECONDS).get(0).getExecuted());
+        assertEquals(0, received.poll(5, TimeUnit.SECONDS).get(0).getExecuted());
+        dispatcher.shutdown(ShutdownPolicy.DISCARD);
+    }
+
+    @Test
+    public void stageConcurrentAdds() throws InterruptedException {
+        final VirtualClock clock = new VirtualClock();
+        final RoundRobinDispatcher dispatcher = RoundRobinDispatcherFactory.newManualRoundRobin(TIME_SLICE,
+                TaskQueueType.TIMING_WHEEL, clock);
+        final Map<Integer, AtomicInteger> executed = new ConcurrentHashMap<>();
+        dispatcher.createQueue(Integer.class, "staged", i -> {
+            executed.computeIfAbsent(i, k -> new AtomicInteger()).incrementAndGet();
+            return 0L;
+        }, QueueOptions.newOptions()
+                .executionPool(TaskExecutionPool.of(Runnable::run, 1024, TaskExecutionPool.SaturationPolicy.REJECT, 0L)));
+        // 8个线程同时添加,每个元素都被添加两次,同时推进时间片的线程不断取出暂存的任务
+        final int threads = 8;
+        final int perThread = 20_000;
+        final CountDownLatch ready = new CountDownLatch(threads);
+        final CountDownLatch finished = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int base = t * perThread;
+            new Thread(() -> {
+                ready.countDown();
+                for (int i = 0; i < perThread; i++) {
+                    dispatcher.add(base + i / 2, 1000L, "staged");
+                }
+                finished.countDown();
+            }).start();
+        }
+        ready.await();
+        while (finished.getCount() > 0) {
+            dispatcher.tick();
+        }
+        assertEquals(threads * perThread / 2, dispatcher.getQueueMetrics(Integer.class, "staged").getDepth());
+        for (int tick = 0; tick < 1000L / TIME_SLICE + 1; tick++) {
+            clock.advance(TIME_SLICE);
+            dispatcher.tick();
+        }
+        // 重复添加的元素只执行一次
+        assertEquals(threads * perThread / 2, executed.size());
+        assertTrue(executed.values().stream().allMatch(count -> count.get() == 1));
+        assertEquals(0, dispatcher.getQueueMetrics(Integer.class, "staged").getDepth());
+    }
+
+    @Test
+    public void completeAsyncTasks() {
+        final VirtualClock clock = new VirtualClock();
+        final RoundRobinDispatcher dispatcher = RoundRobinDispatcherFactory.newManualRoundRobin(TIME_SLICE,
+                TaskQueueType.PRIORITY_QUEUE, clock);
+        final Map<Integer, CompletableFuture<Long>> inFlight = new ConcurrentHashMap<>();
+        final List<Integer> executed = new CopyOnWriteArrayList<>();
+        // 执行池只允许2个异步操作同时进行,操作完成之前不会再发起新的操作
+        dispatcher.createAsyncQueue(Integer.class, "async", i -> {
+            executed.add(i);
+            final CompletableFuture<Long> future = new CompletableFuture<>();
+            inFlight.put(i, future);
+            return future;
+        }, QueueOptions.newOptions()
+                .executionPool(TaskExecutionPool.of(Runnable::run, 2, TaskExecutionPool.SaturationPolicy.REJECT, 0L)));
+        for (int i = 0; i < 5; i++) {
+            dispatcher.add(i, (long) i, "async");
+        }
+        clock.advance(TIME_SLICE);
+        dispatcher.tick();
+        assertEquals(Arrays.asList(0, 1), executed);
+        dispatcher.tick();
+        assertEquals(2, executed.size());
+
+        // 0完成,1要求100ms之后重新执行
+        inFlight.remove(0).complete(0L);
+        inFlight.remove(1).complete(100L);
+        clock.advance(TIME_SLICE);
+        dispatcher.tick();
+        assertEquals(Arrays.asList(0, 1, 2, 3), executed);
+        inFlight.remove(2).completeExceptionally(new IllegalStateException("failed"));
+        inFlight.remove(3).complete(null);
+        for (int tick = 0; tick < 5; tick++) {
+            clock.advance(TIME_SLICE);
+            dispatcher.tick();
+            inFlight.values().forEach(future -> future.complete(0L));
+        }
+        // 异常完成的任务没有重试策略时视作完成
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 1), executed);
+        final QueueMetrics.Snapshot snapshot = dispatcher.getQueueMetrics(Integer.class, "async");
+        assertEquals(0, snapshot.getDepth());
+        assertEquals(1, snapshot.getRescheduled());
+        dispatcher.shutdown(ShutdownPolicy.DRAIN);
+        assertTrue(dispatcher.isTerminated());
+    }
+}
@@ -0,0 +1,79 @@
+package com.miracle.common.round;
+
+import com.miracle.base.BaseTest;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:{@link TaskExecutionPool}的测试类
+ *
+ * @author guobin On date 2018/7/13.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class TaskExecutionPoolTest extends BaseTest {
+
+    @Test
+    public void rejectWhenSaturated() throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final TaskExecutionPool pool = TaskExecutionPool.of(executor, 2,
+                TaskExecutionPool.SaturationPolicy.REJECT, 0L);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(2);
+        try {
+            // 1.许可用完之前正常准入
+            for (int i = 0; i < 2; i++) {
+                assertTrue(pool.tryAdmit());
+                pool.execute(() -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finished.countDown();
+                });
+            }
+            assertTrue(pool.isSaturated());
+            assertEquals(2, pool.getInFlightCount());
+
+            // 2.饱和之后拒绝准入
+            assertFalse(pool.tryAdmit());
+            assertEquals(1L, pool.getRejectedCount());
+
+            // 3.任务结束之后许可被归还
+            release.countDown();
+            assertTrue(finished.await(5, TimeUnit.SECONDS));
+            final long deadline = System.currentTimeMillis() + 5000L;
+            while (pool.getInFlightCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            assertEquals(0, pool.getInFlightCount());
+            assertFalse(pool.isSaturated());
+            assertEquals(2L, pool.getSubmittedCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void blockUntilTimeout() {
+        final TaskExecutionPool pool = TaskExecutionPool.of(Runnable::run, 1,
+                TaskExecutionPool.SaturationPolicy.BLOCK, 50L);
+        assertTrue(pool.tryAdmit());
+        final long start = System.currentTimeMillis();
+        assertFalse(pool.tryAdmit());
+        assertTrue(System.currentTimeMillis() - start >= 40L);
+        // 调度线程所用的准入不会等待
+        final long nowStart = System.currentTimeMillis();
+        assertFalse(pool.tryAdmitNow());
+        assertTrue(System.currentTimeMillis() - nowStart < 40L);
+        pool.cancelAdmission();
+        assertTrue(pool.tryAdmit());
+    }
+}
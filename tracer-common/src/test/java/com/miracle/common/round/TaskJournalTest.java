@@ -0,0 +1,109 @@
+package com.miracle.common.round;
+
+import com.miracle.base.BaseTest;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:{@link TaskJournal}的测试类
+ *
+ * @author guobin On date 2018/7/17.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class TaskJournalTest extends BaseTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replayAfterReopen() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        try (TaskJournal journal = TaskJournal.open(directory, 4096L)) {
+            final long first = journal.add("queue-a", 100L, bytes("first"));
+            final long second = journal.add("queue-a", 200L, bytes("second"));
+            journal.add("queue-b", 300L, bytes("third"));
+            journal.update(second, 250L);
+            journal.remove(first);
+        }
+        try (TaskJournal journal = TaskJournal.open(directory, 4096L)) {
+            assertEquals(2, journal.size());
+            final List<TaskJournal.Entry> entries = journal.recover("queue-a");
+            assertEquals(1, entries.size());
+            assertEquals(250L, entries.get(0).completeTime);
+            assertEquals("second", new String(entries.get(0).payload, StandardCharsets.UTF_8));
+            // 每个队列只能取走一次
+            assertTrue(journal.recover("queue-a").isEmpty());
+            // 编号在重新打开之后不会重复
+            assertTrue(journal.add("queue-a", 400L, bytes("fourth")) > entries.get(0).id);
+        }
+    }
+
+    @Test
+    public void compactWhenHistoryGrows() throws IOException {
+        final Path directory = folder.getRoot().toPath();
+        try (TaskJournal journal = TaskJournal.open(directory, 1024L)) {
+            journal.add("queue", 0L, bytes("live"));
+            // 大量新增再删除的历史记录会不断滚动段,压缩之后只剩下存活的任务
+            for (int i = 0; i < 10_000; i++) {
+                journal.remove(journal.add("queue", i, bytes("history-" + i)));
+            }
+            assertEquals(1, journal.size());
+            assertTrue(this.segmentCount(directory) <= 3);
+        }
+        try (TaskJournal journal = TaskJournal.open(directory, 1024L)) {
+            assertEquals(1, journal.size());
+            assertEquals("live", new String(journal.recover("queue").get(0).payload, StandardCharsets.UTF_8));
+            assertEquals(1, this.segmentCount(directory));
+        }
+    }
+
+    @Test
+    public void unmapDeletedSegments() throws IOException {
+        // 通过/proc/self/maps检查映射,其它平台上跳过
+        final Path maps = Paths.get("/proc/self/maps");
+        Assume.assumeTrue(Files.isReadable(maps));
+        final Path directory = folder.getRoot().toPath();
+        try (TaskJournal journal = TaskJournal.open(directory, 1024L)) {
+            for (int i = 0; i < 1_000; i++) {
+                journal.remove(journal.add("queue", i, bytes("history-" + i)));
+            }
+            // 压缩删除的段不能仍然映射在进程中
+            assertEquals(0L, this.mappedSegmentCount(maps, directory, true));
+            assertTrue(this.mappedSegmentCount(maps, directory, false) > 0);
+        }
+        // 关闭之后所有的段都解除映射
+        assertEquals(0L, this.mappedSegmentCount(maps, directory, false));
+    }
+
+    private long mappedSegmentCount(Path maps, Path directory, boolean deleted) throws IOException {
+        final String prefix = directory.toRealPath().toString();
+        try (Stream<String> lines = Files.lines(maps)) {
+            return lines.filter(line -> line.contains(prefix))
+                    .filter(line -> !deleted || line.endsWith("(deleted)"))
+                    .count();
+        }
+    }
+
+    private long segmentCount(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,87 @@
+package com.miracle.data.po.request;
+
+import com.miracle.data.po.data.BasePO;
+
+/**
+ * Description:支持游标(keyset)分页的po层请求封装类
+ * 按页码分页时数据库需要跳过之前所有页的数据,越靠后的页查询越慢;游标分页记住上一页最后一条数据的排序字段值和id,
+ * 下一页只查询排在它之后的数据,每一页的开销都相同,适合导出整个集合这样的深度遍历
+ * 数据按{@link #seekColumn}排序,值相同时再按id排序,所以即使排序字段的值有重复也不会漏掉或者重复返回数据;
+ * 排序方向与{@link #isAsc()}一致,{@link #getSortingColumns()}和页码在游标分页时不起作用
+ * 游标为空时查询第一页
+ *
+ * @author guobin On date 2018/7/27.
+ * @version 1.0
+ * @since jdk 1.8
+ */
+public class SeekPersistenceRequest extends CommonPersistenceRequest {
+
+    /**
+     * 游标分页排序的字段名,默认为id
+     */
+    private String seekColumn;
+
+    /**
+     * 上一页最后一条数据的排序字段值
+     */
+    private Object lastSeekValue;
+
+    /**
+     * 上一页最后一条数据的id
+     */
+    private Object lastId;
+
+    public SeekPersistenceRequest() {
+        super();
+        this.seekColumn = BasePO.Column.ID;
+    }
+
+    /**
+     * 把游标移动到给定的数据之后,下一次查询从它之后的数据开始
+     * @param lastSeekValue 上一页最后一条数据的排序字段值,按id排序时与id相同
+     * @param lastId 上一页最后一条数据的id
+     */
+    public void seekAfter(Object lastSeekValue, Object lastId) {
+        this.lastSeekValue = lastSeekValue;
+        this.lastId = lastId;
+    }
+
+    /**
+     * 清空游标,下一次查询从第一页开始
+     */
+    public void resetSeek() {
+        this.seekAfter(null, null);
+    }
+
+    /**
+     * 判断游标是否为空
+     * @return true表示下一次查询的是第一页
+     */
+    public boolean isFirstSeek() {
+        return this.lastId == null;
+    }
+
+    /**
+     * 判断是否只按id排序
+     * @return true表示排序字段就是id
+     */
+    public boolean isSeekById() {
+        return BasePO.Column.ID.equals(this.seekColumn);
+    }
+
+    public String getSeekColumn() {
+        return seekColumn;
+    }
+
+    public void setSeekColumn(String seekColumn) {
+        this.seekColumn = seekColumn;
+    }
+
+    public Object getLastSeekValue() {
+        return lastSeekValue;
+    }
+
+    public Object getLastId() {
+        return lastId;
+    }
+}
@@ -1,6 +1,6 @@
 package com.miracle.data.po.request.user;
 
-import com.miracle.data.po.request.CommonPersistenceRequest;
+import com.miracle.data.po.request.SeekPersistenceRequest;
 
 /**
  * Description:user的dao层请求集
@@ -9,7 +9,7 @@ import com.miracle.data.po.request.CommonPersistenceRequest;
  * @version 1.0
  * @since jdk 1.8
  */
-public class UserPersistenceRequest extends CommonPersistenceRequest {
+public class UserPersistenceRequest extends SeekPersistenceRequest {
 
     /**
      * 主键id
@@ -45,4 +45,12 @@ public interface UserDao {
      * @return 操作结果
      */
     UserPersisitenceResult queryByRequest(UserPersistenceRequest request);
+
+    /**
+     * 根据条件进行游标分页查询,查询请求的游标之后的一页数据
+     * 结果的总数只是这一页的数量,不足一页说明已经没有更多的数据
+     * @param request 请求,游标见{@link UserPersistenceRequest#seekAfter}
+     * @return 操作结果
+     */
+    UserPersisitenceResult seekByRequest(UserPersistenceRequest request);
 }
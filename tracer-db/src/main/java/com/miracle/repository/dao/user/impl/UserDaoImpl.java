@@ -3,6 +3,7 @@ package com.miracle.repository.dao.user.impl;
 import com.miracle.repository.cache.annotation.ReadAction;
 import com.miracle.repository.cache.annotation.WriteAction;
 import com.miracle.repository.dao.user.UserDao;
+import com.miracle.data.po.data.BasePO;
 import com.miracle.data.po.data.user.UserPO;
 import com.miracle.data.po.request.user.UserPersistenceRequest;
 import com.miracle.data.po.result.PersistenceResultFactory;
@@ -107,4 +108,29 @@ public class UserDaoImpl implements UserDao {
         }
         return result;
     }
+
+    /**
+     * 游标分页通常用于遍历整个集合,所以不经过{@link ReadAction}的缓存切面,以免把遍历到的数据全部写入缓存
+     */
+    @Override
+    public UserPersisitenceResult seekByRequest(UserPersistenceRequest request) {
+        final Query query = MongodbQueryBuilder.newQuery()
+                .is(BasePO.Column.ID, request.getId())
+                .is(UserPO.Column.EMAIL_ADDRESS, request.getEmailAddress())
+                .is(UserPO.Column.CELLPHONE_NUMBER, request.getCellphoneNumber())
+                .is(UserPO.Column.USERNAME, request.getUsername())
+                .seekQuery(request)
+                .get();
+
+        UserPersisitenceResult result;
+        try {
+            // 不再统计总数,count同样需要扫描所有符合条件的数据
+            final List<UserPO> list = this.mongoTemplate.find(query, UserPO.class);
+            result = PersistenceResultFactory.successResult(RESULT_SUPPLIER,
+                    list, request.getPage(), list.size());
+        } catch (Exception ex) {
+            result = PersistenceResultFactory.errorResult(RESULT_SUPPLIER, ex);
+        }
+        return result;
+    }
 }
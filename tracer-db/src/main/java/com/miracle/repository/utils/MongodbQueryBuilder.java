@@ -2,12 +2,15 @@ package com.miracle.repository.utils;
 
 import com.miracle.data.po.data.BasePO;
 import com.miracle.common.function.TriConsumer;
+import com.miracle.data.po.request.SeekPersistenceRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 
 import java.util.Optional;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 
 /**
  * Description: mongodb的工具类,用于构造{@link Query}
@@ -183,6 +186,37 @@ public class MongodbQueryBuilder {
         return this;
     }
 
+    /**
+     * 游标分页查询,只查询排在请求的游标之后的一页数据,不会跳过之前的数据
+     * 按排序字段和id排序,游标条件为{@code column > v || (column == v && _id > id)},降序时比较方向相反;
+     * 条件以{@code $or}包装,所以可以与id的等值条件同时使用
+     * 要使查询不随页数变慢,排序字段和id上应当有复合索引,只按id排序时不需要额外的索引
+     * @param request 游标分页请求
+     * @return 返回构造者自身
+     */
+    public MongodbQueryBuilder seekQuery(SeekPersistenceRequest request) {
+        final Sort.Direction direction = request.isAsc() ? Sort.Direction.ASC : Sort.Direction.DESC;
+        final String column = request.getSeekColumn();
+        this.query.with(request.isSeekById()
+                ? new Sort(direction, BasePO.Column.ID)
+                : new Sort(direction, column, BasePO.Column.ID));
+        if (request.isPaging()) {
+            this.query.limit(request.getPageSize());
+        }
+        if (request.isFirstSeek()) {
+            return this;
+        }
+
+        final BiFunction<Criteria, Object, Criteria> after = request.isAsc() ? Criteria::gt : Criteria::lt;
+        final Criteria afterId = after.apply(Criteria.where(BasePO.Column.ID), request.getLastId());
+        this.query.addCriteria(request.isSeekById()
+                ? new Criteria().orOperator(afterId)
+                : new Criteria().orOperator(after.apply(Criteria.where(column), request.getLastSeekValue()),
+                        Criteria.where(column).is(request.getLastSeekValue())
+                                .andOperator(afterId)));
+        return this;
+    }
+
     /**
      * 返回{@link Query}
      * @return 构造完毕的mongodb查询对象
@@ -15,7 +15,9 @@ import org.junit.Test;
 
 import javax.annotation.Resource;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
@@ -127,6 +129,30 @@ public class UserDaoImplTest extends BaseTracerMongodbTest {
         assertTrue(this.allEqualsToExepectedElements(this.userList.subList(0, this.userList.size() - 1), UserPO::getId, UserPO.class));
     }
 
+    @Test
+    public void seekByRequest() {
+        final List<UserPO> inserted = this.userList.subList(0, this.userList.size() - 1);
+        final UserPersistenceRequest request = new UserPersistenceRequest();
+        request.setPageSize(3);
+        request.setAsc(true);
+
+        // 按id升序逐页遍历,每页都从上一页最后一条数据之后开始
+        final List<String> ids = new ArrayList<>();
+        UserPersisitenceResult result;
+        do {
+            result = this.userDao.seekByRequest(request);
+            assertEquals(ResultConstant.Code.SUCCESS, result.getCode());
+            assertTrue(result.getCount() <= 3);
+            Optional.ofNullable(result.getValues()).ifPresent(list -> list.forEach(user -> {
+                ids.add(user.getId());
+                request.seekAfter(user.getId(), user.getId());
+            }));
+        } while (result.getCount() == 3);
+
+        final List<String> expected = inserted.stream().map(UserPO::getId).sorted().collect(Collectors.toList());
+        assertEquals(expected, ids.stream().filter(expected::contains).collect(Collectors.toList()));
+    }
+
     /**
      * 根据一条{@link UserPO}构建查询请求
      * @param user 用户信息数据